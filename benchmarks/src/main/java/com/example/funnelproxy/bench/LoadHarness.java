@@ -0,0 +1,284 @@
+package com.example.funnelproxy.bench;
+
+import com.example.funnelproxy.FunnelProxyApplication;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * End-to-end load test: starts the proxy in-process with a local Reactor Netty stub backend,
+ * drives each scenario through it for a fixed time and prints latency percentiles, throughput
+ * and the proxy's allocation rate.
+ * <p>
+ * The stub and the load generator run on their own event loops ({@code bench-*} threads), so
+ * allocations on every other thread are attributed to the proxy. Settings are system properties:
+ * {@code load.duration} and {@code load.warmup} (seconds), {@code load.connections} and
+ * {@code load.streams} (concurrency for the small and large body scenarios),
+ * {@code load.sessions} (concurrent WebSocket sessions), {@code load.assets} (concurrent asset
+ * requests) and {@code load.browser-connections} (the per-host connection cap of an HTTP/1.1
+ * browser).
+ * <p>
+ * The asset scenarios compare a page loading many thumbnails over HTTP/1.1, where at most
+ * {@code load.browser-connections} requests are outstanding at once, with the same load over
+ * a single h2c connection, to HTTP/1.1 and to h2c backends.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.example.funnelproxy.bench.LoadHarness
+ * </pre>
+ */
+public class LoadHarness {
+    private static final String BENCH_THREADS = "bench-";
+    private static final byte[] SMALL = repeat("0123456789abcdef", 64);
+    private static final byte[] ASSET = repeat("0123456789abcdef", 1024);
+    private static final int LARGE_CHUNK = 64 * 1024;
+    private static final int LARGE_CHUNKS = 128;
+    private static final String MESSAGE = new String(repeat("x", 256), StandardCharsets.US_ASCII);
+    
+    private final int duration = Integer.getInteger("load.duration", 10);
+    private final int warmup = Integer.getInteger("load.warmup", 5);
+    private final int connections = Integer.getInteger("load.connections", 64);
+    private final int streams = Integer.getInteger("load.streams", 8);
+    private final int sessions = Integer.getInteger("load.sessions", 64);
+    private final int assets = Integer.getInteger("load.assets", 64);
+    private final int browserConnections = Integer.getInteger("load.browser-connections", 6);
+    
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private HttpClient client;
+    private HttpClient direct;
+    private HttpClient http1;
+    private HttpClient http2;
+    private String proxyBase;
+    
+    public static void main(String[] args) {
+        new LoadHarness().run();
+    }
+    
+    private void run() {
+        LoopResources stubLoops = LoopResources.create(BENCH_THREADS + "stub", 2, true);
+        LoopResources clientLoops = LoopResources.create(BENCH_THREADS + "client", 2, true);
+        DisposableServer stub = startStub(stubLoops);
+        ConfigurableApplicationContext proxy = SpringApplication.run(FunnelProxyApplication.class,
+                "--server.port=0",
+                "--management.server.port=0",
+                "--funnel.access-log.enabled=false",
+                "--logging.level.com.example.funnelproxy=WARN");
+        ConnectionProvider provider = ConnectionProvider.builder("bench-client")
+                .maxConnections(Math.max(connections, streams) + sessions)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        ConnectionProvider browser = ConnectionProvider.builder("bench-browser")
+                .maxConnections(browserConnections)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        ConnectionProvider multiplexed = ConnectionProvider.builder("bench-h2")
+                .maxConnections(1)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        try {
+            int port = ((WebServerApplicationContext) proxy).getWebServer().getPort();
+            proxyBase = "http://localhost:" + port;
+            client = HttpClient.create(provider).runOn(clientLoops).baseUrl(proxyBase);
+            direct = HttpClient.create(provider).runOn(clientLoops).baseUrl("http://localhost:" + stub.port());
+            http1 = HttpClient.create(browser).runOn(clientLoops).baseUrl(proxyBase);
+            http2 = HttpClient.create(multiplexed).runOn(clientLoops).protocol(HttpProtocol.H2C).baseUrl(proxyBase);
+            addMapping("bench", "/bench", "http://localhost:" + stub.port(), "HTTP11");
+            addMapping("bench-h2c", "/bench2", "http://localhost:" + stub.port(), "H2C");
+            
+            System.out.printf("%nProxy on port %d, stub on port %d; %ds warm-up and %ds per scenario%n%n",
+                    port, stub.port(), warmup, duration);
+            System.out.printf("%-16s %12s %12s %10s %10s %10s %14s %14s%n",
+                    "scenario", "ops", "ops/s", "p50 ms", "p99 ms", "p999 ms", "proxy MB/s", "proxy KB/op");
+            // The stub without the proxy, as the floor for the proxied numbers
+            scenario("direct-1k", connections, () -> small(direct, "/small"));
+            scenario("keepalive-1k", connections, () -> small(client, "/bench/small"));
+            scenario("stream-8m", streams, this::large);
+            scenario("websocket-echo", sessions, null);
+            scenario("assets-h1", assets, () -> small(http1, "/bench/asset"));
+            scenario("assets-h2", assets, () -> small(http2, "/bench/asset"));
+            scenario("assets-h2-h2c", assets, () -> small(http2, "/bench2/asset"));
+        } finally {
+            proxy.close();
+            stub.disposeNow();
+            provider.disposeLater().block();
+            browser.disposeLater().block();
+            multiplexed.disposeLater().block();
+            stubLoops.disposeLater().block();
+            clientLoops.disposeLater().block();
+        }
+    }
+    
+    private DisposableServer startStub(LoopResources loops) {
+        ByteBuf chunk = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(repeat("0123456789abcdef", LARGE_CHUNK / 16)));
+        return HttpServer.create()
+                .port(0)
+                .runOn(loops)
+                .protocol(HttpProtocol.HTTP11, HttpProtocol.H2C)
+                .route(routes -> routes
+                        .get("/small", (request, response) -> response
+                                .header("Content-Type", "text/plain")
+                                .sendByteArray(Mono.just(SMALL)))
+                        .get("/asset", (request, response) -> response
+                                .header("Content-Type", "image/webp")
+                                .header("Content-Length", String.valueOf(ASSET.length))
+                                .sendByteArray(Mono.just(ASSET)))
+                        .get("/large", (request, response) -> response
+                                .header("Content-Type", "application/octet-stream")
+                                .header("Content-Length", String.valueOf((long) LARGE_CHUNK * LARGE_CHUNKS))
+                                .send(Flux.range(0, LARGE_CHUNKS).map(i -> chunk.duplicate())))
+                        .ws("/echo", (in, out) -> out.sendObject(in.receiveFrames().map(WebSocketFrame::retain))))
+                .bindNow();
+    }
+    
+    private void addMapping(String name, String prefix, String target, String protocol) {
+        String json = String.format("{\"name\":\"%s\",\"pathPrefix\":\"%s\",\"targetUrl\":\"%s\",\"upstreamProtocol\":\"%s\"}",
+                name, prefix, target, protocol);
+        client.headers(headers -> headers.set("Content-Type", "application/json"))
+                .post()
+                .uri("/admin/api/services")
+                .send(ByteBufFlux.fromString(Mono.just(json)))
+                .responseSingle((response, body) -> {
+                    if (response.status().code() != 200) {
+                        return Mono.error(new IllegalStateException("Adding the mapping failed: " + response.status()));
+                    }
+                    return body.then();
+                })
+                .block(Duration.ofSeconds(10));
+    }
+    
+    private Mono<Long> small(HttpClient target, String uri) {
+        return target.get().uri(uri)
+                .responseSingle((response, body) -> body.map(buffer -> (long) buffer.readableBytes()))
+                .defaultIfEmpty(0L);
+    }
+    
+    private Mono<Long> large() {
+        // Count the bytes as they stream through, without aggregating the body
+        return client.get().uri("/bench/large")
+                .responseContent()
+                .map(buffer -> (long) buffer.readableBytes())
+                .reduce(0L, Long::sum);
+    }
+    
+    /**
+     * Runs a scenario for the warm-up period, discards the numbers, then measures it. A
+     * {@code null} request runs the WebSocket echo scenario instead.
+     */
+    private void scenario(String name, int concurrency, Supplier<Mono<Long>> request) {
+        drive(concurrency, request, warmup, new ConcurrentHistogram(3));
+        
+        Histogram latencies = new ConcurrentHistogram(3);
+        long allocatedBefore = proxyAllocatedBytes();
+        long start = System.nanoTime();
+        long bytes = drive(concurrency, request, duration, latencies);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = proxyAllocatedBytes() - allocatedBefore;
+        
+        long ops = latencies.getTotalCount();
+        System.out.printf(Locale.ROOT, "%-16s %12d %12.0f %10.3f %10.3f %10.3f %14.1f %14.1f%n",
+                name, ops, ops / seconds,
+                latencies.getValueAtPercentile(50) / 1e6,
+                latencies.getValueAtPercentile(99) / 1e6,
+                latencies.getValueAtPercentile(99.9) / 1e6,
+                allocated / seconds / (1024 * 1024),
+                ops > 0 ? allocated / 1024.0 / ops : 0);
+        if (request != null && bytes > 0) {
+            System.out.printf(Locale.ROOT, "%-16s %12s %12.1f MB/s body throughput%n", "", "", bytes / seconds / (1024 * 1024));
+        }
+    }
+    
+    private long drive(int concurrency, Supplier<Mono<Long>> request, int seconds, Histogram latencies) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        AtomicLong bytes = new AtomicLong();
+        Flux<Void> workers = Flux.range(0, concurrency).flatMap(worker -> request == null
+                ? echoSession(deadline, latencies)
+                : Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return request.get().doOnNext(count -> {
+                        latencies.recordValue(System.nanoTime() - start);
+                        bytes.addAndGet(count);
+                    });
+                })
+                .repeat(() -> System.nanoTime() < deadline)
+                .then(), concurrency);
+        workers.blockLast(Duration.ofSeconds(seconds + 60L));
+        return bytes.get();
+    }
+    
+    /**
+     * One WebSocket session that sends the next message as soon as the previous echo arrives,
+     * recording each round trip.
+     */
+    private Mono<Void> echoSession(long deadline, Histogram latencies) {
+        String uri = proxyBase.replace("http://", "ws://") + "/bench/echo";
+        return client.websocket().uri(uri).handle((in, out) -> {
+            Sinks.Many<String> outbound = Sinks.many().unicast().onBackpressureBuffer();
+            long[] sentAt = new long[1];
+            Mono<Void> receive = in.receiveFrames()
+                    .ofType(TextWebSocketFrame.class)
+                    .doOnNext(frame -> {
+                        long now = System.nanoTime();
+                        latencies.recordValue(now - sentAt[0]);
+                        if (now < deadline) {
+                            sentAt[0] = System.nanoTime();
+                            outbound.tryEmitNext(MESSAGE);
+                        } else {
+                            outbound.tryEmitComplete();
+                        }
+                    })
+                    .then();
+            sentAt[0] = System.nanoTime();
+            outbound.tryEmitNext(MESSAGE);
+            Mono<Void> send = out.sendString(outbound.asFlux()).then().then(out.sendClose());
+            return Mono.when(send, receive.onErrorResume(error -> Mono.empty()));
+        }).then();
+    }
+    
+    /**
+     * Bytes allocated so far by all live threads except the load generator and the stub.
+     */
+    private long proxyAllocatedBytes() {
+        long total = 0;
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = threads.getThreadInfo(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] != null && allocated[i] > 0 && !infos[i].getThreadName().startsWith(BENCH_THREADS)) {
+                total += allocated[i];
+            }
+        }
+        return total;
+    }
+    
+    private static byte[] repeat(String text, int times) {
+        byte[] unit = text.getBytes(StandardCharsets.US_ASCII);
+        byte[] result = new byte[unit.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(unit, 0, result, i * unit.length, unit.length);
+        }
+        return result;
+    }
+}
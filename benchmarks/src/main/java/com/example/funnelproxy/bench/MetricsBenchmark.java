@@ -0,0 +1,61 @@
+package com.example.funnelproxy.bench;
+
+import com.example.funnelproxy.metrics.MappingMeters;
+import com.example.funnelproxy.metrics.ProxyMetrics;
+import com.example.funnelproxy.model.ServiceMapping;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one proxied exchange into a mapping's meters against the
+ * Prometheus registry, which has to stay well below a microsecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    
+    MappingMeters meters;
+    
+    @Setup
+    public void setup() {
+        ServiceMapping mapping = new ServiceMapping("immich", "/immich", "http://immich:2283", null);
+        mapping.setId(1L);
+        meters = new ProxyMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT)).metersFor(mapping);
+    }
+    
+    private void record() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Spread latencies over the histogram range
+        long upstream = random.nextLong(100_000, 200_000_000);
+        meters.recordExchange(200, upstream + 50_000, upstream, 0, random.nextLong(100, 100_000));
+    }
+    
+    @Benchmark
+    public void recordExchange() {
+        record();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void recordExchangeContended() {
+        record();
+    }
+}
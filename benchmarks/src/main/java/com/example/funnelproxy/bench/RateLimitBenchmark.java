@@ -0,0 +1,78 @@
+package com.example.funnelproxy.bench;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.ratelimit.RateLimitRejection;
+import com.example.funnelproxy.ratelimit.RateLimitSettings;
+import com.example.funnelproxy.ratelimit.RateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking a request against a mapping's client, route and mapping limits in the
+ * {@link RateLimiter}. {@code manyClients} spreads requests over 10000 client addresses;
+ * {@code oneClient} sends them all from one, so every thread takes tokens from the same
+ * three buckets. The limits are high enough that nothing is refused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitBenchmark {
+    private static final int CLIENTS = 10_000;
+    
+    RateLimiter limiter;
+    RateLimitSettings settings;
+    String[] clients;
+    
+    @Setup
+    public void setup() {
+        ServiceMapping mapping = new ServiceMapping("immich", "/immich", "http://immich:2283", null);
+        mapping.setId(1L);
+        mapping.setClientRateLimit(1_000_000);
+        mapping.setRouteRateLimits("/api/search/**=100000000, /api/assets/**=100000000");
+        mapping.setRateLimit(1_000_000_000);
+        settings = RateLimitSettings.of(mapping);
+        limiter = new RateLimiter(new SimpleMeterRegistry(), 100_000, 10_000);
+        clients = new String[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = "10." + (i >> 16) + "." + ((i >> 8) & 255) + "." + (i & 255);
+        }
+    }
+    
+    @Benchmark
+    public RateLimitRejection manyClients() {
+        return limiter.acquire(1L, settings, clients[ThreadLocalRandom.current().nextInt(CLIENTS)], "/api/assets/1/thumbnail");
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public RateLimitRejection manyClientsContended() {
+        return manyClients();
+    }
+    
+    @Benchmark
+    public RateLimitRejection oneClient() {
+        return limiter.acquire(1L, settings, clients[0], "/api/assets/1/thumbnail");
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public RateLimitRejection oneClientContended() {
+        return oneClient();
+    }
+}
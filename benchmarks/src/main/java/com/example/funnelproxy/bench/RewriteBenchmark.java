@@ -0,0 +1,103 @@
+package com.example.funnelproxy.bench;
+
+import com.example.funnelproxy.rewrite.ContentRewriter;
+import com.example.funnelproxy.rewrite.RewriteRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link ContentRewriter} with the previous buffer-everything
+ * regex implementation of {@code ProxyService.rewriteContent} on synthetic HTML.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RewriteBenchmark {
+    private static final String PREFIX = "/immich";
+    private static final int CHUNK_SIZE = 8192;
+    
+    @Param({"102400", "1048576", "10485760"})
+    int size;
+    
+    byte[] html;
+    DataBufferFactory bufferFactory;
+    ContentRewriter rewriter;
+    
+    @Setup
+    public void setup() {
+        html = SyntheticHtml.generate(size);
+        bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        rewriter = ContentRewriter.compile(RewriteRule.defaults());
+    }
+    
+    private Flux<DataBuffer> chunks() {
+        return Flux.range(0, (html.length + CHUNK_SIZE - 1) / CHUNK_SIZE)
+                .map(i -> {
+                    int offset = i * CHUNK_SIZE;
+                    return bufferFactory.wrap(java.util.Arrays.copyOfRange(html, offset, Math.min(html.length, offset + CHUNK_SIZE)));
+                });
+    }
+    
+    @Benchmark
+    public long streaming() {
+        return rewriter.rewrite(chunks(), PREFIX, bufferFactory)
+                .map(buffer -> {
+                    int count = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return (long) count;
+                })
+                .reduce(0L, Long::sum)
+                .block();
+    }
+    
+    @Benchmark
+    public long legacyRegex() {
+        return chunks()
+                .reduce(bufferFactory.allocateBuffer(CHUNK_SIZE), (accumulated, buffer) -> {
+                    accumulated.ensureWritable(buffer.readableByteCount());
+                    accumulated.write(buffer);
+                    return accumulated;
+                })
+                .map(buffer -> {
+                    byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    String rewritten = legacyRewrite(new String(bytes, StandardCharsets.UTF_8), PREFIX);
+                    return (long) rewritten.getBytes(StandardCharsets.UTF_8).length;
+                })
+                .block();
+    }
+    
+    /** Verbatim copy of the regex pipeline that {@code ProxyService} used to run. */
+    static String legacyRewrite(String content, String pathPrefix) {
+        String rewritten = content;
+        rewritten = rewritten.replaceAll("(src|href)=\"(/[^\"]*?)\"", "$1=\"" + pathPrefix + "$2\"");
+        rewritten = rewritten.replaceAll("(fetch|import)\\s*\\(\\s*['\"](/[^'\"]*?)['\"]", "$1(\"" + pathPrefix + "$2\"");
+        rewritten = rewritten.replaceAll("url\\s*\\(\\s*['\"]?(/[^'\"\\)]*?)['\"]?\\s*\\)", "url(" + pathPrefix + "$1)");
+        rewritten = rewritten.replaceAll("(import\\s+.*?\\s+from\\s+['\"])(/[^'\"]*?)(['\"])", "$1" + pathPrefix + "$2$3");
+        rewritten = rewritten.replaceAll("import\\s*\\(\\s*['\"](/[^'\"]*?)['\"]\\s*\\)", "import(\"" + pathPrefix + "$1\")");
+        if (pathPrefix.contains("immich")) {
+            rewritten = rewritten.replaceAll("(['\"])/api/", "$1" + pathPrefix + "/api/");
+        }
+        return rewritten;
+    }
+}
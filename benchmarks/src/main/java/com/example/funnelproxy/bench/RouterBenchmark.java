@@ -0,0 +1,164 @@
+package com.example.funnelproxy.bench;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.routing.FallbackIndex;
+import com.example.funnelproxy.routing.FallbackRules;
+import com.example.funnelproxy.routing.HostRouter;
+import com.example.funnelproxy.routing.PrefixRouter;
+import com.example.funnelproxy.routing.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compiled {@link PrefixRouter} with the linear
+ * {@code startsWith} scan that {@code ProxyService.proxy} used before, and measures the
+ * host-then-path lookup through {@link HostRouter} with a third of the routes on exact hosts,
+ * a third on wildcard hosts and the rest on any host. Run with {@code -prof gc} to check that
+ * neither lookup allocates.
+ * <p>
+ * {@code fallbackIndex} routes requests that match no prefix through the compiled
+ * {@link FallbackIndex}, by {@code Referer} and then by path glob, against the
+ * {@code referer.contains} scan it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    
+    @Param({"10", "100", "10000"})
+    int routes;
+    
+    List<ServiceMapping> mappings;
+    PrefixRouter<ServiceMapping> router;
+    HostRouter<PrefixRouter<ServiceMapping>> hostRouter;
+    String[] paths;
+    String[] hosts;
+    FallbackIndex fallback;
+    List<Route> fallbackRoutes;
+    String[] referers;
+    String[] assets;
+    int next;
+    
+    @Setup
+    public void setup() {
+        mappings = new ArrayList<>(routes);
+        for (int i = 0; i < routes; i++) {
+            // Mix of one- and two-segment prefixes so nested matches are exercised
+            String prefix = i % 4 == 0 ? "/team" + (i / 4) + "/app" + i : "/service" + i;
+            mappings.add(new ServiceMapping("Service " + i, prefix, "http://backend" + i + ":8080", null));
+        }
+        router = PrefixRouter.compile(mappings, ServiceMapping::getPathPrefix);
+        
+        Map<String, List<ServiceMapping>> byHost = new HashMap<>();
+        List<ServiceMapping> anyHost = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            String host = routeHost(i);
+            if (host == null) {
+                anyHost.add(mappings.get(i));
+            } else {
+                byHost.computeIfAbsent(host, key -> new ArrayList<>()).add(mappings.get(i));
+            }
+        }
+        Map<String, PrefixRouter<ServiceMapping>> routers = new HashMap<>();
+        byHost.forEach((host, hostMappings) -> routers.put(host, PrefixRouter.compile(hostMappings, ServiceMapping::getPathPrefix)));
+        hostRouter = HostRouter.compile(routers, PrefixRouter.compile(anyHost, ServiceMapping::getPathPrefix));
+        
+        fallbackRoutes = new ArrayList<>(routes);
+        for (int i = 0; i < routes; i++) {
+            FallbackRules rules = FallbackRules.parse("referer, path:/assets" + i + "/**, path:/sw-" + i + "-*.js");
+            fallbackRoutes.add(new Route(mappings.get(i), null, null, null, null, null, 0, null, rules, null));
+        }
+        fallback = FallbackIndex.compile(fallbackRoutes, 10_000);
+        
+        paths = new String[64];
+        hosts = new String[64];
+        referers = new String[64];
+        assets = new String[64];
+        for (int i = 0; i < paths.length; i++) {
+            int index = (i * 7919) % routes;
+            ServiceMapping target = mappings.get(index);
+            paths[i] = i % 8 == 0
+                    ? "/unmatched/asset-" + i + ".js"
+                    : target.getPathPrefix() + "/_app/immutable/chunks/index-" + i + ".js";
+            String host = routeHost(index);
+            // Browsers send the port when it is not the default, and any case
+            hosts[i] = host == null ? "node.example.com"
+                    : host.startsWith("*.") ? "App" + i + host.substring(1) + ":8443" : host;
+            // Half the root-level assets carry a Referer, the rest are only claimed by a glob
+            referers[i] = i % 2 == 0 ? "https://node.example.com" + target.getPathPrefix() + "/photos?id=" + i : null;
+            assets[i] = i % 4 == 1 ? "/sw-" + index + "-modern.js" : "/assets" + index + "/chunk-" + i + ".js";
+        }
+    }
+    
+    private static String routeHost(int index) {
+        return switch (index % 3) {
+            case 0 -> "service" + index + ".example.com";
+            case 1 -> "*.team" + index + ".example.com";
+            default -> null;
+        };
+    }
+    
+    private String nextPath() {
+        String path = paths[next];
+        next = (next + 1) & (paths.length - 1);
+        return path;
+    }
+    
+    @Benchmark
+    public ServiceMapping trie() {
+        return router.match(nextPath());
+    }
+    
+    @Benchmark
+    public ServiceMapping hostThenTrie() {
+        int index = next;
+        next = (next + 1) & (paths.length - 1);
+        return hostRouter.match(hosts[index], paths[index], PrefixRouter::match);
+    }
+    
+    @Benchmark
+    public ServiceMapping linearScan() {
+        String path = nextPath();
+        return mappings.stream()
+                .filter(s -> path.startsWith(s.getPathPrefix()))
+                .max((a, b) -> Integer.compare(a.getPathPrefix().length(), b.getPathPrefix().length()))
+                .orElse(null);
+    }
+    
+    @Benchmark
+    public Route fallbackIndex() {
+        int index = next;
+        next = (next + 1) & (paths.length - 1);
+        Route route = fallback.byReferer(referers[index]);
+        return route != null ? route : fallback.byPath(assets[index]);
+    }
+    
+    @Benchmark
+    public Route fallbackScan() {
+        int index = next;
+        next = (next + 1) & (paths.length - 1);
+        String referer = referers[index];
+        return referer == null ? null : fallbackRoutes.stream()
+                .filter(route -> referer.contains(route.getMapping().getPathPrefix()))
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.funnelproxy.bench;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Cold-start benchmark: launches the packaged proxy as a separate process, once per build
+ * variant that exists, and measures how long it takes until it serves, how slow its first
+ * proxied requests are while the JIT is still cold, and its resident memory.
+ * <p>
+ * Variants are the plain jar, the jar started from a CDS archive, the {@code -Paot} jar with
+ * and without a CDS archive, and the {@code -Pnative} executable. The CDS archives are made
+ * here with a training run, the same way the Dockerfile makes its own. Variants whose build
+ * output is missing are skipped. Settings are system properties: {@code startup.runs} (starts
+ * per variant, the median is printed), {@code startup.requests} (proxied requests after the
+ * first), {@code startup.mappings} (mappings already stored when the proxy starts, default 0),
+ * {@code startup.project} (the proxy's project directory) and {@code startup.work} (where the
+ * CDS archives, data files and process logs go). Every start gets its own copy of the store.
+ * <pre>
+ * mvn package &amp;&amp; mvn -Paot package
+ * java -cp benchmarks/target/benchmarks.jar com.example.funnelproxy.bench.StartupHarness
+ * </pre>
+ */
+public class StartupHarness {
+    private static final String JAR = "funnel-proxy-1.0.0.jar";
+    private static final String STORE = "funnel-proxy";
+    private static final byte[] SMALL = "0123456789abcdef".repeat(64).getBytes(StandardCharsets.US_ASCII);
+    
+    private final int runs = Integer.getInteger("startup.runs", 5);
+    private final int requests = Integer.getInteger("startup.requests", 1000);
+    private final int mappings = Integer.getInteger("startup.mappings", 0);
+    private final Path project = Path.of(System.getProperty("startup.project", ".")).toAbsolutePath().normalize();
+    private final Path work = Path.of(System.getProperty("startup.work", project.resolve("target/startup").toString()));
+    private final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    
+    private HttpClient client;
+    
+    public static void main(String[] args) throws Exception {
+        new StartupHarness().run();
+    }
+    
+    private void run() throws Exception {
+        Files.createDirectories(work);
+        seed();
+        LoopResources loops = LoopResources.create("bench-startup", 1, true);
+        ConnectionProvider provider = ConnectionProvider.create("bench-startup", 1);
+        DisposableServer stub = HttpServer.create()
+                .port(0)
+                .runOn(loops)
+                .route(routes -> routes.get("/small", (request, response) -> response
+                        .header("Content-Type", "text/plain")
+                        .sendByteArray(Mono.just(SMALL))))
+                .bindNow();
+        client = HttpClient.create(provider).runOn(loops);
+        try {
+            System.out.printf("%n%d starts per variant with %d stored mappings, %d proxied requests after the first; medians%n%n",
+                    runs, mappings, requests);
+            System.out.printf("%-10s %10s %10s %12s %12s %12s%n",
+                    "variant", "ready ms", "first ms", "requests ms", "RSS ready MB", "RSS after MB");
+            Path jar = project.resolve("target").resolve(JAR);
+            Path aotJar = project.resolve("target/aot").resolve(JAR);
+            Path image = project.resolve("target/native/funnel-proxy");
+            if (Files.exists(jar)) {
+                variant("jar", stub, List.of(java, "-jar", jar.toString()));
+                variant("jar-cds", stub, withCds("jar", jar, List.of()));
+            }
+            if (Files.exists(aotJar)) {
+                variant("aot", stub, List.of(java, "-Dspring.aot.enabled=true", "-jar", aotJar.toString()));
+                variant("aot-cds", stub, withCds("aot", aotJar, List.of("-Dspring.aot.enabled=true")));
+            }
+            if (Files.isExecutable(image)) {
+                variant("native", stub, List.of(image.toString()));
+            }
+        } finally {
+            stub.disposeNow();
+            provider.disposeLater().block();
+            loops.disposeLater().block();
+        }
+    }
+    
+    /**
+     * Extracts the jar and makes a CDS archive of the classes loaded up to the end of context
+     * refresh, then returns the command that starts from the archive.
+     */
+    private List<String> withCds(String name, Path jar, List<String> options) throws Exception {
+        Path extracted = work.resolve(name + "-cds");
+        Path archive = extracted.resolve("app.jsa");
+        exec(name + "-extract", List.of(java, "-Djarmode=tools", "-jar", jar.toString(),
+                "extract", "--force", "--destination", extracted.toString()));
+        List<String> training = new ArrayList<>(List.of(java, "-XX:ArchiveClassesAtExit=" + archive,
+                "-Dspring.context.exit=onRefresh"));
+        training.addAll(options);
+        training.addAll(List.of("-jar", extracted.resolve(JAR).toString()));
+        training.addAll(proxyArgs(freePort(), freePort(), dataDir(name + "-training")));
+        exec(name + "-training", training);
+        
+        List<String> command = new ArrayList<>(List.of(java, "-XX:SharedArchiveFile=" + archive));
+        command.addAll(options);
+        command.addAll(List.of("-jar", extracted.resolve(JAR).toString()));
+        return command;
+    }
+    
+    private void variant(String name, DisposableServer stub, List<String> command) throws Exception {
+        long[] ready = new long[runs];
+        long[] first = new long[runs];
+        long[] total = new long[runs];
+        long[] rssReady = new long[runs];
+        long[] rssAfter = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            int port = freePort();
+            List<String> full = new ArrayList<>(command);
+            full.addAll(proxyArgs(port, freePort(), dataDir(name)));
+            String base = "http://localhost:" + port;
+            
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(full)
+                    .redirectErrorStream(true)
+                    .redirectOutput(work.resolve(name + ".log").toFile())
+                    .start();
+            try {
+                while (status(base + "/admin/api/services") != 200) {
+                    if (!process.isAlive()) {
+                        throw new IllegalStateException(name + " exited, see " + work.resolve(name + ".log"));
+                    }
+                    Thread.sleep(5);
+                }
+                ready[run] = (System.nanoTime() - start) / 1_000_000;
+                rssReady[run] = rssKb(process.pid()) / 1024;
+                
+                addMapping(base, "http://localhost:" + stub.port());
+                long requestStart = System.nanoTime();
+                status(base + "/bench/small");
+                first[run] = (System.nanoTime() - requestStart) / 1_000_000;
+                requestStart = System.nanoTime();
+                for (int i = 0; i < requests; i++) {
+                    status(base + "/bench/small");
+                }
+                total[run] = (System.nanoTime() - requestStart) / 1_000_000;
+                rssAfter[run] = rssKb(process.pid()) / 1024;
+            } finally {
+                process.destroy();
+                process.waitFor();
+            }
+        }
+        System.out.printf(Locale.ROOT, "%-10s %10d %10d %12d %12d %12d%n",
+                name, median(ready), median(first), median(total), median(rssReady), median(rssAfter));
+    }
+    
+    private List<String> proxyArgs(int port, int managementPort, Path dataDir) {
+        return List.of("--server.port=" + port,
+                "--management.server.port=" + managementPort,
+                "--funnel.data-dir=" + dataDir,
+                "--funnel.access-log.enabled=false",
+                "--logging.level.com.example.funnelproxy=WARN");
+    }
+    
+    /**
+     * Writes {@code startup.mappings} mappings into a store that every start copies, through
+     * the same schema the proxy creates.
+     */
+    private void seed() throws Exception {
+        Path seed = work.resolve("seed");
+        deleteRecursively(seed);
+        Files.createDirectories(seed);
+        if (mappings == 0) {
+            return;
+        }
+        String schema;
+        try (InputStream in = StartupHarness.class.getResourceAsStream("/schema.sql")) {
+            schema = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:file:" + seed.resolve(STORE), "sa", "");
+             Statement statement = connection.createStatement()) {
+            for (String sql : schema.replaceAll("(?m)^--.*$", "").split(";")) {
+                if (!sql.isBlank()) {
+                    statement.execute(sql);
+                }
+            }
+            statement.execute("INSERT INTO service_mapping (name, path_prefix, target_url) "
+                    + "SELECT 'service' || X, '/service' || X, 'http://localhost:9' FROM SYSTEM_RANGE(1, " + mappings + ")");
+        }
+    }
+    
+    /**
+     * A fresh copy of the seeded store for one start.
+     */
+    private Path dataDir(String name) throws IOException {
+        Path dataDir = work.resolve("data-" + name);
+        deleteRecursively(dataDir);
+        Files.createDirectories(dataDir);
+        Path seeded = work.resolve("seed").resolve(STORE + ".mv.db");
+        if (Files.exists(seeded)) {
+            Files.copy(seeded, dataDir.resolve(STORE + ".mv.db"));
+        }
+        return dataDir;
+    }
+    
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+    
+    private void addMapping(String base, String target) {
+        String json = String.format("{\"name\":\"bench\",\"pathPrefix\":\"/bench\",\"targetUrl\":\"%s\"}", target);
+        int code = client.headers(headers -> headers.set("Content-Type", "application/json"))
+                .post()
+                .uri(base + "/admin/api/services")
+                .send(ByteBufFlux.fromString(Mono.just(json)))
+                .responseSingle((response, body) -> body.then(Mono.just(response.status().code())))
+                .block(Duration.ofSeconds(10));
+        if (code != 200) {
+            throw new IllegalStateException("Adding the mapping failed: " + code);
+        }
+    }
+    
+    /**
+     * Status of a GET, or -1 while nothing listens yet.
+     */
+    private int status(String url) {
+        return client.get().uri(url)
+                .responseSingle((response, body) -> body.then(Mono.just(response.status().code())))
+                .onErrorReturn(-1)
+                .block(Duration.ofSeconds(30));
+    }
+    
+    private void exec(String name, List<String> command) throws Exception {
+        File log = work.resolve(name + ".log").toFile();
+        int exit = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start().waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException(name + " failed with exit code " + exit + ", see " + log);
+        }
+    }
+    
+    /**
+     * Resident set size from {@code /proc}; -1 where there is none.
+     */
+    private static long rssKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+    
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+    
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.funnelproxy.bench;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates HTML that resembles a single-page app shell: many asset links,
+ * inline module scripts and styles with absolute paths, padded with plain markup.
+ */
+final class SyntheticHtml {
+    
+    private SyntheticHtml() {
+    }
+    
+    static byte[] generate(int size) {
+        StringBuilder html = new StringBuilder(size + 512);
+        html.append("<!DOCTYPE html><html><head><title>Photos</title>\n");
+        int i = 0;
+        while (html.length() < size) {
+            switch (i % 6) {
+                case 0 -> html.append("<link rel=\"modulepreload\" href=\"/_app/immutable/chunks/entry-").append(i).append(".js\">\n");
+                case 1 -> html.append("<img src=\"/api/assets/").append(i).append("/thumbnail\" alt=\"thumbnail ").append(i).append("\">\n");
+                case 2 -> html.append("<script type=\"module\">import { start } from \"/_app/immutable/start-").append(i)
+                        .append(".js\"; fetch('/api/server/ping'); import(\"/_app/immutable/nodes/").append(i).append(".js\");</script>\n");
+                case 3 -> html.append("<style>.hero-").append(i).append(" { background: url('/_app/immutable/assets/bg-").append(i).append(".png'); }</style>\n");
+                case 4 -> html.append("<a href=\"https://immich.app/docs\">External documentation link number ").append(i).append("</a>\n");
+                default -> html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore.</p>\n");
+            }
+            i++;
+        }
+        html.append("</head><body></body></html>\n");
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
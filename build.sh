@@ -15,6 +15,8 @@ if [ $? -eq 0 ]; then
     echo "  docker build -t funnel-proxy ."
     echo "  docker run -p 80:80 -v \$(pwd)/data:/app/data funnel-proxy"
     echo ""
+    echo "For faster starts, build the AOT-processed jar with: mvn -Paot package -DskipTests"
+    echo ""
     echo "Access the admin dashboard at: http://localhost/admin"
 else
     echo "❌ Build failed!"
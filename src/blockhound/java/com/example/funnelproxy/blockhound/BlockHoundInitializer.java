@@ -0,0 +1,33 @@
+package com.example.funnelproxy.blockhound;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+
+/**
+ * Installs BlockHound before the context starts, so every Reactor and Netty thread is watched
+ * from the first request on. Only compiled into the {@code blockhound} Maven profile.
+ * <p>
+ * A blocking call on a non-blocking thread is logged with its stack trace and then fails the
+ * operation it happened in, the same way a test would.
+ */
+public class BlockHoundInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    private static final Logger log = LoggerFactory.getLogger(BlockHoundInitializer.class);
+    
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        // Reactor and Netty ship integrations that mark their event loop threads as non-blocking
+        BlockHound.builder()
+                .loadIntegrations()
+                .blockingMethodCallback(method -> {
+                    BlockingOperationError error = new BlockingOperationError(method);
+                    log.error("🚫 Blocking call on {}: {}", Thread.currentThread().getName(), method, error);
+                    throw error;
+                })
+                .install();
+        log.info("🐕 BlockHound installed");
+    }
+}
@@ -1,9 +1,12 @@
 package com.example.funnelproxy;
 
+import com.example.funnelproxy.config.NativeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(NativeHints.class)
 public class FunnelProxyApplication {
     public static void main(String[] args) {
         SpringApplication.run(FunnelProxyApplication.class, args);
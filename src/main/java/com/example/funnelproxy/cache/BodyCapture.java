@@ -0,0 +1,73 @@
+package com.example.funnelproxy.cache;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Copies a streaming body aside without consuming it, so it can be stored or shared once complete.
+ */
+final class BodyCapture {
+    private final long limit;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private long size;
+    private boolean overflow;
+    
+    BodyCapture(long limit) {
+        this.limit = limit;
+    }
+    
+    void append(DataBuffer buffer) {
+        if (overflow) {
+            return;
+        }
+        int count = buffer.readableByteCount();
+        if (size + count > limit) {
+            overflow = true;
+            chunks.clear();
+            return;
+        }
+        byte[] copy = new byte[count];
+        int offset = 0;
+        try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+            while (iterator.hasNext()) {
+                ByteBuffer source = iterator.next();
+                int length = source.remaining();
+                source.get(copy, offset, length);
+                offset += length;
+            }
+        }
+        chunks.add(copy);
+        size += count;
+    }
+    
+    /**
+     * Returns the complete body in a read-only direct buffer, or {@code null} if it exceeded the limit.
+     */
+    ByteBuffer finishDirect() {
+        return finish(true);
+    }
+    
+    /**
+     * Returns the complete body in a read-only heap buffer, or {@code null} if it exceeded the limit.
+     */
+    ByteBuffer finishHeap() {
+        return finish(false);
+    }
+    
+    private ByteBuffer finish(boolean direct) {
+        if (overflow) {
+            return null;
+        }
+        ByteBuffer body = direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        for (Iterator<byte[]> it = chunks.iterator(); it.hasNext(); ) {
+            body.put(it.next());
+            it.remove();
+        }
+        body.flip();
+        return body.asReadOnlyBuffer();
+    }
+}
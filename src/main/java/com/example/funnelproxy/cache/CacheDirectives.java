@@ -0,0 +1,102 @@
+package com.example.funnelproxy.cache;
+
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * The subset of {@code Cache-Control} directives a shared cache needs, parsed from
+ * either request or response headers.
+ */
+final class CacheDirectives {
+    final boolean noStore;
+    final boolean noCache;
+    final boolean isPrivate;
+    final boolean isPublic;
+    final long maxAge;
+    final long sMaxAge;
+    
+    private CacheDirectives(boolean noStore, boolean noCache, boolean isPrivate, boolean isPublic, long maxAge, long sMaxAge) {
+        this.noStore = noStore;
+        this.noCache = noCache;
+        this.isPrivate = isPrivate;
+        this.isPublic = isPublic;
+        this.maxAge = maxAge;
+        this.sMaxAge = sMaxAge;
+    }
+    
+    static CacheDirectives of(HttpHeaders headers) {
+        boolean noStore = false;
+        boolean noCache = false;
+        boolean isPrivate = false;
+        boolean isPublic = false;
+        long maxAge = -1;
+        long sMaxAge = -1;
+        for (String value : headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (String part : value.split(",")) {
+                String directive = part.trim().toLowerCase(Locale.ROOT);
+                int equals = directive.indexOf('=');
+                String name = equals < 0 ? directive : directive.substring(0, equals).trim();
+                String argument = equals < 0 ? null : directive.substring(equals + 1).trim();
+                switch (name) {
+                    case "no-store" -> noStore = true;
+                    // A qualified no-cache ("no-cache=Set-Cookie") only restricts headers; treat it as revalidate
+                    case "no-cache" -> noCache = true;
+                    case "private" -> isPrivate = true;
+                    case "public" -> isPublic = true;
+                    case "max-age" -> maxAge = seconds(argument);
+                    case "s-maxage" -> sMaxAge = seconds(argument);
+                    default -> { }
+                }
+            }
+        }
+        return new CacheDirectives(noStore, noCache, isPrivate, isPublic, maxAge, sMaxAge);
+    }
+    
+    /**
+     * Freshness lifetime for a shared cache: {@code s-maxage}, then {@code max-age}, then
+     * {@code Expires - Date}. Returns {@link Duration#ZERO} when the response must be revalidated
+     * and {@code null} when it carries no freshness information at all.
+     */
+    Duration freshnessLifetime(HttpHeaders headers) {
+        if (noCache) {
+            return Duration.ZERO;
+        }
+        if (sMaxAge >= 0) {
+            return Duration.ofSeconds(sMaxAge);
+        }
+        if (maxAge >= 0) {
+            return Duration.ofSeconds(maxAge);
+        }
+        long expires = headers.getExpires();
+        if (expires >= 0) {
+            long base = dateOrNow(headers);
+            return Duration.ofMillis(Math.max(0, expires - base));
+        }
+        return null;
+    }
+    
+    private static long dateOrNow(HttpHeaders headers) {
+        try {
+            long date = headers.getDate();
+            return date >= 0 ? date : System.currentTimeMillis();
+        } catch (IllegalArgumentException e) {
+            return System.currentTimeMillis();
+        }
+    }
+    
+    private static long seconds(String argument) {
+        if (argument == null) {
+            return -1;
+        }
+        String digits = argument.startsWith("\"") && argument.endsWith("\"") && argument.length() > 1
+                ? argument.substring(1, argument.length() - 1)
+                : argument;
+        try {
+            return Math.max(0, Long.parseLong(digits));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
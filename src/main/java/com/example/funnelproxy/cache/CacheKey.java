@@ -0,0 +1,8 @@
+package com.example.funnelproxy.cache;
+
+/**
+ * Primary cache key: the mapping and the upstream path including the query string.
+ * Variants selected by {@code Vary} live under the same key.
+ */
+public record CacheKey(Long mappingId, String target) {
+}
@@ -0,0 +1,16 @@
+package com.example.funnelproxy.cache;
+
+/**
+ * Counters for the proxy response cache since startup.
+ */
+public record CacheStats(long hits,
+                         long misses,
+                         long notModifiedServed,
+                         long revalidated,
+                         long stores,
+                         long evictions,
+                         long bytesServed,
+                         long entries,
+                         long storedBytes,
+                         long maxBytes) {
+}
@@ -0,0 +1,86 @@
+package com.example.funnelproxy.cache;
+
+import com.example.funnelproxy.compress.ContentCoding;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One stored representation. The body lives off-heap in a read-only direct buffer;
+ * refreshing freshness after a revalidation creates a new instance sharing the same body.
+ */
+final class CachedResponse {
+    private static final int OVERHEAD_BYTES = 512;
+    
+    final int status;
+    final HttpHeaders headers;
+    final ByteBuffer body;
+    final String etag;
+    final long lastModified;
+    final List<String> varyNames;
+    final List<String> varyValues;
+    final long storedAt;
+    final long expiresAt;
+    final long initialAge;
+    
+    CachedResponse(int status, HttpHeaders headers, ByteBuffer body, List<String> varyNames, List<String> varyValues,
+                   long storedAt, long expiresAt, long initialAge) {
+        this.status = status;
+        this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        this.body = body;
+        this.etag = headers.getETag();
+        this.lastModified = lastModified(headers);
+        this.varyNames = varyNames;
+        this.varyValues = varyValues;
+        this.storedAt = storedAt;
+        this.expiresAt = expiresAt;
+        this.initialAge = initialAge;
+    }
+    
+    CachedResponse withFreshness(long now, long expiresAt) {
+        return new CachedResponse(status, headers, body, varyNames, varyValues, now, expiresAt, 0);
+    }
+    
+    boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+    
+    boolean hasValidators() {
+        return etag != null || lastModified >= 0;
+    }
+    
+    long ageSeconds(long now) {
+        return initialAge + Math.max(0, now - storedAt) / 1000;
+    }
+    
+    int weight() {
+        return body.capacity() + OVERHEAD_BYTES;
+    }
+    
+    boolean matches(HttpHeaders requestHeaders) {
+        for (int i = 0; i < varyNames.size(); i++) {
+            if (!varyValues.get(i).equals(varyValue(requestHeaders, varyNames.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    static String varyValue(HttpHeaders requestHeaders, String name) {
+        if (name.equals("accept-encoding")) {
+            // One variant per negotiated coding rather than per spelling of the header
+            return ContentCoding.variantOf(requestHeaders);
+        }
+        List<String> values = requestHeaders.get(name);
+        return values == null ? "" : String.join(",", values);
+    }
+    
+    private static long lastModified(HttpHeaders headers) {
+        try {
+            return headers.getLastModified();
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
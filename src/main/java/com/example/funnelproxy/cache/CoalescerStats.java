@@ -0,0 +1,12 @@
+package com.example.funnelproxy.cache;
+
+/**
+ * Counters for request coalescing since startup.
+ *
+ * @param leaders   upstream exchanges that other requests could join
+ * @param coalesced requests answered from another request's upstream exchange
+ * @param fallbacks waiting requests that had to go upstream themselves
+ * @param inFlight  exchanges currently open for joining
+ */
+public record CoalescerStats(long leaders, long coalesced, long fallbacks, long inFlight) {
+}
@@ -0,0 +1,225 @@
+package com.example.funnelproxy.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-flight for identical cacheable GETs. The first request for a key becomes the
+ * leader and streams from the upstream as usual while a copy of its body is captured;
+ * concurrent identical requests wait for that copy instead of opening their own exchange.
+ * <p>
+ * Buffering is bounded: a body larger than {@code funnel.coalesce.max-body-bytes}, a response
+ * the cache would not store, or a failed leader all release the waiters to go upstream themselves.
+ * Requests with a {@code Cookie} may be answered per user, so they only get or give a response
+ * that the backend marked {@code public} or gave an {@code s-maxage}.
+ */
+@Component
+public class RequestCoalescer {
+    private final Map<CacheKey, Flight> flights = new ConcurrentHashMap<>();
+    private final long maxBodyBytes;
+    private final int maxWaiters;
+    
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    
+    public RequestCoalescer(@Value("${funnel.coalesce.max-body-bytes:2097152}") long maxBodyBytes,
+                            @Value("${funnel.coalesce.max-waiters:256}") int maxWaiters) {
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxWaiters = maxWaiters;
+    }
+    
+    /**
+     * Whether a request can take part in coalescing. Conditional and HEAD requests are
+     * cheap to forward and are left alone.
+     */
+    public boolean isCoalescable(ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+        return request.getMethod() == HttpMethod.GET
+                && !headers.containsKey(HttpHeaders.IF_NONE_MATCH)
+                && !headers.containsKey(HttpHeaders.IF_MODIFIED_SINCE);
+    }
+    
+    /**
+     * Joins the flight for {@code key}. Returns a new leader flight, a follower flight, or
+     * {@code null} if the existing flight already has the maximum number of waiters.
+     */
+    public Flight join(CacheKey key, ServerHttpRequest request) {
+        CacheKey flightKey = new CacheKey(key.mappingId(), key.target() + "\n" + negotiation(request.getHeaders()));
+        Flight created = new Flight(flightKey, request.getHeaders());
+        Flight existing = flights.putIfAbsent(flightKey, created);
+        if (existing == null) {
+            leaders.increment();
+            return created;
+        }
+        if (existing.waiters.incrementAndGet() > maxWaiters) {
+            existing.waiters.decrementAndGet();
+            return null;
+        }
+        return existing.follower();
+    }
+    
+    /**
+     * Waits for the leader and writes its response. Subscribes to {@code fallback} instead
+     * if the leader's response cannot be shared with this request.
+     */
+    public Mono<Void> awaitAndServe(Flight flight, ServerHttpRequest request, ServerHttpResponse response,
+                                    Mono<Void> fallback) {
+        return flight.result.asMono()
+                .filter(shared -> shared.varyMatches(request.getHeaders())
+                        && (shared.markedPublic || !request.getHeaders().containsKey(HttpHeaders.COOKIE)))
+                .doFinally(signal -> flight.waiters.decrementAndGet())
+                .flatMap(shared -> {
+                    coalesced.increment();
+                    response.setStatusCode(HttpStatus.valueOf(shared.status));
+                    response.getHeaders().putAll(shared.headers);
+                    response.getHeaders().setContentLength(shared.body.remaining());
+                    return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(shared.body.duplicate())))
+                            .thenReturn(Boolean.TRUE);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    fallbacks.increment();
+                    return fallback.thenReturn(Boolean.TRUE);
+                }))
+                .then();
+    }
+    
+    /**
+     * Tees the leader's body so waiters can be served once it completes.
+     *
+     * @param upstreamHeaders headers as received from the backend, used to decide whether the response may be shared
+     * @param responseHeaders headers as sent to the leader's client, which waiters receive too
+     */
+    public Flux<DataBuffer> publish(Flight flight, int status, HttpHeaders upstreamHeaders,
+                                   HttpHeaders responseHeaders, Flux<DataBuffer> body) {
+        boolean markedPublic = ResponseCache.isMarkedPublic(upstreamHeaders);
+        if (!ResponseCache.isStorable(status, upstreamHeaders) || upstreamHeaders.getContentLength() > maxBodyBytes
+                || (flight.leaderHeaders.containsKey(HttpHeaders.COOKIE) && !markedPublic)) {
+            flight.abandon();
+            return body;
+        }
+        List<String> varyNames = ResponseCache.varyNames(upstreamHeaders);
+        HttpHeaders shared = new HttpHeaders();
+        shared.putAll(responseHeaders);
+        shared.remove(HttpHeaders.CONTENT_LENGTH);
+        return Flux.defer(() -> {
+            BodyCapture capture = new BodyCapture(maxBodyBytes);
+            return body.doOnNext(capture::append)
+                    .doOnComplete(() -> {
+                        ByteBuffer captured = capture.finishHeap();
+                        if (captured == null) {
+                            flight.abandon();
+                        } else {
+                            flight.complete(new SharedResponse(status, shared, captured, varyNames, flight.leaderHeaders, markedPublic));
+                        }
+                    });
+        });
+    }
+    
+    /**
+     * Ends the leader's flight. Waiters that have not received a response fall back to the upstream.
+     */
+    public void land(Flight flight) {
+        flight.abandon();
+        flights.remove(flight.key, flight);
+    }
+    
+    public CoalescerStats stats() {
+        return new CoalescerStats(leaders.sum(), coalesced.sum(), fallbacks.sum(), flights.size());
+    }
+    
+    /**
+     * Request headers that commonly select between representations. Requests that differ in
+     * these never share a flight; other {@code Vary} headers are checked when the leader completes.
+     */
+    private static String negotiation(HttpHeaders headers) {
+        return CachedResponse.varyValue(headers, HttpHeaders.ACCEPT_ENCODING) + "\n"
+                + CachedResponse.varyValue(headers, HttpHeaders.ACCEPT) + "\n"
+                + CachedResponse.varyValue(headers, HttpHeaders.ACCEPT_LANGUAGE);
+    }
+    
+    /**
+     * One in-flight upstream exchange. The same result sink is shared between the leader's
+     * instance and all follower views of it.
+     */
+    public static final class Flight {
+        private final CacheKey key;
+        private final HttpHeaders leaderHeaders;
+        private final Sinks.One<SharedResponse> result;
+        private final AtomicInteger waiters;
+        private final boolean leader;
+        
+        private Flight(CacheKey key, HttpHeaders leaderHeaders) {
+            this(key, leaderHeaders, Sinks.one(), new AtomicInteger(), true);
+        }
+        
+        private Flight(CacheKey key, HttpHeaders leaderHeaders, Sinks.One<SharedResponse> result,
+                       AtomicInteger waiters, boolean leader) {
+            this.key = key;
+            this.leaderHeaders = leaderHeaders;
+            this.result = result;
+            this.waiters = waiters;
+            this.leader = leader;
+        }
+        
+        private Flight follower() {
+            return new Flight(key, leaderHeaders, result, waiters, false);
+        }
+        
+        public boolean isLeader() {
+            return leader;
+        }
+        
+        private void complete(SharedResponse response) {
+            result.tryEmitValue(response);
+        }
+        
+        private void abandon() {
+            result.tryEmitEmpty();
+        }
+    }
+    
+    private static final class SharedResponse {
+        final int status;
+        final HttpHeaders headers;
+        final ByteBuffer body;
+        final List<String> varyNames;
+        final HttpHeaders leaderHeaders;
+        final boolean markedPublic;
+        
+        SharedResponse(int status, HttpHeaders headers, ByteBuffer body, List<String> varyNames, HttpHeaders leaderHeaders,
+                       boolean markedPublic) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.varyNames = varyNames;
+            this.leaderHeaders = leaderHeaders;
+            this.markedPublic = markedPublic;
+        }
+        
+        boolean varyMatches(HttpHeaders requestHeaders) {
+            for (String name : varyNames) {
+                if (!CachedResponse.varyValue(leaderHeaders, name).equals(CachedResponse.varyValue(requestHeaders, name))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.funnelproxy.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared HTTP cache for proxied GET responses, consulted in front of the upstream exchange.
+ * <p>
+ * Honours {@code Cache-Control} ({@code no-store}, {@code no-cache}, {@code private},
+ * {@code max-age}, {@code s-maxage}), {@code Expires}, {@code Vary}, and revalidates stale
+ * entries with {@code ETag}/{@code Last-Modified}. Conditional client requests are answered
+ * with 304 locally. Bodies are kept off-heap and evicted by Caffeine's W-TinyLFU policy
+ * against a byte budget.
+ */
+@Component
+public class ResponseCache {
+    private static final int MAX_VARIANTS = 8;
+    
+    private final Cache<CacheKey, List<CachedResponse>> entries;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModifiedServed = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    
+    public ResponseCache(@Value("${funnel.cache.max-bytes:67108864}") long maxBytes,
+                         @Value("${funnel.cache.max-entry-bytes:4194304}") long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((CacheKey key, List<CachedResponse> variants) -> {
+                    int weight = 0;
+                    for (CachedResponse variant : variants) {
+                        weight += variant.weight();
+                    }
+                    return weight;
+                })
+                .recordStats()
+                .build();
+    }
+    
+    /**
+     * Whether the request may be answered from, or stored into, the shared cache.
+     */
+    public boolean isCacheable(ServerHttpRequest request) {
+        HttpMethod method = request.getMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return false;
+        }
+        HttpHeaders headers = request.getHeaders();
+        return !headers.containsKey(HttpHeaders.RANGE)
+                && !headers.containsKey(HttpHeaders.AUTHORIZATION)
+                && !CacheDirectives.of(headers).noStore;
+    }
+    
+    /**
+     * Looks up the variant matching the request's {@code Vary} headers.
+     */
+    public Lookup lookup(CacheKey key, HttpHeaders requestHeaders) {
+        List<CachedResponse> variants = entries.getIfPresent(key);
+        if (variants != null) {
+            for (CachedResponse variant : variants) {
+                if (variant.matches(requestHeaders)) {
+                    long now = System.currentTimeMillis();
+                    boolean fresh = variant.isFresh(now) && !CacheDirectives.of(requestHeaders).noCache;
+                    if (fresh) {
+                        hits.increment();
+                    }
+                    return new Lookup(key, variant, fresh);
+                }
+            }
+        }
+        misses.increment();
+        return new Lookup(key, null, false);
+    }
+    
+    /**
+     * Writes a cached response, or a 304 if the client's validators still match.
+     */
+    public Mono<Void> serve(Lookup lookup, ServerHttpRequest request, ServerHttpResponse response) {
+        CachedResponse cached = lookup.cached;
+        long now = System.currentTimeMillis();
+        HttpHeaders headers = response.getHeaders();
+        headers.putAll(cached.headers);
+        headers.set(HttpHeaders.AGE, Long.toString(cached.ageSeconds(now)));
+        
+        if (isNotModified(cached, request.getHeaders())) {
+            notModifiedServed.increment();
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            return response.setComplete();
+        }
+        
+        response.setStatusCode(HttpStatus.valueOf(cached.status));
+        headers.setContentLength(cached.body.capacity());
+        if (request.getMethod() == HttpMethod.HEAD) {
+            return response.setComplete();
+        }
+        bytesServed.add(cached.body.capacity());
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(cached.body.duplicate())));
+    }
+    
+    /**
+     * Adds the stored validators to an outgoing request, unless the client sent its own.
+     * Returns whether a 304 from the upstream will refer to the cached entry.
+     */
+    public boolean addValidators(Lookup lookup, HttpHeaders incoming, HttpHeaders outgoing) {
+        CachedResponse cached = lookup.cached;
+        if (incoming.containsKey(HttpHeaders.IF_NONE_MATCH) || incoming.containsKey(HttpHeaders.IF_MODIFIED_SINCE)) {
+            return false;
+        }
+        if (cached.etag != null) {
+            outgoing.set(HttpHeaders.IF_NONE_MATCH, cached.etag);
+        } else {
+            outgoing.setIfModifiedSince(cached.lastModified);
+        }
+        return true;
+    }
+    
+    /**
+     * Applies a 304 from the upstream to a stale entry and returns a lookup for the refreshed entry.
+     */
+    public Lookup refresh(Lookup lookup, HttpHeaders notModifiedHeaders) {
+        revalidated.increment();
+        long now = System.currentTimeMillis();
+        HttpHeaders merged = new HttpHeaders();
+        merged.putAll(lookup.cached.headers);
+        for (String name : List.of(HttpHeaders.CACHE_CONTROL, HttpHeaders.EXPIRES, HttpHeaders.DATE)) {
+            List<String> values = notModifiedHeaders.get(name);
+            if (values != null) {
+                merged.put(name, values);
+            }
+        }
+        Duration lifetime = CacheDirectives.of(merged).freshnessLifetime(merged);
+        CachedResponse refreshed = lookup.cached.withFreshness(now, now + (lifetime != null ? lifetime.toMillis() : 0));
+        entries.asMap().computeIfPresent(lookup.key, (key, variants) -> replace(variants, lookup.cached, refreshed));
+        return new Lookup(lookup.key, refreshed, true);
+    }
+    
+    /**
+     * Returns {@code body}, teed into the cache if the response may be stored.
+     *
+     * @param upstreamHeaders headers as received from the backend, used for the caching decision
+     * @param responseHeaders headers as sent to the client, which is what gets stored and matched on
+     */
+    public Flux<DataBuffer> store(CacheKey key, ServerHttpRequest request, int status,
+                                  HttpHeaders upstreamHeaders, HttpHeaders responseHeaders, Flux<DataBuffer> body) {
+        if (request.getMethod() != HttpMethod.GET || !isStorable(status, upstreamHeaders)
+                || upstreamHeaders.getContentLength() > maxEntryBytes) {
+            return body;
+        }
+        // The proxy may add to Vary itself, e.g. when it compresses the body
+        List<String> varyNames = varyNames(responseHeaders);
+        Duration lifetime = CacheDirectives.of(upstreamHeaders).freshnessLifetime(upstreamHeaders);
+        
+        List<String> varyValues = new ArrayList<>(varyNames.size());
+        for (String name : varyNames) {
+            varyValues.add(CachedResponse.varyValue(request.getHeaders(), name));
+        }
+        HttpHeaders stored = new HttpHeaders();
+        stored.putAll(responseHeaders);
+        stored.remove(HttpHeaders.CONTENT_LENGTH);
+        stored.remove(HttpHeaders.AGE);
+        long initialAge = parseAge(upstreamHeaders);
+        long lifetimeMillis = lifetime != null ? lifetime.toMillis() : 0;
+        
+        return Flux.defer(() -> {
+            BodyCapture capture = new BodyCapture(maxEntryBytes);
+            return body.doOnNext(capture::append)
+                    .doOnComplete(() -> {
+                        ByteBuffer captured = capture.finishDirect();
+                        if (captured != null) {
+                            long now = System.currentTimeMillis();
+                            put(key, new CachedResponse(status, stored, captured, varyNames, varyValues,
+                                    now, now + lifetimeMillis - initialAge * 1000, initialAge));
+                        }
+                    });
+        });
+    }
+    
+    /**
+     * Drops every entry belonging to a mapping, e.g. after it was edited or deleted.
+     */
+    public void invalidate(Long mappingId) {
+        entries.asMap().keySet().removeIf(key -> key.mappingId().equals(mappingId));
+    }
+    
+    public void clear() {
+        entries.invalidateAll();
+    }
+    
+    public CacheStats stats() {
+        long storedBytes = entries.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new CacheStats(hits.sum(), misses.sum(), notModifiedServed.sum(), revalidated.sum(), stores.sum(),
+                entries.stats().evictionCount(), bytesServed.sum(), entries.estimatedSize(), storedBytes, maxBytes);
+    }
+    
+    private void put(CacheKey key, CachedResponse response) {
+        stores.increment();
+        entries.asMap().merge(key, List.of(response), (existing, added) -> {
+            List<CachedResponse> variants = new ArrayList<>(existing.size() + 1);
+            for (CachedResponse variant : existing) {
+                if (!variant.varyValues.equals(response.varyValues)) {
+                    variants.add(variant);
+                }
+            }
+            variants.add(response);
+            while (variants.size() > MAX_VARIANTS) {
+                variants.remove(0);
+            }
+            return List.copyOf(variants);
+        });
+    }
+    
+    private static List<CachedResponse> replace(List<CachedResponse> variants, CachedResponse old, CachedResponse updated) {
+        List<CachedResponse> replaced = new ArrayList<>(variants.size());
+        for (CachedResponse variant : variants) {
+            replaced.add(variant == old ? updated : variant);
+        }
+        return List.copyOf(replaced);
+    }
+    
+    private static boolean isNotModified(CachedResponse cached, HttpHeaders requestHeaders) {
+        List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            if (cached.etag == null) {
+                return false;
+            }
+            String etag = weak(cached.etag);
+            for (String candidate : ifNoneMatch) {
+                if (candidate.equals("*") || weak(candidate).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = requestHeaders.getIfModifiedSince();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return ifModifiedSince >= 0 && cached.lastModified >= 0 && cached.lastModified <= ifModifiedSince;
+    }
+    
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+    
+    /**
+     * Whether a response may be handed to clients other than the one that requested it:
+     * a 200 without {@code Set-Cookie}, {@code private}, {@code no-store} or {@code Vary: *}.
+     */
+    static boolean isShareable(int status, HttpHeaders upstreamHeaders) {
+        if (status != HttpStatus.OK.value() || upstreamHeaders.containsKey(HttpHeaders.SET_COOKIE)) {
+            return false;
+        }
+        CacheDirectives directives = CacheDirectives.of(upstreamHeaders);
+        return !directives.noStore && !directives.isPrivate && varyNames(upstreamHeaders) != null;
+    }
+    
+    /**
+     * Whether the cache would keep a response: it is shareable, and has a freshness lifetime or
+     * a validator to revalidate it with.
+     */
+    static boolean isStorable(int status, HttpHeaders upstreamHeaders) {
+        if (!isShareable(status, upstreamHeaders)) {
+            return false;
+        }
+        boolean validators = upstreamHeaders.getETag() != null || upstreamHeaders.containsKey(HttpHeaders.LAST_MODIFIED);
+        return validators || CacheDirectives.of(upstreamHeaders).freshnessLifetime(upstreamHeaders) != null;
+    }
+    
+    /**
+     * Whether the backend marked a response as fit for every user, with {@code public} or
+     * {@code s-maxage}, even when the request that fetched it carried credentials.
+     */
+    static boolean isMarkedPublic(HttpHeaders upstreamHeaders) {
+        CacheDirectives directives = CacheDirectives.of(upstreamHeaders);
+        return directives.isPublic || directives.sMaxAge >= 0;
+    }
+    
+    /**
+     * Lower-cased {@code Vary} header names, or {@code null} for {@code Vary: *}.
+     */
+    static List<String> varyNames(HttpHeaders headers) {
+        List<String> names = new ArrayList<>();
+        for (String value : headers.getOrEmpty(HttpHeaders.VARY)) {
+            for (String part : value.split(",")) {
+                String name = part.trim().toLowerCase(Locale.ROOT);
+                if (name.equals("*")) {
+                    return null;
+                }
+                if (!name.isEmpty() && !names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return List.copyOf(names);
+    }
+    
+    private static long parseAge(HttpHeaders headers) {
+        String age = headers.getFirst(HttpHeaders.AGE);
+        if (age == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(age.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Result of a cache lookup. {@code cached} is {@code null} on a miss; a non-fresh entry
+     * can still be revalidated if it carries validators.
+     */
+    public static final class Lookup {
+        private final CacheKey key;
+        private final CachedResponse cached;
+        private final boolean fresh;
+        
+        Lookup(CacheKey key, CachedResponse cached, boolean fresh) {
+            this.key = key;
+            this.cached = cached;
+            this.fresh = fresh;
+        }
+        
+        public CacheKey getKey() {
+            return key;
+        }
+        
+        public boolean isFresh() {
+            return fresh;
+        }
+        
+        public boolean canRevalidate() {
+            return cached != null && !fresh && cached.hasValidators();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.funnelproxy.cluster;
+
+import com.example.funnelproxy.model.ServiceMapping;
+
+import java.util.List;
+
+/**
+ * Every mapping of a node at one {@link ClusterVersion}, as exchanged between nodes.
+ */
+public record ClusterSnapshot(ClusterVersion version, List<ServiceMapping> mappings) {
+}
@@ -0,0 +1,12 @@
+package com.example.funnelproxy.cluster;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of this node's place in the cluster.
+ */
+public record ClusterStatus(String node,
+                            String version,
+                            boolean converged,
+                            List<PeerStatus> peers) {
+}
@@ -0,0 +1,341 @@
+package com.example.funnelproxy.cluster;
+
+import com.example.funnelproxy.cache.ResponseCache;
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.repository.ServiceMappingRepo;
+import com.example.funnelproxy.repository.StoreSync;
+import com.example.funnelproxy.routing.RouteRegistry;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the mapping stores of several proxy nodes in step. Each node keeps its own store and
+ * route table; what is replicated is the whole set of mappings, tagged with a
+ * {@link ClusterVersion} that every admin write advances.
+ * <ul>
+ *   <li>After a local write the node pushes its snapshot to every peer and reports how many
+ *   confirmed it, so the admin API can tell whether the change has converged.</li>
+ *   <li>Every {@code funnel.cluster.sync-interval-ms} each node also pulls from every peer,
+ *   sending its own version; a peer only answers with a snapshot when it holds a newer one.
+ *   That repairs pushes that were lost or made while a node was down.</li>
+ *   <li>A node applies a snapshot only if it is newer than its own, replacing all of its
+ *   mappings in one transaction and then publishing a new route table, which swaps in
+ *   atomically like after any other change.</li>
+ * </ul>
+ * The newest version wins as a whole: of two changes made on different nodes at the same time,
+ * only the one ordered later survives. Cluster mode is on when {@code funnel.cluster.peers}
+ * lists other nodes, and then requires {@code funnel.cluster.token}; without peers versions are
+ * still kept, but nothing is exchanged.
+ */
+@Component
+public class ClusterSync implements SmartInitializingSingleton {
+    public static final String VERSION_HEADER = "X-Funnel-Cluster-Version";
+    public static final String CONVERGED_HEADER = "X-Funnel-Cluster-Converged";
+    public static final String TOKEN_HEADER = "X-Funnel-Cluster-Token";
+    public static final String SNAPSHOT_PATH = "/admin/api/cluster/snapshot";
+    
+    private static final Logger log = LoggerFactory.getLogger(ClusterSync.class);
+    
+    private final ServiceMappingRepo repo;
+    private final R2dbcEntityTemplate template;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactions;
+    private final StoreSync store;
+    private final RouteRegistry routes;
+    private final ResponseCache responseCache;
+    private final WebClient client;
+    private final List<String> peers;
+    private final String nodeId;
+    private final String token;
+    private final Duration interval;
+    private final Duration timeout;
+    // Local writes and applied snapshots run here one at a time, so a version always
+    // describes exactly the mappings stored with it; the H2 driver blocks, so this may too
+    private final Scheduler writes = Schedulers.newBoundedElastic(1, 1000, "funnel-cluster");
+    private final Map<String, PeerStatus> status = new ConcurrentHashMap<>();
+    private volatile ClusterVersion version = ClusterVersion.INITIAL;
+    private volatile Disposable polling;
+    
+    public ClusterSync(ServiceMappingRepo repo, R2dbcEntityTemplate template, DatabaseClient databaseClient,
+                       ReactiveTransactionManager transactionManager, StoreSync store, RouteRegistry routes,
+                       ResponseCache responseCache, WebClient.Builder webClients,
+                       @Value("${funnel.cluster.peers:}") String[] peers,
+                       @Value("${funnel.cluster.node-id:}") String nodeId,
+                       @Value("${funnel.cluster.token:}") String token,
+                       @Value("${funnel.cluster.sync-interval-ms:2000}") long intervalMs,
+                       @Value("${funnel.cluster.timeout-ms:2000}") long timeoutMs,
+                       @Value("${server.port:8080}") int port) {
+        this.repo = repo;
+        this.template = template;
+        this.databaseClient = databaseClient;
+        this.transactions = TransactionalOperator.create(transactionManager);
+        this.store = store;
+        this.routes = routes;
+        this.responseCache = responseCache;
+        // Bound each exchange in the client rather than with Mono.timeout, so a late answer is
+        // released by the connection instead of racing the cancelled exchange
+        HttpClient httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) timeoutMs)
+                .responseTimeout(Duration.ofMillis(timeoutMs));
+        this.client = webClients.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+        this.peers = Arrays.stream(peers)
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .map(peer -> peer.endsWith("/") ? peer.substring(0, peer.length() - 1) : peer)
+                .toList();
+        if (!this.peers.isEmpty() && token.isBlank()) {
+            // Without a shared secret anyone who can reach /admin could replace every node's mappings
+            throw new IllegalStateException("Cluster mode needs funnel.cluster.token, the same on every node");
+        }
+        this.nodeId = nodeId.isBlank() ? defaultNodeId(port) : nodeId.trim();
+        this.token = token;
+        this.interval = Duration.ofMillis(intervalMs);
+        this.timeout = Duration.ofMillis(timeoutMs);
+    }
+    
+    private static String defaultNodeId(int port) {
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + port;
+        } catch (UnknownHostException e) {
+            return "localhost:" + port;
+        }
+    }
+    
+    /**
+     * Reads the stored version and starts pulling from peers, before the listener starts.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        version = databaseClient.sql("SELECT counter, origin FROM cluster_state WHERE id = 1")
+                .map((row, metadata) -> new ClusterVersion(row.get("counter", Long.class), row.get("origin", String.class)))
+                .one()
+                .defaultIfEmpty(ClusterVersion.INITIAL)
+                .subscribeOn(writes)
+                .block(timeout);
+        if (peers.isEmpty()) {
+            return;
+        }
+        log.info("🔗 Cluster node {} at version {}, syncing with {}", nodeId, version, peers);
+        polling = Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> Flux.fromIterable(peers).flatMap(this::pull).then(), 1)
+                .subscribe(unused -> {}, error -> log.error("❌ Cluster sync stopped: {}", error.getMessage()));
+    }
+    
+    public boolean isEnabled() {
+        return !peers.isEmpty();
+    }
+    
+    public ClusterVersion version() {
+        return version;
+    }
+    
+    /**
+     * Whether a request from a peer carries the shared token, compared in constant time.
+     */
+    public boolean isAuthorized(String presented) {
+        return !token.isEmpty() && presented != null && MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Runs a local change to the mappings and advances the version in the same transaction.
+     * Call {@link #publish()} once the change is durable and the route table reloaded.
+     */
+    public <T> Mono<T> write(Mono<T> change) {
+        return Mono.fromCallable(() -> {
+            ClusterVersion next = version.next(nodeId);
+            T result = change.flatMap(value -> saveVersion(next).thenReturn(value))
+                    .switchIfEmpty(saveVersion(next).then(Mono.empty()))
+                    .as(transactions::transactional)
+                    .block();
+            version = next;
+            return result;
+        }).subscribeOn(writes);
+    }
+    
+    /**
+     * Pushes this node's snapshot to every peer and reports how many hold its version afterwards.
+     */
+    public Mono<Convergence> publish() {
+        if (peers.isEmpty()) {
+            return Mono.just(new Convergence(version, 0, 0));
+        }
+        return snapshot()
+                .flatMap(snapshot -> Flux.fromIterable(peers)
+                        .flatMap(peer -> push(peer, snapshot))
+                        .filter(peerVersion -> !snapshot.version().isNewerThan(peerVersion))
+                        .count()
+                        .map(acknowledged -> new Convergence(snapshot.version(), acknowledged.intValue(), peers.size())));
+    }
+    
+    /**
+     * This node's snapshot if it is newer than {@code since}, or empty.
+     */
+    public Mono<ClusterSnapshot> snapshotNewerThan(ClusterVersion since) {
+        return version.isNewerThan(since) ? snapshot() : Mono.empty();
+    }
+    
+    /**
+     * Applies a peer's snapshot if it is newer than this node's, and returns the node's version
+     * afterwards.
+     */
+    public Mono<ClusterVersion> apply(ClusterSnapshot snapshot) {
+        return Mono.fromCallable(() -> {
+                    if (!snapshot.version().isNewerThan(version)) {
+                        return false;
+                    }
+                    replaceAll(snapshot);
+                    return true;
+                })
+                .subscribeOn(writes)
+                .flatMap(applied -> applied
+                        ? store.sync().then(routes.reload()).doOnSuccess(table -> responseCache.clear()).then(Mono.fromSupplier(() -> version))
+                        : Mono.fromSupplier(() -> version));
+    }
+    
+    public ClusterStatus status() {
+        ClusterVersion current = version;
+        List<PeerStatus> peerStatus = new ArrayList<>(peers.size());
+        boolean converged = true;
+        for (String peer : peers) {
+            PeerStatus known = status.get(peer);
+            if (known == null) {
+                known = new PeerStatus(peer, null, false, null, "not contacted yet");
+            } else {
+                // Compare against the current version, which may have moved since the peer answered
+                known = new PeerStatus(peer, known.version(), current.toString().equals(known.version()),
+                        known.lastContact(), known.error());
+            }
+            converged &= known.converged();
+            peerStatus.add(known);
+        }
+        return new ClusterStatus(nodeId, current.toString(), converged, peerStatus);
+    }
+    
+    private Mono<ClusterSnapshot> snapshot() {
+        return Mono.fromCallable(() -> {
+            ClusterVersion current = version;
+            List<ServiceMapping> mappings = repo.findAll().collectList().block();
+            return new ClusterSnapshot(current, mappings);
+        }).subscribeOn(writes);
+    }
+    
+    /**
+     * Replaces every mapping with the snapshot's, on the writes scheduler.
+     */
+    private void replaceAll(ClusterSnapshot snapshot) {
+        databaseClient.sql("DELETE FROM service_mapping")
+                .then()
+                .thenMany(Flux.fromIterable(snapshot.mappings()).concatMap(template::insert))
+                .then(saveVersion(snapshot.version()))
+                .as(transactions::transactional)
+                .block();
+        // Inserting ids does not advance the identity column, so new local mappings would collide
+        Long next = databaseClient.sql("SELECT COALESCE(MAX(id), 0) + 1 AS next FROM service_mapping")
+                .map((row, metadata) -> row.get("next", Long.class))
+                .one()
+                .block();
+        databaseClient.sql("ALTER TABLE service_mapping ALTER COLUMN id RESTART WITH " + next).then().block();
+        version = snapshot.version();
+        log.info("🔁 Applied cluster version {} with {} mappings", snapshot.version(), snapshot.mappings().size());
+    }
+    
+    private Mono<Void> saveVersion(ClusterVersion next) {
+        return databaseClient.sql("MERGE INTO cluster_state (id, counter, origin) KEY (id) VALUES (1, :counter, :origin)")
+                .bind("counter", next.counter())
+                .bind("origin", next.origin())
+                .then();
+    }
+    
+    private Mono<ClusterVersion> push(String peer, ClusterSnapshot snapshot) {
+        return client.put()
+                .uri(peer + SNAPSHOT_PATH)
+                .header(TOKEN_HEADER, token)
+                .bodyValue(snapshot)
+                .retrieve()
+                .bodyToMono(ClusterVersion.class)
+                .doOnNext(peerVersion -> contacted(peer, peerVersion))
+                .onErrorResume(error -> failed(peer, error));
+    }
+    
+    /**
+     * Asks a peer for its snapshot if it is newer than this node's, and applies it.
+     */
+    private Mono<Void> pull(String peer) {
+        ClusterVersion current = version;
+        return client.get()
+                .uri(peer + SNAPSHOT_PATH)
+                .header(TOKEN_HEADER, token)
+                .header(VERSION_HEADER, current.toString())
+                .exchangeToMono(response -> {
+                    String peerVersion = response.headers().asHttpHeaders().getFirst(VERSION_HEADER);
+                    if (response.statusCode() == HttpStatus.NOT_MODIFIED && peerVersion != null) {
+                        contacted(peer, ClusterVersion.parse(peerVersion));
+                        return response.releaseBody();
+                    }
+                    if (response.statusCode().is2xxSuccessful()) {
+                        return response.bodyToMono(ClusterSnapshot.class)
+                                .flatMap(snapshot -> {
+                                    contacted(peer, snapshot.version());
+                                    return apply(snapshot).then();
+                                });
+                    }
+                    return response.createError().then();
+                })
+                .onErrorResume(error -> failed(peer, error).then());
+    }
+    
+    private void contacted(String peer, ClusterVersion peerVersion) {
+        status.put(peer, new PeerStatus(peer, peerVersion.toString(), peerVersion.equals(version), Instant.now(), null));
+    }
+    
+    private Mono<ClusterVersion> failed(String peer, Throwable error) {
+        PeerStatus previous = status.get(peer);
+        if (previous == null || previous.error() == null) {
+            log.warn("❌ Cluster peer {} unreachable: {}", peer, error.getMessage());
+        }
+        status.put(peer, new PeerStatus(peer, previous != null ? previous.version() : null, false,
+                previous != null ? previous.lastContact() : null, String.valueOf(error.getMessage())));
+        return Mono.empty();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        Disposable running = polling;
+        if (running != null) {
+            running.dispose();
+        }
+        writes.dispose();
+    }
+}
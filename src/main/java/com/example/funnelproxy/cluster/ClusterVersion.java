@@ -0,0 +1,54 @@
+package com.example.funnelproxy.cluster;
+
+import java.util.Comparator;
+
+/**
+ * Version of a node's mapping store, as a Lamport clock: every local change takes the next
+ * counter after the highest one the node has seen, and ties between nodes that changed at the
+ * same time are broken by node id, so every node orders any two versions the same way.
+ */
+public record ClusterVersion(long counter, String origin) implements Comparable<ClusterVersion> {
+    
+    public static final ClusterVersion INITIAL = new ClusterVersion(0, "");
+    
+    private static final Comparator<ClusterVersion> ORDER = Comparator.comparingLong(ClusterVersion::counter)
+            .thenComparing(ClusterVersion::origin);
+    
+    /**
+     * The version of a change made on {@code node} after this one.
+     */
+    public ClusterVersion next(String node) {
+        return new ClusterVersion(counter + 1, node);
+    }
+    
+    public boolean isNewerThan(ClusterVersion other) {
+        return compareTo(other) > 0;
+    }
+    
+    /**
+     * Parses the {@code counter@origin} form used in headers.
+     *
+     * @throws IllegalArgumentException if the value is not in that form
+     */
+    public static ClusterVersion parse(String value) {
+        int at = value.indexOf('@');
+        if (at <= 0) {
+            throw new IllegalArgumentException("Invalid cluster version: " + value);
+        }
+        try {
+            return new ClusterVersion(Long.parseLong(value.substring(0, at)), value.substring(at + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cluster version: " + value);
+        }
+    }
+    
+    @Override
+    public int compareTo(ClusterVersion other) {
+        return ORDER.compare(this, other);
+    }
+    
+    @Override
+    public String toString() {
+        return counter + "@" + origin;
+    }
+}
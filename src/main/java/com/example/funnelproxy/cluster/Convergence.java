@@ -0,0 +1,22 @@
+package com.example.funnelproxy.cluster;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * How far a change has spread right after it was made: how many peers confirmed they hold its
+ * version, out of how many are configured.
+ */
+public record Convergence(ClusterVersion version, int acknowledged, int peers) {
+    
+    public boolean isConverged() {
+        return acknowledged == peers;
+    }
+    
+    /**
+     * Reports the convergence on an admin API response.
+     */
+    public void writeTo(HttpHeaders headers) {
+        headers.set(ClusterSync.VERSION_HEADER, version.toString());
+        headers.set(ClusterSync.CONVERGED_HEADER, acknowledged + "/" + peers);
+    }
+}
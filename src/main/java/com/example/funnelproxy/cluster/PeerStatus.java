@@ -0,0 +1,14 @@
+package com.example.funnelproxy.cluster;
+
+import java.time.Instant;
+
+/**
+ * What a node last learned about one peer: the version it reported, whether that matches this
+ * node's, when it last answered, and the error of the last exchange if it failed.
+ */
+public record PeerStatus(String peer,
+                         String version,
+                         boolean converged,
+                         Instant lastContact,
+                         String error) {
+}
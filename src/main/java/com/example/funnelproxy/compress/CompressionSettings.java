@@ -0,0 +1,56 @@
+package com.example.funnelproxy.compress;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Effective response compression rules for one mapping, with defaults applied. Compiled once
+ * per route so the request path only compares prepared strings.
+ */
+public record CompressionSettings(boolean enabled, List<String> typePrefixes, int minBytes) {
+    
+    public static final List<String> DEFAULT_TYPES = List.of(
+            "text/", "application/javascript", "application/json", "application/xml",
+            "application/manifest+json", "image/svg+xml");
+    public static final int DEFAULT_MIN_BYTES = 1024;
+    
+    public static final CompressionSettings DISABLED = new CompressionSettings(false, List.of(), Integer.MAX_VALUE);
+    
+    public static CompressionSettings of(ServiceMapping mapping) {
+        if (Boolean.FALSE.equals(mapping.getCompressEnabled())) {
+            return DISABLED;
+        }
+        List<String> types = DEFAULT_TYPES;
+        if (mapping.getCompressTypes() != null && !mapping.getCompressTypes().isBlank()) {
+            types = new ArrayList<>();
+            for (String type : mapping.getCompressTypes().split(",")) {
+                if (!type.isBlank()) {
+                    types.add(type.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+            types = List.copyOf(types);
+        }
+        Integer minBytes = mapping.getCompressMinBytes();
+        return new CompressionSettings(true, types, minBytes != null && minBytes >= 0 ? minBytes : DEFAULT_MIN_BYTES);
+    }
+    
+    /**
+     * Whether responses of this type are worth compressing; {@code null} never is.
+     */
+    public boolean matches(MediaType contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.getType() + "/" + contentType.getSubtype();
+        for (String prefix : typePrefixes) {
+            if (type.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
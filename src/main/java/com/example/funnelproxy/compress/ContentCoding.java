@@ -0,0 +1,135 @@
+package com.example.funnelproxy.compress;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+
+import java.util.List;
+
+/**
+ * The content codings the proxy can produce, and the negotiation of one of them against a
+ * request's {@code Accept-Encoding}. The response cache keys its variants by the same
+ * negotiation, so all clients that would get the same coding share one stored variant.
+ */
+public enum ContentCoding {
+    BROTLI("br"),
+    GZIP("gzip");
+    
+    private static final Logger log = LoggerFactory.getLogger(ContentCoding.class);
+    private static final boolean BROTLI_AVAILABLE = loadBrotli();
+    
+    private final String token;
+    
+    ContentCoding(String token) {
+        this.token = token;
+    }
+    
+    public String getToken() {
+        return token;
+    }
+    
+    public static boolean isBrotliAvailable() {
+        return BROTLI_AVAILABLE;
+    }
+    
+    /**
+     * The preferred coding the client accepts, or {@code null} for identity. Brotli wins over gzip
+     * unless the client gives gzip a higher {@code q} value.
+     */
+    public static ContentCoding negotiate(HttpHeaders requestHeaders) {
+        float[] qualities = qualities(requestHeaders);
+        if (qualities == null) {
+            return null;
+        }
+        float brotli = qualities[BROTLI.ordinal()];
+        float gzip = qualities[GZIP.ordinal()];
+        if (BROTLI_AVAILABLE && brotli > 0 && brotli >= gzip) {
+            return BROTLI;
+        }
+        return gzip > 0 ? GZIP : null;
+    }
+    
+    /**
+     * Whether the client accepts {@code coding} at all, regardless of preference.
+     */
+    public static boolean accepts(HttpHeaders requestHeaders, ContentCoding coding) {
+        float[] qualities = qualities(requestHeaders);
+        return qualities != null && qualities[coding.ordinal()] > 0;
+    }
+    
+    /**
+     * {@code q} values per coding, with {@code *} applied to codings not listed; -1 when not acceptable,
+     * or {@code null} without an {@code Accept-Encoding} header.
+     */
+    private static float[] qualities(HttpHeaders requestHeaders) {
+        List<String> values = requestHeaders.get(HttpHeaders.ACCEPT_ENCODING);
+        if (values == null) {
+            return null;
+        }
+        float[] qualities = {-1, -1};
+        float any = -1;
+        for (String value : values) {
+            int start = 0;
+            while (start < value.length()) {
+                int end = value.indexOf(',', start);
+                if (end < 0) {
+                    end = value.length();
+                }
+                int semicolon = value.indexOf(';', start);
+                int tokenEnd = semicolon >= 0 && semicolon < end ? semicolon : end;
+                String token = value.substring(start, tokenEnd).trim();
+                float q = tokenEnd < end ? quality(value.substring(tokenEnd + 1, end)) : 1;
+                if (token.equalsIgnoreCase("br")) {
+                    qualities[BROTLI.ordinal()] = q;
+                } else if (token.equalsIgnoreCase("gzip") || token.equalsIgnoreCase("x-gzip")) {
+                    qualities[GZIP.ordinal()] = q;
+                } else if (token.equals("*")) {
+                    any = q;
+                }
+                start = end + 1;
+            }
+        }
+        for (int i = 0; i < qualities.length; i++) {
+            if (qualities[i] < 0) {
+                qualities[i] = any;
+            }
+        }
+        return qualities;
+    }
+    
+    /**
+     * Cache variant value for {@code Accept-Encoding}: the negotiated token, or {@code identity}.
+     */
+    public static String variantOf(HttpHeaders requestHeaders) {
+        ContentCoding coding = negotiate(requestHeaders);
+        return coding == null ? "identity" : coding.token;
+    }
+    
+    private static float quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(trimmed.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+    
+    private static boolean loadBrotli() {
+        try {
+            if (Brotli4jLoader.isAvailable()) {
+                return true;
+            }
+            log.info("Brotli is not available on this platform, compressing with gzip only: {}",
+                    Brotli4jLoader.getUnavailabilityCause().toString());
+        } catch (Throwable e) {
+            log.info("Brotli is not available on this platform, compressing with gzip only: {}", e.toString());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.funnelproxy.compress;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of raw deflaters, so each compressed response does not allocate and free a
+ * zlib stream of its own. When the pool is empty a new deflater is created; when it is full,
+ * returned deflaters are ended.
+ */
+final class DeflaterPool {
+    private final BlockingQueue<Deflater> idle;
+    private final int level;
+    
+    DeflaterPool(int capacity, int level) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.level = level;
+    }
+    
+    Deflater acquire() {
+        Deflater deflater = idle.poll();
+        return deflater != null ? deflater : new Deflater(level, true);
+    }
+    
+    void release(Deflater deflater, boolean reusable) {
+        if (reusable) {
+            deflater.reset();
+            if (idle.offer(deflater)) {
+                return;
+            }
+        }
+        deflater.end();
+    }
+    
+    void clear() {
+        Deflater deflater;
+        while ((deflater = idle.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
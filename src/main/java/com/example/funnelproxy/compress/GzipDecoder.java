@@ -0,0 +1,170 @@
+package com.example.funnelproxy.compress;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming gzip decoder for upstream bodies that need rewriting. Header fields, member
+ * boundaries and trailers may be split across chunks; concatenated members are decoded in turn.
+ */
+final class GzipDecoder implements StreamCodec {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int TRAILER_BYTES = 8;
+    
+    private enum State {
+        HEADER,
+        BODY,
+        TRAILER,
+        DONE
+    }
+    
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] scratch = new byte[16384];
+    private State state = State.HEADER;
+    // Header bytes seen so far while the header is incomplete
+    private byte[] pending = new byte[0];
+    private int trailerRemaining;
+    private boolean closed;
+    
+    @Override
+    public synchronized DataBuffer transform(DataBuffer chunk, DataBufferFactory factory) {
+        if (closed) {
+            // Cancelled while this chunk was on its way; the inflater has already been freed
+            DataBufferUtils.release(chunk);
+            return factory.allocateBuffer(0);
+        }
+        byte[] data;
+        try {
+            data = new byte[chunk.readableByteCount()];
+            chunk.read(data);
+        } finally {
+            DataBufferUtils.release(chunk);
+        }
+        DataBuffer out = factory.allocateBuffer(Math.max(256, data.length * 3));
+        int position = 0;
+        while (position < data.length && state != State.DONE) {
+            switch (state) {
+                case HEADER -> {
+                    byte[] header = pending.length == 0 ? data : concat(pending, data, position);
+                    int start = pending.length == 0 ? position : 0;
+                    int length = headerLength(header, start);
+                    if (length == -1) {
+                        pending = Arrays.copyOfRange(header, start, header.length);
+                        return out;
+                    }
+                    if (length == -2) {
+                        // Not gzip: trailing garbage after the last member, which decoders traditionally ignore
+                        state = State.DONE;
+                        break;
+                    }
+                    pending = new byte[0];
+                    data = header;
+                    position = start + length;
+                    inflater.reset();
+                    state = State.BODY;
+                }
+                case BODY -> {
+                    inflater.setInput(data, position, data.length - position);
+                    try {
+                        int count;
+                        while ((count = inflater.inflate(scratch)) > 0) {
+                            out.write(scratch, 0, count);
+                        }
+                    } catch (DataFormatException e) {
+                        DataBufferUtils.release(out);
+                        throw new IllegalStateException("Invalid gzip body: " + e.getMessage(), e);
+                    }
+                    if (inflater.finished()) {
+                        position = data.length - inflater.getRemaining();
+                        trailerRemaining = TRAILER_BYTES;
+                        state = State.TRAILER;
+                    } else {
+                        position = data.length;
+                    }
+                }
+                case TRAILER -> {
+                    int skipped = Math.min(trailerRemaining, data.length - position);
+                    position += skipped;
+                    trailerRemaining -= skipped;
+                    if (trailerRemaining == 0) {
+                        state = State.HEADER;
+                    }
+                }
+                default -> position = data.length;
+            }
+        }
+        return out;
+    }
+    
+    @Override
+    public synchronized DataBuffer finish(DataBufferFactory factory) {
+        if (closed) {
+            return factory.allocateBuffer(0);
+        }
+        if (state == State.BODY) {
+            throw new IllegalStateException("Truncated gzip body");
+        }
+        return factory.allocateBuffer(0);
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            inflater.end();
+        }
+    }
+    
+    /**
+     * Length of the member header starting at {@code start}, -1 if more bytes are needed,
+     * or -2 if the bytes are not a gzip header.
+     */
+    private static int headerLength(byte[] data, int start) {
+        int available = data.length - start;
+        if (available >= 1 && (data[start] & 0xff) != 0x1f
+                || available >= 2 && (data[start + 1] & 0xff) != 0x8b
+                || available >= 3 && data[start + 2] != 8) {
+            return -2;
+        }
+        if (available < 10) {
+            return -1;
+        }
+        int flags = data[start + 3] & 0xff;
+        int position = start + 10;
+        if ((flags & FEXTRA) != 0) {
+            if (position + 2 > data.length) {
+                return -1;
+            }
+            position += 2 + ((data[position] & 0xff) | (data[position + 1] & 0xff) << 8);
+        }
+        for (int flag : new int[] {FNAME, FCOMMENT}) {
+            if ((flags & flag) != 0) {
+                while (position < data.length && data[position] != 0) {
+                    position++;
+                }
+                if (position >= data.length) {
+                    return -1;
+                }
+                position++;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        return position > data.length ? -1 : position - start;
+    }
+    
+    private static byte[] concat(byte[] first, byte[] second, int from) {
+        byte[] joined = Arrays.copyOf(first, first.length + second.length - from);
+        System.arraycopy(second, from, joined, first.length, second.length - from);
+        return joined;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.funnelproxy.compress;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip framing around a pooled raw {@link Deflater}. Every chunk is sync-flushed, so streamed
+ * responses reach the client as they arrive instead of waiting for the compressor's window.
+ */
+final class GzipEncoder implements StreamCodec {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    
+    private final DeflaterPool pool;
+    private final Deflater deflater;
+    private final byte[] scratch;
+    private final CRC32 crc = new CRC32();
+    private boolean started;
+    private boolean finished;
+    private boolean closed;
+    
+    GzipEncoder(DeflaterPool pool) {
+        this.pool = pool;
+        this.deflater = pool.acquire();
+        this.scratch = new byte[8192];
+    }
+    
+    @Override
+    public synchronized DataBuffer transform(DataBuffer chunk, DataBufferFactory factory) {
+        try {
+            if (closed) {
+                // Cancelled while this chunk was on its way; the deflater may already be compressing another response
+                return factory.allocateBuffer(0);
+            }
+            DataBuffer out = factory.allocateBuffer(Math.max(64, chunk.readableByteCount() / 2));
+            start(out);
+            try (DataBuffer.ByteBufferIterator buffers = chunk.readableByteBuffers()) {
+                while (buffers.hasNext()) {
+                    ByteBuffer buffer = buffers.next();
+                    crc.update(buffer.duplicate());
+                    deflater.setInput(buffer);
+                    while (!deflater.needsInput()) {
+                        out.write(scratch, 0, deflater.deflate(scratch, 0, scratch.length, Deflater.NO_FLUSH));
+                    }
+                }
+            }
+            int count;
+            do {
+                count = deflater.deflate(scratch, 0, scratch.length, Deflater.SYNC_FLUSH);
+                out.write(scratch, 0, count);
+            } while (count == scratch.length);
+            return out;
+        } finally {
+            DataBufferUtils.release(chunk);
+        }
+    }
+    
+    @Override
+    public synchronized DataBuffer finish(DataBufferFactory factory) {
+        if (closed) {
+            return factory.allocateBuffer(0);
+        }
+        DataBuffer out = factory.allocateBuffer(64);
+        start(out);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(scratch, 0, deflater.deflate(scratch));
+        }
+        writeIntLE(out, (int) crc.getValue());
+        writeIntLE(out, (int) deflater.getBytesRead());
+        finished = true;
+        return out;
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            // Only a compressor that ran to the end is in a known state to be reused
+            pool.release(deflater, finished);
+        }
+    }
+    
+    private void start(DataBuffer out) {
+        if (!started) {
+            started = true;
+            out.write(HEADER);
+        }
+    }
+    
+    private static void writeIntLE(DataBuffer out, int value) {
+        out.write(new byte[] {(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+    }
+}
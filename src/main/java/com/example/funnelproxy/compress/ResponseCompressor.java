@@ -0,0 +1,161 @@
+package com.example.funnelproxy.compress;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Compresses proxied response bodies on the fly, and decodes gzip upstream bodies that have to be
+ * rewritten. Both work chunk by chunk on the {@code Flux<DataBuffer>}, so bodies are never
+ * buffered whole.
+ */
+@Component
+public class ResponseCompressor {
+    private static final Logger log = LoggerFactory.getLogger(ResponseCompressor.class);
+    
+    private final DeflaterPool deflaters;
+    private final int brotliQuality;
+    
+    public ResponseCompressor(@Value("${funnel.compression.gzip-level:6}") int gzipLevel,
+                              @Value("${funnel.compression.brotli-quality:4}") int brotliQuality,
+                              @Value("${funnel.compression.pool-size:64}") int poolSize) {
+        this.deflaters = new DeflaterPool(poolSize, gzipLevel);
+        this.brotliQuality = brotliQuality;
+        // Loading the native library extracts it from the jar; do that at startup, not on an event loop
+        if (ContentCoding.isBrotliAvailable()) {
+            log.info("🗜️ Compressing responses with brotli and gzip");
+        }
+    }
+    
+    /**
+     * Whether this response would be compressed for a client that accepts it. Responses that are
+     * already encoded, partial, bodiless, marked {@code no-transform}, below the mapping's minimum
+     * size or of a type it does not compress are sent as they are.
+     */
+    public boolean isCompressible(CompressionSettings settings, ServerHttpRequest request, int status, HttpHeaders headers) {
+        if (!settings.enabled() || request.getMethod() == HttpMethod.HEAD) {
+            return false;
+        }
+        if (status < 200 || status == 204 || status == 206 || status == 304) {
+            return false;
+        }
+        if (headers.containsKey(HttpHeaders.CONTENT_ENCODING) || headers.containsKey(HttpHeaders.CONTENT_RANGE)) {
+            return false;
+        }
+        String cacheControl = headers.getCacheControl();
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-transform")) {
+            return false;
+        }
+        long length = headers.getContentLength();
+        if (length >= 0 && length < settings.minBytes()) {
+            return false;
+        }
+        try {
+            return settings.matches(headers.getContentType());
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Marks the response headers for an encoded body: the length is no longer known, and a
+     * strong validator no longer matches the bytes sent.
+     */
+    public void applyHeaders(HttpHeaders headers, ContentCoding coding) {
+        headers.set(HttpHeaders.CONTENT_ENCODING, coding.getToken());
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        String etag = headers.getETag();
+        if (etag != null && !etag.startsWith("W/")) {
+            headers.setETag("W/" + etag);
+        }
+    }
+    
+    public Flux<DataBuffer> compress(Flux<DataBuffer> body, ContentCoding coding, DataBufferFactory factory) {
+        return transform(body, coding == ContentCoding.BROTLI
+                ? () -> new BrotliEncoder(brotliQuality)
+                : () -> new GzipEncoder(deflaters), factory);
+    }
+    
+    public Flux<DataBuffer> decodeGzip(Flux<DataBuffer> body, DataBufferFactory factory) {
+        return transform(body, GzipDecoder::new, factory);
+    }
+    
+    /**
+     * Whether a body with this {@code Content-Encoding} can be decoded for rewriting.
+     */
+    public static boolean isDecodable(HttpHeaders headers) {
+        String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+        return encoding == null || encoding.isBlank() || encoding.equalsIgnoreCase("identity")
+                || encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip");
+    }
+    
+    /**
+     * Restricts the codings offered upstream to ones {@link #isDecodable} accepts, so that a body
+     * which needs rewriting never comes back in a coding the rewriter cannot read. The client
+     * still gets brotli when it accepts it, as the rewritten body is compressed again.
+     */
+    public static void restrictToDecodable(HttpHeaders incoming, HttpHeaders outgoing) {
+        if (!incoming.containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            return;
+        }
+        outgoing.set(HttpHeaders.ACCEPT_ENCODING, ContentCoding.accepts(incoming, ContentCoding.GZIP) ? "gzip" : "identity");
+    }
+    
+    /**
+     * Tells caches that the representation depends on {@code Accept-Encoding}, whether or not this
+     * particular client got it compressed.
+     */
+    public static void addVary(HttpHeaders headers) {
+        List<String> vary = headers.getVary();
+        for (String name : vary) {
+            if (name.equals("*") || name.equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING)) {
+                return;
+            }
+        }
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    
+    private static Flux<DataBuffer> transform(Flux<DataBuffer> body, Supplier<StreamCodec> codecs, DataBufferFactory factory) {
+        return Flux.using(codecs::get,
+                        codec -> body.<DataBuffer>handle((chunk, sink) -> {
+                                    DataBuffer out = codec.transform(chunk, factory);
+                                    if (nonEmpty(out)) {
+                                        sink.next(out);
+                                    }
+                                })
+                                .concatWith(Mono.fromSupplier(() -> codec.finish(factory)).filter(ResponseCompressor::nonEmpty)),
+                        StreamCodec::close)
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+    
+    /**
+     * Releases empty output buffers, which are not worth a write.
+     */
+    private static boolean nonEmpty(DataBuffer buffer) {
+        if (buffer.readableByteCount() > 0) {
+            return true;
+        }
+        DataBufferUtils.release(buffer);
+        return false;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        deflaters.clear();
+    }
+}
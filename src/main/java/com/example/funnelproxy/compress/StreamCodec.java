@@ -0,0 +1,21 @@
+package com.example.funnelproxy.compress;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+
+/**
+ * Stateful encoder or decoder for one response body. Chunks go through {@link #transform} in order,
+ * then {@link #finish} once; {@link #close} always runs last and may race with a cancelled
+ * {@code transform}, so implementations synchronize and produce nothing once closed.
+ */
+interface StreamCodec {
+    
+    /**
+     * Consumes and releases {@code chunk}, returning whatever output it produced, possibly empty.
+     */
+    DataBuffer transform(DataBuffer chunk, DataBufferFactory factory);
+    
+    DataBuffer finish(DataBufferFactory factory);
+    
+    void close();
+}
@@ -1,45 +1,40 @@
 package com.example.funnelproxy.config;
 
-import com.example.funnelproxy.model.ServiceMapping;
-import com.example.funnelproxy.repository.ServiceMappingRepo;
-import org.springframework.boot.CommandLineRunner;
-import org.springframework.r2dbc.core.DatabaseClient;
+import com.example.funnelproxy.routing.RouteRegistry;
+import com.example.funnelproxy.routing.RouteTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
+/**
+ * Loads the route table before the listener starts. The schema is created from
+ * {@code schema.sql} while the context starts, and the web server only binds its port after
+ * every singleton is initialized, so the first request already sees every stored mapping.
+ */
 @Component
-public class DataInitializer implements CommandLineRunner {
+public class DataInitializer implements SmartInitializingSingleton {
+    private static final Logger log = LoggerFactory.getLogger(DataInitializer.class);
     
-    private final ServiceMappingRepo repo;
-    private final DatabaseClient databaseClient;
+    private final RouteRegistry routes;
+    private final Duration timeout;
     
-    public DataInitializer(ServiceMappingRepo repo, DatabaseClient databaseClient) {
-        this.repo = repo;
-        this.databaseClient = databaseClient;
+    public DataInitializer(RouteRegistry routes, @Value("${funnel.store.load-timeout-ms:30000}") long timeoutMs) {
+        this.routes = routes;
+        this.timeout = Duration.ofMillis(timeoutMs);
     }
     
     @Override
-    public void run(String... args) throws Exception {
-        // Create table if it doesn't exist
-        databaseClient.sql("""
-            CREATE TABLE IF NOT EXISTS service_mapping (
-                id BIGINT AUTO_INCREMENT PRIMARY KEY,
-                name VARCHAR(255) NOT NULL,
-                path_prefix VARCHAR(255) NOT NULL UNIQUE,
-                target_url VARCHAR(500) NOT NULL,
-                host VARCHAR(255)
-            )
-            """)
-            .then()
-            .subscribe(
-                unused -> System.out.println("✅ Database table created successfully"),
-                error -> System.err.println("❌ Error creating table: " + error.getMessage())
-            );
-        
-        // Check if we need to add sample data
-        repo.count().subscribe(count -> {
-            if (count == 0) {
-                System.out.println("✅ Funnel Proxy initialized. Visit /admin to configure services.");
-            }
-        });
+    public void afterSingletonsInstantiated() {
+        long start = System.nanoTime();
+        RouteTable table = routes.reload().block(timeout);
+        log.info("✅ Loaded {} mappings in {} ms", table.getMappings().size(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+        if (table.isEmpty()) {
+            log.info("✅ Funnel Proxy initialized. Visit /admin to configure services.");
+        }
     }
-}
\ No newline at end of file
+}
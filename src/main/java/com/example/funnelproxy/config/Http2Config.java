@@ -0,0 +1,57 @@
+package com.example.funnelproxy.config;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * HTTP/2 settings for the listener. {@code server.http2.enabled} turns HTTP/2 on: negotiated
+ * with ALPN when TLS is configured, h2c otherwise. Each stream is flow controlled on its own,
+ * so a slow upload or download only holds back its own stream, never the connection.
+ * <p>
+ * Netty starts every connection with the protocol's 64 KiB connection window, which caps
+ * all uploads on a connection together at 64 KiB per round trip. The connection window is
+ * widened to match the stream windows once the connection's first stream opens.
+ */
+@Configuration
+public class Http2Config {
+    private static final Logger log = LoggerFactory.getLogger(Http2Config.class);
+    private static final AttributeKey<Boolean> WIDENED = AttributeKey.valueOf("funnel.http2.widened");
+    
+    @Bean
+    public NettyServerCustomizer http2Customizer(@Value("${server.http2.enabled:false}") boolean enabled,
+                                                 @Value("${funnel.http2.initial-window-size:1048576}") int windowSize,
+                                                 @Value("${funnel.http2.max-concurrent-streams:256}") long maxStreams,
+                                                 @Value("${funnel.http2.connection-window-size:4194304}") int connectionWindow) {
+        return server -> {
+            if (!enabled) {
+                return server;
+            }
+            log.info("🔀 HTTP/2 enabled: {} concurrent streams, {} byte stream window, {} byte connection window",
+                    maxStreams, windowSize, connectionWindow);
+            int increment = connectionWindow - Http2CodecUtil.DEFAULT_WINDOW_SIZE;
+            return server
+                    .http2Settings(settings -> settings
+                            .initialWindowSize(windowSize)
+                            .maxConcurrentStreams(maxStreams))
+                    .doOnConnection(connection -> {
+                        // Called per stream on HTTP/2 connections, whose parent is the TCP connection
+                        if (increment <= 0 || !(connection.channel() instanceof Http2StreamChannel stream)) {
+                            return;
+                        }
+                        Channel parent = stream.parent();
+                        if (parent.attr(WIDENED).setIfAbsent(Boolean.TRUE) == null) {
+                            parent.writeAndFlush(new DefaultHttp2WindowUpdateFrame(increment));
+                        }
+                    });
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.funnelproxy.config;
+
+import com.example.funnelproxy.cache.CacheStats;
+import com.example.funnelproxy.cache.CoalescerStats;
+import com.example.funnelproxy.cluster.ClusterSnapshot;
+import com.example.funnelproxy.cluster.ClusterStatus;
+import com.example.funnelproxy.cluster.ClusterVersion;
+import com.example.funnelproxy.cluster.PeerStatus;
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.upstream.BalancerStats;
+import com.example.funnelproxy.upstream.BreakerStats;
+import com.example.funnelproxy.upstream.PoolStats;
+import com.example.funnelproxy.upstream.TargetStats;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+/**
+ * What a native image of the proxy needs beyond what Spring's AOT processing finds on its own.
+ * Only the {@code native} and {@code aot} build profiles read these; a plain JVM build ignores them.
+ * <ul>
+ *     <li>{@link ServiceMapping} is read by the R2DBC repository and bound from and to JSON by
+ *     the admin API, including the fields only the admin page sends.</li>
+ *     <li>The admin API's stats records are serialized from inside {@code Flux}/{@code Mono},
+ *     where the controller scan does not always reach them, and so are the snapshots that
+ *     cluster nodes exchange.</li>
+ *     <li>Brotli loads its native library from the classpath and calls into it through JNI.</li>
+ * </ul>
+ */
+public class NativeHints implements RuntimeHintsRegistrar {
+    private static final String[] BROTLI_JNI = {
+            "com.aayushatharva.brotli4j.common.CommonJNI",
+            "com.aayushatharva.brotli4j.decoder.DecoderJNI",
+            "com.aayushatharva.brotli4j.decoder.DecoderJNI$Wrapper",
+            "com.aayushatharva.brotli4j.encoder.EncoderJNI",
+            "com.aayushatharva.brotli4j.encoder.EncoderJNI$Wrapper",
+            "com.aayushatharva.brotli4j.encoder.EncoderJNI$PreparedDictionaryImpl" };
+    
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        BindingReflectionHintsRegistrar binding = new BindingReflectionHintsRegistrar();
+        binding.registerReflectionHints(hints.reflection(),
+                ServiceMapping.class,
+                PoolStats.class,
+                BreakerStats.class,
+                BalancerStats.class,
+                TargetStats.class,
+                CacheStats.class,
+                CoalescerStats.class,
+                ClusterVersion.class,
+                ClusterSnapshot.class,
+                ClusterStatus.class,
+                PeerStatus.class);
+        
+        hints.resources().registerPattern("schema.sql");
+        hints.resources().registerPattern("lib/linux-x86_64/libbrotli.so");
+        hints.resources().registerPattern("lib/linux-aarch64/libbrotli.so");
+        for (String type : BROTLI_JNI) {
+            hints.jni().registerType(TypeReference.of(type),
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.INVOKE_DECLARED_METHODS,
+                    MemberCategory.DECLARED_FIELDS);
+        }
+    }
+}
@@ -1,35 +1,60 @@
 package com.example.funnelproxy.config;
 
+import com.example.funnelproxy.logging.AccessLog;
+import com.example.funnelproxy.logging.AccessRecord;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
 @Component
 @Order(-100) // Very high priority to log all requests
 public class RequestLoggingFilter implements WebFilter {
+    private static final Logger log = LoggerFactory.getLogger(RequestLoggingFilter.class);
+    
+    private final AccessLog accessLog;
+    
+    public RequestLoggingFilter(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
     
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
-        String method = exchange.getRequest().getMethod().name();
-        String path = exchange.getRequest().getPath().value();
-        String query = exchange.getRequest().getURI().getQuery();
-        String fullUrl = path + (query != null ? "?" + query : "");
+        AccessRecord record = AccessRecord.of(exchange);
         
-        System.out.println("🔍 INCOMING REQUEST: " + method + " " + fullUrl);
-        System.out.println("🔍 Headers: " + exchange.getRequest().getHeaders());
+        // Count the body bytes the client actually receives
+        ServerHttpResponseDecorator counting = new ServerHttpResponseDecorator(exchange.getResponse()) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                return super.writeWith(Flux.from(body).doOnNext(buffer -> record.addBytes(buffer.readableByteCount())));
+            }
+        };
         
-        return chain.filter(exchange)
-                .doOnSuccess(unused -> {
-                    int status = exchange.getResponse().getStatusCode() != null ? 
-                        exchange.getResponse().getStatusCode().value() : 0;
-                    System.out.println("✅ RESPONSE: " + status + " for " + method + " " + fullUrl);
-                })
-                .doOnError(error -> {
-                    System.err.println("❌ ERROR: " + error.getMessage() + " for " + method + " " + fullUrl);
-                    error.printStackTrace();
+        return chain.filter(exchange.mutate().response(counting).build())
+                .doOnError(error -> log.error("Unhandled error for {} {}", exchange.getRequest().getMethod(),
+                        exchange.getRequest().getPath().value(), error))
+                .doFinally(signal -> {
+                    // Only requests that reached the proxy are access-logged; admin and health calls are not
+                    if (record.getMapping() == null) {
+                        return;
+                    }
+                    HttpStatusCode status = exchange.getResponse().getStatusCode();
+                    int code = signal == SignalType.ON_ERROR ? 500 : status != null ? status.value() : 200;
+                    if (record.getMeters() != null) {
+                        record.getMeters().recordExchange(code, System.nanoTime() - record.getStartNanos(),
+                                record.getUpstreamNanos(), record.getBytesIn(), record.getBytes());
+                    }
+                    accessLog.log(exchange.getRequest().getMethod().name(), exchange.getRequest().getPath().value(), code, record);
                 });
     }
-}
\ No newline at end of file
+}
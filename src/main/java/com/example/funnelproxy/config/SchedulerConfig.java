@@ -0,0 +1,23 @@
+package com.example.funnelproxy.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Event loop threads must never wait. Work that cannot be made non-blocking, such as the
+ * embedded H2 driver that executes statements synchronously, is subscribed on this bounded
+ * pool instead. Its task queue is bounded too, so a stuck database turns into errors rather
+ * than a growing backlog.
+ */
+@Configuration
+public class SchedulerConfig {
+    
+    @Bean(destroyMethod = "dispose")
+    public Scheduler blockingScheduler(@Value("${funnel.blocking.threads:4}") int threads,
+                                       @Value("${funnel.blocking.queue-size:1000}") int queueSize) {
+        return Schedulers.newBoundedElastic(threads, queueSize, "funnel-blocking");
+    }
+}
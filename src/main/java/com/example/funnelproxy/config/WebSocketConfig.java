@@ -1,18 +1,26 @@
 package com.example.funnelproxy.config;
 
 import com.example.funnelproxy.websocket.WebSocketProxyHandler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.HandlerMapping;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
 import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
 import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
+import org.springframework.web.reactive.socket.server.upgrade.ReactorNettyRequestUpgradeStrategy;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.server.WebsocketServerSpec;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 @Configuration
 public class WebSocketConfig {
+    private static final String SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
     
     @Bean
     public HandlerMapping webSocketMapping(WebSocketProxyHandler webSocketProxyHandler) {
@@ -21,14 +29,47 @@ public class WebSocketConfig {
         // This will catch WebSocket upgrade requests for any path that's not admin
         map.put("/**", webSocketProxyHandler);
         
-        SimpleUrlHandlerMapping mapping = new SimpleUrlHandlerMapping();
+        SimpleUrlHandlerMapping mapping = new UpgradeOnlyHandlerMapping(webSocketProxyHandler);
         mapping.setUrlMap(map);
-        mapping.setOrder(50); // Between REST controllers (1-10) and proxy controller (200)
+        // Ahead of the annotated controllers, whose catch-all proxy route would otherwise take the upgrade
+        mapping.setOrder(-1);
         return mapping;
     }
     
     @Bean
-    public WebSocketHandlerAdapter handlerAdapter() {
-        return new WebSocketHandlerAdapter();
+    public WebSocketHandlerAdapter handlerAdapter(
+            @Value("${spring.webflux.websocket.max-frame-payload-length:65536}") int maxFramePayloadLength) {
+        // Hand ping and pong frames to the relay so they reach the backend instead of being answered here
+        ReactorNettyRequestUpgradeStrategy strategy = new ReactorNettyRequestUpgradeStrategy(() -> WebsocketServerSpec.builder()
+                .handlePing(true)
+                .maxFramePayloadLength(maxFramePayloadLength));
+        return new WebSocketHandlerAdapter(new HandshakeWebSocketService(strategy));
+    }
+    
+    /**
+     * Only claims WebSocket upgrade requests, so plain HTTP requests still reach the controllers.
+     * The proxy handler is handed out per handshake, accepting the subprotocols the client offers.
+     */
+    private static final class UpgradeOnlyHandlerMapping extends SimpleUrlHandlerMapping {
+        private final WebSocketProxyHandler proxyHandler;
+        
+        UpgradeOnlyHandlerMapping(WebSocketProxyHandler proxyHandler) {
+            this.proxyHandler = proxyHandler;
+        }
+        
+        @Override
+        public Mono<Object> getHandlerInternal(ServerWebExchange exchange) {
+            String upgrade = exchange.getRequest().getHeaders().getUpgrade();
+            if (upgrade == null || !upgrade.equalsIgnoreCase("websocket")) {
+                return Mono.empty();
+            }
+            return super.getHandlerInternal(exchange).map(handler -> handler == proxyHandler
+                    ? proxyHandler.offering(exchange.getRequest().getHeaders().getOrEmpty(SEC_WEBSOCKET_PROTOCOL).stream()
+                            .flatMap(value -> Arrays.stream(value.split(",")))
+                            .map(String::trim)
+                            .filter(protocol -> !protocol.isEmpty())
+                            .toList())
+                    : handler);
+        }
     }
 }
\ No newline at end of file
@@ -1,34 +1,85 @@
 package com.example.funnelproxy.controller;
 
+import com.example.funnelproxy.cache.CacheStats;
+import com.example.funnelproxy.cache.CoalescerStats;
+import com.example.funnelproxy.cache.RequestCoalescer;
+import com.example.funnelproxy.cache.ResponseCache;
+import com.example.funnelproxy.cluster.ClusterSync;
+import com.example.funnelproxy.logging.AccessLog;
 import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.ratelimit.RateLimitSettings;
 import com.example.funnelproxy.repository.ServiceMappingRepo;
+import com.example.funnelproxy.repository.StoreSync;
+import com.example.funnelproxy.rewrite.ContentRewriter;
+import com.example.funnelproxy.rewrite.RewriteRule;
+import com.example.funnelproxy.routing.FallbackRules;
+import com.example.funnelproxy.routing.HostRouter;
+import com.example.funnelproxy.routing.RouteRegistry;
+import com.example.funnelproxy.upload.UploadSettings;
+import com.example.funnelproxy.upstream.BalancerSettings;
+import com.example.funnelproxy.upstream.BalancerStats;
+import com.example.funnelproxy.upstream.BreakerStats;
+import com.example.funnelproxy.upstream.LoadBalancers;
+import com.example.funnelproxy.upstream.PoolSettings;
+import com.example.funnelproxy.upstream.PoolStats;
+import com.example.funnelproxy.upstream.UpstreamClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Set;
 
 @RestController
 @Order(1) // Highest priority
 public class AdminController {
+    private static final Logger log = LoggerFactory.getLogger(AdminController.class);
+    
     private final ServiceMappingRepo repo;
+    private final StoreSync store;
+    private final ClusterSync cluster;
+    private final RouteRegistry routes;
+    private final UpstreamClients upstreams;
+    private final LoadBalancers balancers;
+    private final ResponseCache responseCache;
+    private final RequestCoalescer coalescer;
+    private final AccessLog accessLog;
+    // The H2 driver blocks, so repository calls run on the bounded blocking scheduler
+    private final Scheduler blocking;
     
-    public AdminController(ServiceMappingRepo repo) {
+    public AdminController(ServiceMappingRepo repo, StoreSync store, ClusterSync cluster, RouteRegistry routes,
+                           UpstreamClients upstreams, LoadBalancers balancers, ResponseCache responseCache,
+                           RequestCoalescer coalescer, AccessLog accessLog, Scheduler blocking) {
         this.repo = repo;
+        this.store = store;
+        this.cluster = cluster;
+        this.routes = routes;
+        this.upstreams = upstreams;
+        this.balancers = balancers;
+        this.responseCache = responseCache;
+        this.coalescer = coalescer;
+        this.accessLog = accessLog;
+        this.blocking = blocking;
     }
     
     // Simple test endpoint
     @GetMapping("/admin/test")
     public Mono<String> test() {
-        System.out.println("🧪 Admin test endpoint called");
+        log.debug("🧪 Admin test endpoint called");
         return Mono.just("Admin controller is working!");
     }
     
     // Serve the admin dashboard HTML
     @GetMapping(value = "/admin", produces = MediaType.TEXT_HTML_VALUE)
     public Mono<String> dashboard() {
-        System.out.println("🎛️ Admin dashboard endpoint called");
+        log.debug("🎛️ Admin dashboard endpoint called");
         return Mono.just(getAdminHtml());
     }
     
@@ -36,49 +87,156 @@ public class AdminController {
     @GetMapping("/admin/api/services")
     public Flux<ServiceMapping> getServices() {
         return repo.findAll()
+                .subscribeOn(blocking)
                 .onErrorResume(error -> {
-                    System.err.println("Error fetching services: " + error.getMessage());
+                    log.error("Error fetching services: {}", error.getMessage());
                     return Flux.empty();
                 });
     }
     
     @PostMapping("/admin/api/services")
-    public Mono<ServiceMapping> addService(@RequestBody ServiceMapping service) {
+    public Mono<ServiceMapping> addService(@RequestBody ServiceMapping service, ServerHttpResponse response) {
         // Ensure pathPrefix starts with /
         if (service.getPathPrefix() != null && !service.getPathPrefix().startsWith("/")) {
             service.setPathPrefix("/" + service.getPathPrefix());
         }
-        return repo.save(service)
+        service.setRouteHost(HostRouter.normalize(service.getRouteHost()));
+        // Reject settings that would not compile into a route
+        String invalid = validate(service);
+        if (invalid != null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, invalid));
+        }
+        return cluster.write(repo.save(service))
+                .flatMap(saved -> commit(response).thenReturn(saved))
                 .onErrorResume(error -> {
-                    System.err.println("Error saving service: " + error.getMessage());
+                    log.error("Error saving service: {}", error.getMessage());
                     return Mono.empty();
                 });
     }
     
     @PutMapping("/admin/api/services/{id}")
-    public Mono<ServiceMapping> updateService(@PathVariable Long id, @RequestBody ServiceMapping service) {
+    public Mono<ServiceMapping> updateService(@PathVariable Long id, @RequestBody ServiceMapping service,
+                                              ServerHttpResponse response) {
         service.setId(id);
         // Ensure pathPrefix starts with /
         if (service.getPathPrefix() != null && !service.getPathPrefix().startsWith("/")) {
             service.setPathPrefix("/" + service.getPathPrefix());
         }
-        return repo.save(service)
+        service.setRouteHost(HostRouter.normalize(service.getRouteHost()));
+        // Reject settings that would not compile into a route
+        String invalid = validate(service);
+        if (invalid != null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, invalid));
+        }
+        return cluster.write(repo.save(service))
+                .doOnSuccess(saved -> responseCache.invalidate(id))
+                .flatMap(saved -> commit(response).thenReturn(saved))
                 .onErrorResume(error -> {
-                    System.err.println("Error updating service: " + error.getMessage());
+                    log.error("Error updating service: {}", error.getMessage());
                     return Mono.empty();
                 });
     }
     
+    // Live connection pool usage per service
+    @GetMapping("/admin/api/pools")
+    public Flux<PoolStats> getPools() {
+        return Flux.fromIterable(upstreams.stats());
+    }
+    
+    // Circuit breaker state and recent failure counts per service
+    @GetMapping("/admin/api/breakers")
+    public Flux<BreakerStats> getBreakers() {
+        return Flux.fromIterable(upstreams.breakerStats());
+    }
+    
+    // Target health, ejections and in-flight requests per service
+    @GetMapping("/admin/api/targets")
+    public Flux<BalancerStats> getTargets() {
+        return Flux.fromIterable(balancers.stats());
+    }
+    
+    // Response cache counters and manual purge
+    @GetMapping("/admin/api/cache")
+    public Mono<CacheStats> getCacheStats() {
+        return Mono.fromSupplier(responseCache::stats);
+    }
+    
+    @GetMapping("/admin/api/coalescing")
+    public Mono<CoalescerStats> getCoalescerStats() {
+        return Mono.fromSupplier(coalescer::stats);
+    }
+    
+    @DeleteMapping("/admin/api/cache")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> clearCache() {
+        return Mono.fromRunnable(responseCache::clear);
+    }
+    
+    // Verbose per-request tracing, switched per service at runtime and not persisted
+    @GetMapping("/admin/api/trace")
+    public Mono<Set<Long>> getTracedServices() {
+        return Mono.fromSupplier(accessLog::getTracedMappings);
+    }
+    
+    @PutMapping("/admin/api/services/{id}/trace")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> enableTrace(@PathVariable Long id) {
+        return repo.existsById(id)
+                .subscribeOn(blocking)
+                .flatMap(exists -> exists
+                        ? Mono.<Void>fromRunnable(() -> accessLog.setTraced(id, true))
+                        : Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "No service with id " + id)));
+    }
+    
+    @DeleteMapping("/admin/api/services/{id}/trace")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> disableTrace(@PathVariable Long id) {
+        return Mono.fromRunnable(() -> accessLog.setTraced(id, false));
+    }
+    
     @DeleteMapping("/admin/api/services/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public Mono<Void> deleteService(@PathVariable Long id) {
-        return repo.deleteById(id)
+    public Mono<Void> deleteService(@PathVariable Long id, ServerHttpResponse response) {
+        return cluster.write(repo.deleteById(id))
+                .doOnSuccess(unused -> {
+                    responseCache.invalidate(id);
+                    accessLog.setTraced(id, false);
+                })
+                .then(commit(response))
                 .onErrorResume(error -> {
-                    System.err.println("Error deleting service: " + error.getMessage());
+                    log.error("Error deleting service: {}", error.getMessage());
                     return Mono.empty();
                 });
     }
     
+    /**
+     * Makes a change durable, swaps in the new route table and replicates it to the cluster,
+     * reporting on the response how far it has spread.
+     */
+    private Mono<Void> commit(ServerHttpResponse response) {
+        return store.sync()
+                .then(routes.reload())
+                .then(cluster.publish())
+                .doOnNext(convergence -> convergence.writeTo(response.getHeaders()))
+                .then();
+    }
+    
+    private String validate(ServiceMapping service) {
+        try {
+            HostRouter.validate(service.getRouteHost());
+            RewriteRule.parseAll(service.getRewriteRules());
+            FallbackRules.parse(service.getFallbackRules());
+            ContentRewriter.validateMaxBytes(service.getRewriteMaxBytes());
+            PoolSettings.validate(service);
+            BalancerSettings.validate(service);
+            UploadSettings.validate(service);
+            RateLimitSettings.validate(service);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+    
     private String getAdminHtml() {
         return """
 <!DOCTYPE html>
@@ -139,7 +297,7 @@ public class AdminController {
             font-weight: 600; 
             color: #333;
         }
-        .form-group input { 
+        .form-group input, .form-group select { 
             width: 100%; 
             max-width: 400px; 
             padding: 10px; 
@@ -210,18 +368,66 @@ public class AdminController {
                     <label for="name">Service Name:</label>
                     <input type="text" id="name" placeholder="e.g., Home Assistant" required>
                 </div>
+                <div class="form-group">
+                    <label for="routeHost">Route Host (optional, matches any host when empty):</label>
+                    <input type="text" id="routeHost" placeholder="e.g., photos.node.tail2ca5d.ts.net or *.node.tail2ca5d.ts.net">
+                </div>
                 <div class="form-group">
                     <label for="pathPrefix">Path Prefix:</label>
-                    <input type="text" id="pathPrefix" placeholder="e.g., /ha" required>
+                    <input type="text" id="pathPrefix" placeholder="e.g., /ha, or / for a service on its own host" required>
                 </div>
                 <div class="form-group">
                     <label for="targetUrl">Target URL:</label>
                     <input type="text" id="targetUrl" placeholder="e.g., http://homeassistant:8123" required>
                 </div>
+                <div class="form-group">
+                    <label for="extraTargets">Additional Targets (optional):</label>
+                    <input type="text" id="extraTargets" placeholder="e.g., http://homeassistant-2:8123, http://homeassistant-3:8123">
+                </div>
+                <div class="form-group">
+                    <label for="balancer">Load Balancing:</label>
+                    <select id="balancer">
+                        <option value="ROUND_ROBIN">Round robin</option>
+                        <option value="LEAST_OUTSTANDING">Least outstanding requests</option>
+                        <option value="P2C">Power of two choices</option>
+                        <option value="HASH">Sticky (consistent hash)</option>
+                    </select>
+                </div>
+                <div class="form-group">
+                    <label for="hashKey">Sticky Key (for sticky balancing):</label>
+                    <input type="text" id="hashKey" placeholder="e.g., cookie:session or header:X-User">
+                </div>
+                <div class="form-group">
+                    <label for="healthCheckPath">Health Check Path (optional):</label>
+                    <input type="text" id="healthCheckPath" placeholder="e.g., /health">
+                </div>
                 <div class="form-group">
                     <label for="host">Host Header (optional):</label>
                     <input type="text" id="host" placeholder="e.g., homeassistant.local">
                 </div>
+                <div class="form-group">
+                    <label for="rewriteRules">Rewrite Rules (optional):</label>
+                    <input type="text" id="rewriteRules" placeholder="e.g., defaults, literal:/api/">
+                </div>
+                <div class="form-group">
+                    <label for="fallbackRules">Fallback Rules (optional):</label>
+                    <input type="text" id="fallbackRules" placeholder="e.g., referer, path:/_app/immutable/**, cookie">
+                </div>
+                <div class="form-group">
+                    <label for="poolMaxConnections">Max Upstream Connections (optional):</label>
+                    <input type="number" id="poolMaxConnections" min="1" placeholder="64">
+                </div>
+                <div class="form-group">
+                    <label><input type="checkbox" id="cacheEnabled" style="width: auto;"> Cache static responses</label>
+                </div>
+                <div class="form-group">
+                    <label for="upstreamProtocol">Upstream Protocol:</label>
+                    <select id="upstreamProtocol">
+                        <option value="HTTP11">HTTP/1.1</option>
+                        <option value="H2C">HTTP/2 cleartext (h2c)</option>
+                        <option value="H2">HTTP/2 over TLS (h2)</option>
+                    </select>
+                </div>
                 <div>
                     <button type="submit" class="btn btn-primary">Save Service</button>
                     <button type="button" onclick="hideForm()" class="btn btn-secondary">Cancel</button>
@@ -234,6 +440,7 @@ public class AdminController {
             <ul>
                 <li><strong>Single Funnel URL:</strong> All services accessible through one Tailscale Funnel endpoint</li>
                 <li><strong>Path-based routing:</strong> Each service gets its own path prefix (e.g., /ha, /immich, /pihole)</li>
+                <li><strong>Host-based routing:</strong> Or its own host name with prefix /, so pages need no link rewriting</li>
                 <li><strong>WebSocket support:</strong> Real-time features work seamlessly (Home Assistant, etc.)</li>
                 <li><strong>Dynamic configuration:</strong> Add/remove services without restarting</li>
             </ul>
@@ -244,6 +451,8 @@ public class AdminController {
                 <li><strong>Docker networks:</strong> Use container names if services are in the same Docker network</li>
                 <li><strong>Home Assistant:</strong> May need <code>http_base_url</code> configured to work behind a proxy</li>
                 <li><strong>Host Header:</strong> Some services require specific host headers to function properly</li>
+                <li><strong>Rewrite Rules:</strong> Leave empty for the defaults (<code>src</code>/<code>href</code>, <code>url()</code>, <code>fetch</code>/<code>import</code>); add entries like <code>literal:/api/</code> (Immich) or <code>literal:/auth/, literal:/hacsfiles/</code> (Home Assistant), or use <code>none</code></li>
+                <li><strong>Fallback Rules:</strong> How a service claims root-level requests outside its prefix. Leave empty for <code>referer</code>; add globs like <code>path:/_app/immutable/**</code> (Immich) or <code>path:/hacsfiles/**, path:/sw-*.js</code> (Home Assistant), <code>cookie</code> to follow the last page opened, or use <code>none</code></li>
             </ul>
         </div>
     </div>
@@ -293,10 +502,10 @@ public class AdminController {
                     <tr>
                         <td>${escapeHtml(service.name || '')}</td>
                         <td>
-                            <code>${escapeHtml(service.pathPrefix || '')}</code><br>
-                            <small><a href="${escapeHtml(service.pathPrefix || '')}" target="_blank">🔗 Test Link</a></small>
+                            ${service.routeHost ? '<code>' + escapeHtml(service.routeHost) + '</code>' : ''}<code>${escapeHtml(service.pathPrefix || '')}</code><br>
+                            <small><a href="${escapeHtml(testLink(service))}" target="_blank">🔗 Test Link</a></small>
                         </td>
-                        <td>${escapeHtml(service.targetUrl || '')}</td>
+                        <td>${escapeHtml(service.targetUrl || '')}${service.extraTargets ? '<br><small>+ ' + escapeHtml(service.extraTargets) + '</small>' : ''}</td>
                         <td>${escapeHtml(service.host || '')}</td>
                         <td class="actions">
                             <button onclick="editService(${service.id})" class="btn btn-secondary">Edit</button>
@@ -307,6 +516,11 @@ public class AdminController {
             }
         }
         
+        function testLink(service) {
+            const host = service.routeHost && !service.routeHost.startsWith('*.') ? '//' + service.routeHost : '';
+            return host + (service.pathPrefix || '');
+        }
+        
         function escapeHtml(text) {
             const div = document.createElement('div');
             div.textContent = text;
@@ -326,9 +540,19 @@ public class AdminController {
                 document.getElementById('form-title').textContent = 'Edit Service';
                 document.getElementById('service-id').value = service.id;
                 document.getElementById('name').value = service.name || '';
+                document.getElementById('routeHost').value = service.routeHost || '';
                 document.getElementById('pathPrefix').value = service.pathPrefix || '';
                 document.getElementById('targetUrl').value = service.targetUrl || '';
+                document.getElementById('extraTargets').value = service.extraTargets || '';
+                document.getElementById('balancer').value = service.balancer || 'ROUND_ROBIN';
+                document.getElementById('hashKey').value = service.hashKey || '';
+                document.getElementById('healthCheckPath').value = service.healthCheckPath || '';
                 document.getElementById('host').value = service.host || '';
+                document.getElementById('rewriteRules').value = service.rewriteRules || '';
+                document.getElementById('fallbackRules').value = service.fallbackRules || '';
+                document.getElementById('poolMaxConnections').value = service.poolMaxConnections || '';
+                document.getElementById('upstreamProtocol').value = service.upstreamProtocol || 'HTTP11';
+                document.getElementById('cacheEnabled').checked = !!service.cacheEnabled;
                 document.getElementById('service-form').classList.remove('hidden');
             }
         }
@@ -359,11 +583,25 @@ public class AdminController {
             e.preventDefault();
             
             const serviceId = document.getElementById('service-id').value;
+            // Keep settings that are only editable through the API
+            const existing = services.find(s => String(s.id) === serviceId) || {};
+            const maxConnections = document.getElementById('poolMaxConnections').value;
             const service = {
+                ...existing,
                 name: document.getElementById('name').value,
+                routeHost: document.getElementById('routeHost').value || null,
                 pathPrefix: document.getElementById('pathPrefix').value,
                 targetUrl: document.getElementById('targetUrl').value,
-                host: document.getElementById('host').value
+                extraTargets: document.getElementById('extraTargets').value,
+                balancer: document.getElementById('balancer').value,
+                hashKey: document.getElementById('hashKey').value,
+                healthCheckPath: document.getElementById('healthCheckPath').value,
+                host: document.getElementById('host').value,
+                rewriteRules: document.getElementById('rewriteRules').value,
+                fallbackRules: document.getElementById('fallbackRules').value,
+                poolMaxConnections: maxConnections ? parseInt(maxConnections, 10) : null,
+                upstreamProtocol: document.getElementById('upstreamProtocol').value,
+                cacheEnabled: document.getElementById('cacheEnabled').checked
             };
             
             try {
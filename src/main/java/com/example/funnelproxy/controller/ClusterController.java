@@ -0,0 +1,77 @@
+package com.example.funnelproxy.controller;
+
+import com.example.funnelproxy.cluster.ClusterSnapshot;
+import com.example.funnelproxy.cluster.ClusterStatus;
+import com.example.funnelproxy.cluster.ClusterSync;
+import com.example.funnelproxy.cluster.ClusterVersion;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Cluster status for operators, and the snapshot exchange between nodes. The exchange lives
+ * under {@code /admin} so it never shadows a proxied path, and only answers when cluster mode
+ * is on and the peer presents the shared token.
+ */
+@RestController
+@Order(1)
+public class ClusterController {
+    
+    private final ClusterSync cluster;
+    
+    public ClusterController(ClusterSync cluster) {
+        this.cluster = cluster;
+    }
+    
+    // This node's version and what it last heard from each peer
+    @GetMapping("/admin/api/cluster")
+    public Mono<ClusterStatus> getStatus() {
+        return Mono.fromSupplier(cluster::status);
+    }
+    
+    // Pulled by peers: 304 unless this node holds a newer version than the caller
+    @GetMapping(ClusterSync.SNAPSHOT_PATH)
+    public Mono<ResponseEntity<ClusterSnapshot>> getSnapshot(
+            @RequestHeader(value = ClusterSync.TOKEN_HEADER, required = false) String token,
+            @RequestHeader(value = ClusterSync.VERSION_HEADER, required = false) String since) {
+        checkPeer(token);
+        ClusterVersion callerVersion;
+        try {
+            callerVersion = since != null ? ClusterVersion.parse(since) : ClusterVersion.INITIAL;
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+        }
+        return cluster.snapshotNewerThan(callerVersion)
+                .map(snapshot -> ResponseEntity.ok()
+                        .header(ClusterSync.VERSION_HEADER, snapshot.version().toString())
+                        .body(snapshot))
+                .switchIfEmpty(Mono.fromSupplier(() -> ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .header(ClusterSync.VERSION_HEADER, cluster.version().toString())
+                        .<ClusterSnapshot>build()));
+    }
+    
+    // Pushed by a peer after a change; answers with this node's version afterwards
+    @PutMapping(ClusterSync.SNAPSHOT_PATH)
+    public Mono<ClusterVersion> putSnapshot(
+            @RequestHeader(value = ClusterSync.TOKEN_HEADER, required = false) String token,
+            @RequestBody ClusterSnapshot snapshot) {
+        checkPeer(token);
+        return cluster.apply(snapshot);
+    }
+    
+    private void checkPeer(String token) {
+        if (!cluster.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Cluster mode is off");
+        }
+        if (!cluster.isAuthorized(token)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid cluster token");
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.example.funnelproxy.controller;
 
+import com.example.funnelproxy.logging.AccessRecord;
 import com.example.funnelproxy.service.ProxyService;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -19,18 +21,16 @@ public class ProxyController {
     }
     
     @RequestMapping(value = "/**")
-    public Mono<Void> handle(ServerHttpRequest request, ServerHttpResponse response) {
-        String path = request.getPath().value();
-        
-        System.out.println("🔀 ProxyController handling: " + path);
+    public Mono<Void> handle(ServerWebExchange exchange) {
+        ServerHttpRequest request = exchange.getRequest();
+        ServerHttpResponse response = exchange.getResponse();
         
         // Skip admin, health, and status paths - let other controllers handle them
-        if (path.startsWith("/admin") || path.equals("/health") || path.equals("/status") || path.equals("/")) {
-            System.out.println("⏭️ Skipping proxy for admin/health path: " + path);
+        if (!ProxyService.isProxied(request.getPath().value())) {
             response.setStatusCode(org.springframework.http.HttpStatus.NOT_FOUND);
             return response.setComplete();
         }
         
-        return proxyService.proxy(request, response);
+        return proxyService.proxy(request, response, AccessRecord.of(exchange), proxyService.select(exchange));
     }
 }
\ No newline at end of file
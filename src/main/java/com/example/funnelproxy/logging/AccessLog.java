@@ -0,0 +1,128 @@
+package com.example.funnelproxy.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Structured access log and per-mapping verbose tracing.
+ * <p>
+ * Each proxied exchange produces one {@code key=value} line on the {@code funnel.access}
+ * logger, which {@code logback-spring.xml} routes through a non-blocking asynchronous
+ * appender. Successful exchanges are sampled at {@code funnel.access-log.sample-rate};
+ * server errors and traced mappings are always logged.
+ */
+@Component
+public class AccessLog {
+    private static final Logger ACCESS = LoggerFactory.getLogger("funnel.access");
+    private static final Logger TRACE = LoggerFactory.getLogger("funnel.trace");
+    
+    private final boolean enabled;
+    private final double sampleRate;
+    private final Set<Long> tracedMappings = ConcurrentHashMap.newKeySet();
+    
+    public AccessLog(@Value("${funnel.access-log.enabled:true}") boolean enabled,
+                     @Value("${funnel.access-log.sample-rate:1.0}") double sampleRate) {
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+    }
+    
+    /**
+     * Writes the access line for an HTTP exchange that reached the proxy.
+     */
+    public void log(String method, String path, int status, AccessRecord record) {
+        if (!shouldLog(status, record.isTraced())) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(160)
+                .append("type=http mapping=").append(record.getMapping())
+                .append(" method=").append(method)
+                .append(" path=").append(path)
+                .append(" status=").append(status)
+                .append(" bytes_in=").append(record.getBytesIn())
+                .append(" bytes=").append(record.getBytes())
+                .append(" cache=").append(record.getCache())
+                .append(" upstream_ms=");
+        appendMillis(line, record.getUpstreamNanos());
+        line.append(" total_ms=");
+        appendMillis(line, System.nanoTime() - record.getStartNanos());
+        if (record.getError() != null) {
+            line.append(" error=").append(record.getError().getTag());
+        }
+        ACCESS.info(line.toString());
+    }
+    
+    /**
+     * Writes the access line for a WebSocket session once both directions have closed.
+     */
+    public void logWebSocket(String mapping, String path, long framesIn, long framesOut,
+                             long startNanos, boolean failed, boolean traced) {
+        if (!shouldLog(failed ? 502 : 101, traced)) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(128)
+                .append("type=ws mapping=").append(mapping)
+                .append(" path=").append(path)
+                .append(" status=").append(failed ? "error" : "closed")
+                .append(" frames_in=").append(framesIn)
+                .append(" frames_out=").append(framesOut)
+                .append(" total_ms=");
+        appendMillis(line, System.nanoTime() - startNanos);
+        ACCESS.info(line.toString());
+    }
+    
+    public boolean isTraced(Long mappingId) {
+        return mappingId != null && !tracedMappings.isEmpty() && tracedMappings.contains(mappingId);
+    }
+    
+    public void setTraced(Long mappingId, boolean traced) {
+        if (traced) {
+            tracedMappings.add(mappingId);
+        } else {
+            tracedMappings.remove(mappingId);
+        }
+    }
+    
+    public Set<Long> getTracedMappings() {
+        return Set.copyOf(tracedMappings);
+    }
+    
+    /**
+     * Verbose trace output for a mapping that has tracing switched on. Callers check
+     * {@link AccessRecord#isTraced()} or {@link #isTraced(Long)} first so the arguments are
+     * only built when needed.
+     */
+    public void trace(String format, Object... args) {
+        TRACE.info(format, args);
+    }
+    
+    private boolean shouldLog(int status, boolean traced) {
+        if (!enabled || !ACCESS.isInfoEnabled()) {
+            return false;
+        }
+        return traced || status >= 500 || sampleRate >= 1.0
+                || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+    
+    private static void appendMillis(StringBuilder line, long nanos) {
+        if (nanos < 0) {
+            line.append('-');
+            return;
+        }
+        long micros = nanos / 1000;
+        line.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+}
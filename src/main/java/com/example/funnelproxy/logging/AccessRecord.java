@@ -0,0 +1,116 @@
+package com.example.funnelproxy.logging;
+
+import com.example.funnelproxy.metrics.MappingMeters;
+import com.example.funnelproxy.metrics.UpstreamError;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * Timings and outcome of one proxied exchange, filled in as the request moves through the
+ * proxy and written to the access log when the response completes.
+ * <p>
+ * A record belongs to a single exchange and is only touched by the reactive chain serving
+ * it, so fields are plain rather than atomic.
+ */
+public final class AccessRecord {
+    private static final String ATTRIBUTE = AccessRecord.class.getName();
+    
+    private final long startNanos = System.nanoTime();
+    private String mapping;
+    private MappingMeters meters;
+    private long upstreamStartNanos;
+    private long upstreamNanos = -1;
+    private long bytesIn;
+    private long bytes;
+    private String cache = "-";
+    private UpstreamError error;
+    private boolean traced;
+    
+    /**
+     * Returns the record attached to {@code exchange}, attaching a new one if needed.
+     */
+    public static AccessRecord of(ServerWebExchange exchange) {
+        return (AccessRecord) exchange.getAttributes().computeIfAbsent(ATTRIBUTE, key -> new AccessRecord());
+    }
+    
+    /** Name of the mapping that served the request, or {@code "-"} when none matched. */
+    public void setMapping(String mapping) {
+        this.mapping = mapping;
+    }
+    
+    public String getMapping() {
+        return mapping;
+    }
+    
+    /** Meters of the mapping that served the request, recorded into when the response completes. */
+    public void setMeters(MappingMeters meters) {
+        this.meters = meters;
+    }
+    
+    public MappingMeters getMeters() {
+        return meters;
+    }
+    
+    public void setTraced(boolean traced) {
+        this.traced = traced;
+    }
+    
+    /** Whether verbose tracing is switched on for the mapping serving this request. */
+    public boolean isTraced() {
+        return traced;
+    }
+    
+    public void upstreamStarted() {
+        upstreamStartNanos = System.nanoTime();
+    }
+    
+    /** Marks the arrival of the upstream response headers. */
+    public void upstreamResponded() {
+        if (upstreamStartNanos != 0) {
+            upstreamNanos = System.nanoTime() - upstreamStartNanos;
+        }
+    }
+    
+    /** Upstream latency up to the response headers, or -1 when no upstream call was made. */
+    public long getUpstreamNanos() {
+        return upstreamNanos;
+    }
+    
+    /** Request body bytes received from the client and forwarded upstream. */
+    public void addBytesIn(long count) {
+        bytesIn += count;
+    }
+    
+    public long getBytesIn() {
+        return bytesIn;
+    }
+    
+    public void addBytes(long count) {
+        bytes += count;
+    }
+    
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /** Cache outcome: {@code hit}, {@code revalidated}, {@code coalesced}, {@code miss} or {@code -}. */
+    public void setCache(String cache) {
+        this.cache = cache;
+    }
+    
+    public String getCache() {
+        return cache;
+    }
+    
+    public void setError(UpstreamError error) {
+        this.error = error;
+    }
+    
+    /** Why the upstream exchange failed, or {@code null} if it did not. */
+    public UpstreamError getError() {
+        return error;
+    }
+    
+    public long getStartNanos() {
+        return startNanos;
+    }
+}
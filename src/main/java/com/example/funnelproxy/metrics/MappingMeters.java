@@ -0,0 +1,236 @@
+package com.example.funnelproxy.metrics;
+
+import com.example.funnelproxy.ratelimit.RateLimitScope;
+import com.example.funnelproxy.rewrite.RewriteFallback;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Meters for one mapping, registered once on the mapping's first request rather than when the
+ * route table is compiled, so loading thousands of mappings does not wait on the meter
+ * registry. Recording only touches pre-built meters, with no tag or meter lookups on the
+ * request path.
+ */
+public final class MappingMeters {
+    private static final Duration MIN_EXPECTED = Duration.ofMillis(1);
+    private static final Duration MAX_EXPECTED = Duration.ofSeconds(60);
+    private static final Outcome[] OUTCOMES = Outcome.values();
+    private static final UpstreamError[] ERRORS = UpstreamError.values();
+    private static final RewriteFallback[] FALLBACKS = RewriteFallback.values();
+    private static final RateLimitScope[] SCOPES = RateLimitScope.values();
+    
+    private final Long mappingId;
+    private final String name;
+    private final MeterRegistry registry;
+    private final List<Meter> meters = new ArrayList<>();
+    
+    private final AtomicReferenceArray<Timer> requests = new AtomicReferenceArray<>(OUTCOMES.length);
+    private final AtomicInteger webSocketSessions = new AtomicInteger();
+    // Everything but the request timers, registered together on first use
+    private volatile Registered registered;
+    
+    MappingMeters(Long mappingId, String name, MeterRegistry registry) {
+        this.mappingId = mappingId;
+        this.name = name;
+        this.registry = registry;
+    }
+    
+    public Long getMappingId() {
+        return mappingId;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Records one completed HTTP exchange. {@code upstreamNanos} is negative when the request
+     * was answered without an upstream call.
+     */
+    public void recordExchange(int status, long totalNanos, long upstreamNanos, long receivedBytes, long sentBytes) {
+        Outcome outcome = Outcome.forStatus(status);
+        Timer timer = requests.get(outcome.ordinal());
+        if (timer == null) {
+            timer = requestTimer(outcome);
+        }
+        timer.record(totalNanos, TimeUnit.NANOSECONDS);
+        Registered meters = registered();
+        if (upstreamNanos >= 0) {
+            meters.upstreamLatency.record(upstreamNanos, TimeUnit.NANOSECONDS);
+        }
+        if (receivedBytes > 0) {
+            meters.bytesIn.increment(receivedBytes);
+        }
+        if (sentBytes > 0) {
+            meters.bytesOut.increment(sentBytes);
+        }
+    }
+    
+    public void upstreamError(UpstreamError error) {
+        registered().upstreamErrors[error.ordinal()].increment();
+    }
+    
+    public void retried() {
+        registered().retries.increment();
+    }
+    
+    public void rewriteFallback(RewriteFallback fallback) {
+        registered().rewriteFallbacks[fallback.ordinal()].increment();
+    }
+    
+    public void uploadRejected() {
+        registered().uploadsRejected.increment();
+    }
+    
+    public void rateLimited(RateLimitScope scope) {
+        registered().rateLimited[scope.ordinal()].increment();
+    }
+    
+    public void webSocketOpened() {
+        registered();
+        webSocketSessions.incrementAndGet();
+    }
+    
+    public void webSocketClosed() {
+        webSocketSessions.decrementAndGet();
+    }
+    
+    public void frameIn() {
+        registered().framesIn.increment();
+    }
+    
+    public void frameOut() {
+        registered().framesOut.increment();
+    }
+    
+    synchronized void remove() {
+        for (Meter meter : meters) {
+            registry.remove(meter);
+        }
+    }
+    
+    /**
+     * Request timers are registered per outcome on first use, so each mapping only exports
+     * histograms for the status classes it actually returns.
+     */
+    private synchronized Timer requestTimer(Outcome outcome) {
+        Timer timer = requests.get(outcome.ordinal());
+        if (timer == null) {
+            timer = add(Timer.builder("funnel.proxy.requests")
+                    .description("Total time of proxied requests, until the response completes")
+                    .tag("mapping", name)
+                    .tag("outcome", outcome.name())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_EXPECTED)
+                    .maximumExpectedValue(MAX_EXPECTED)
+                    .register(registry));
+            requests.set(outcome.ordinal(), timer);
+        }
+        return timer;
+    }
+    
+    private Registered registered() {
+        Registered meters = registered;
+        return meters != null ? meters : register();
+    }
+    
+    private synchronized Registered register() {
+        if (registered == null) {
+            registered = new Registered();
+        }
+        return registered;
+    }
+    
+    private Counter bytes(String direction, String description) {
+        return Counter.builder("funnel.proxy.bytes")
+                .description(description)
+                .baseUnit("bytes")
+                .tag("mapping", name)
+                .tag("direction", direction)
+                .register(registry);
+    }
+    
+    private Counter frames(String direction, String description) {
+        return Counter.builder("funnel.proxy.websocket.frames")
+                .description(description)
+                .tag("mapping", name)
+                .tag("direction", direction)
+                .register(registry);
+    }
+    
+    private <M extends Meter> M add(M meter) {
+        meters.add(meter);
+        return meter;
+    }
+    
+    private final class Registered {
+        final Timer upstreamLatency;
+        final Counter bytesIn;
+        final Counter bytesOut;
+        final Counter[] upstreamErrors = new Counter[ERRORS.length];
+        final Counter retries;
+        final Counter[] rewriteFallbacks = new Counter[FALLBACKS.length];
+        final Counter uploadsRejected;
+        final Counter[] rateLimited = new Counter[SCOPES.length];
+        final Counter framesIn;
+        final Counter framesOut;
+        
+        Registered() {
+            this.upstreamLatency = add(Timer.builder("funnel.proxy.upstream.latency")
+                    .description("Time until the upstream response headers arrive")
+                    .tag("mapping", name)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_EXPECTED)
+                    .maximumExpectedValue(MAX_EXPECTED)
+                    .register(registry));
+            this.bytesIn = add(bytes("in", "Request body bytes received from clients"));
+            this.bytesOut = add(bytes("out", "Response body bytes sent to clients"));
+            for (UpstreamError error : ERRORS) {
+                upstreamErrors[error.ordinal()] = add(Counter.builder("funnel.proxy.upstream.errors")
+                        .description("Upstream exchanges that failed, by cause")
+                        .tag("mapping", name)
+                        .tag("type", error.getTag())
+                        .register(registry));
+            }
+            this.retries = add(Counter.builder("funnel.proxy.upstream.retries")
+                    .description("Upstream exchanges retried after a connection failure")
+                    .tag("mapping", name)
+                    .register(registry));
+            for (RewriteFallback fallback : FALLBACKS) {
+                rewriteFallbacks[fallback.ordinal()] = add(Counter.builder("funnel.proxy.rewrite.fallbacks")
+                        .description("Responses streamed without being fully rewritten, by reason")
+                        .tag("mapping", name)
+                        .tag("reason", fallback.getTag())
+                        .register(registry));
+            }
+            this.uploadsRejected = add(Counter.builder("funnel.proxy.upload.rejected")
+                    .description("Requests refused with 413 because the body exceeded the mapping's limit")
+                    .tag("mapping", name)
+                    .register(registry));
+            for (RateLimitScope scope : SCOPES) {
+                rateLimited[scope.ordinal()] = add(Counter.builder("funnel.proxy.ratelimit.rejected")
+                        .description("Requests refused with 429 by a rate limit, by the limit exceeded")
+                        .tag("mapping", name)
+                        .tag("scope", scope.getTag())
+                        .register(registry));
+            }
+            add(Gauge.builder("funnel.proxy.websocket.sessions", webSocketSessions, AtomicInteger::get)
+                    .description("Open WebSocket sessions")
+                    .tag("mapping", name)
+                    .register(registry));
+            this.framesIn = add(frames("in", "WebSocket frames relayed from clients to the backend"));
+            this.framesOut = add(frames("out", "WebSocket frames relayed from the backend to clients"));
+        }
+    }
+}
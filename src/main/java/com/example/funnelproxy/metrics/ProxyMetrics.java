@@ -0,0 +1,62 @@
+package com.example.funnelproxy.metrics;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns one {@link MappingMeters} per mapping, following the route table like the upstream
+ * pools do: meters are created when a mapping is compiled, and removed from the registry
+ * once no published route table references them.
+ */
+@Component
+public class ProxyMetrics {
+    // Requests that matched no mapping
+    private static final String UNMATCHED = "-";
+    
+    private final MeterRegistry registry;
+    private final Map<Long, MappingMeters> meters = new HashMap<>();
+    private final MappingMeters unmatched;
+    
+    public ProxyMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.unmatched = new MappingMeters(null, UNMATCHED, registry);
+    }
+    
+    public synchronized MappingMeters metersFor(ServiceMapping mapping) {
+        MappingMeters existing = meters.get(mapping.getId());
+        if (existing != null && existing.getName().equals(mapping.getName())) {
+            return existing;
+        }
+        if (existing != null) {
+            existing.remove();
+        }
+        MappingMeters created = new MappingMeters(mapping.getId(), mapping.getName(), registry);
+        meters.put(mapping.getId(), created);
+        return created;
+    }
+    
+    public MappingMeters unmatched() {
+        return unmatched;
+    }
+    
+    /**
+     * Removes the meters of every mapping that is not in the newly published route table.
+     */
+    public synchronized void retainOnly(Collection<MappingMeters> active) {
+        Set<MappingMeters> keep = new HashSet<>(active);
+        meters.values().removeIf(mappingMeters -> {
+            if (keep.contains(mappingMeters)) {
+                return false;
+            }
+            mappingMeters.remove();
+            return true;
+        });
+    }
+}
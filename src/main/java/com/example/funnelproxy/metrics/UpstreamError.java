@@ -0,0 +1,64 @@
+package com.example.funnelproxy.metrics;
+
+import com.example.funnelproxy.upstream.CircuitOpenException;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.handler.timeout.TimeoutException;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+
+/**
+ * Why an upstream exchange failed, as reported in metrics and the access log.
+ */
+public enum UpstreamError {
+    DNS("dns"),
+    REFUSED("refused"),
+    TIMEOUT("timeout"),
+    CIRCUIT_OPEN("circuit_open"),
+    OTHER("other");
+    
+    private final String tag;
+    
+    UpstreamError(String tag) {
+        this.tag = tag;
+    }
+    
+    public String getTag() {
+        return tag;
+    }
+    
+    /**
+     * Classifies by exception type along the cause chain, falling back to the messages
+     * Netty uses when the resolver or the connect attempt fails.
+     */
+    public static UpstreamError classify(Throwable error) {
+        if (error instanceof CircuitOpenException) {
+            return CIRCUIT_OPEN;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof UnknownHostException) {
+                return DNS;
+            }
+            // ConnectTimeoutException is a ConnectException, so check timeouts first. Pool acquire
+            // timeouts are java.util.concurrent.TimeoutExceptions, read timeouts Netty ones.
+            if (cause instanceof ConnectTimeoutException
+                    || cause instanceof TimeoutException
+                    || cause instanceof java.util.concurrent.TimeoutException) {
+                return TIMEOUT;
+            }
+            if (cause instanceof ConnectException) {
+                return REFUSED;
+            }
+            String message = cause.getMessage();
+            if (message != null) {
+                if (message.contains("Failed to resolve")) {
+                    return DNS;
+                }
+                if (message.contains("Connection refused")) {
+                    return REFUSED;
+                }
+            }
+        }
+        return OTHER;
+    }
+}
@@ -21,6 +21,104 @@ public class ServiceMapping {
     @Column("host")
     private String host;        // e.g., "homeassistant.home"
     
+    @Column("rewrite_rules")
+    private String rewriteRules; // e.g., "defaults, literal:/api/" (null means defaults)
+    
+    // Upstream connection pool; null fields fall back to the defaults in PoolSettings
+    @Column("pool_max_connections")
+    private Integer poolMaxConnections;
+    
+    @Column("pool_max_pending")
+    private Integer poolMaxPending;
+    
+    @Column("pool_max_idle_ms")
+    private Long poolMaxIdleMs;
+    
+    @Column("pool_max_life_ms")
+    private Long poolMaxLifeMs;
+    
+    @Column("pool_acquire_timeout_ms")
+    private Long poolAcquireTimeoutMs;
+    
+    @Column("upstream_protocol")
+    private String upstreamProtocol; // "HTTP11" (default), "H2C" or "H2"
+    
+    @Column("cache_enabled")
+    private Boolean cacheEnabled; // serve cacheable GET responses from the response cache
+    
+    // Load balancing over targetUrl plus extraTargets
+    @Column("extra_targets")
+    private String extraTargets; // more backends balanced with targetUrl, comma-separated
+    
+    @Column("balancer")
+    private String balancer; // "ROUND_ROBIN" (default), "LEAST_OUTSTANDING", "P2C" or "HASH"
+    
+    @Column("hash_key")
+    private String hashKey; // HASH only: "header:X-User" or "cookie:session"
+    
+    @Column("health_check_path")
+    private String healthCheckPath; // e.g. "/health"; null disables active probes
+    
+    @Column("health_check_interval_ms")
+    private Long healthCheckIntervalMs;
+    
+    // Timeouts, retries and circuit breaker; null fields fall back to the defaults in PoolSettings
+    @Column("connect_timeout_ms")
+    private Long connectTimeoutMs;
+    
+    @Column("response_timeout_ms")
+    private Long responseTimeoutMs; // first byte, and longest silence while reading
+    
+    @Column("total_timeout_ms")
+    private Long totalTimeoutMs; // whole exchange including the body; null means none
+    
+    @Column("max_retries")
+    private Integer maxRetries; // safe requests only, on connection failures
+    
+    @Column("breaker_error_percent")
+    private Integer breakerErrorPercent; // 0 disables the circuit breaker
+    
+    // Response compression; null fields fall back to the defaults in CompressionSettings
+    @Column("compress_enabled")
+    private Boolean compressEnabled; // null means on
+    
+    @Column("compress_types")
+    private String compressTypes; // comma-separated type prefixes, e.g. "text/, application/json"
+    
+    @Column("compress_min_bytes")
+    private Integer compressMinBytes;
+    
+    @Column("rewrite_max_bytes")
+    private Integer rewriteMaxBytes; // Bytes of a page rewritten before the rest streams through as-is; null means 1 MiB
+    
+    @Column("upload_max_bytes")
+    private Long uploadMaxBytes; // Largest request body accepted, null for no limit
+    
+    @Column("upload_rate_bytes")
+    private Long uploadRateBytes; // Request body bytes per second sent upstream, null for no limit
+    
+    @Column("route_host")
+    private String routeHost; // Inbound host, e.g. "photos.node.ts.net" or "*.node.ts.net"; null matches any host
+    
+    @Column("fallback_rules")
+    private String fallbackRules; // e.g., "referer, path:/_app/immutable/**, cookie" (null means referer)
+    
+    // Rate limits, checked per client first, then per route, then for the service
+    @Column("rate_limit")
+    private Integer rateLimit; // Requests per second for the whole service, null for no limit
+    
+    @Column("rate_limit_burst")
+    private Integer rateLimitBurst; // Requests let through at once above that rate, null means one second's worth
+    
+    @Column("client_rate_limit")
+    private Integer clientRateLimit; // Requests per second from one client address, null for no limit
+    
+    @Column("client_rate_limit_burst")
+    private Integer clientRateLimitBurst; // null means one second's worth
+    
+    @Column("route_rate_limits")
+    private String routeRateLimits; // e.g., "/api/search/**=5/10, /api/assets/**=50"; rate[/burst] per path glob
+    
     // Default constructor
     public ServiceMapping() {}
     
@@ -72,4 +170,252 @@ public class ServiceMapping {
     public void setHost(String host) { 
         this.host = host; 
     }
+    
+    public String getRewriteRules() { 
+        return rewriteRules; 
+    }
+    
+    public void setRewriteRules(String rewriteRules) { 
+        this.rewriteRules = rewriteRules; 
+    }
+    
+    public Integer getPoolMaxConnections() { 
+        return poolMaxConnections; 
+    }
+    
+    public void setPoolMaxConnections(Integer poolMaxConnections) { 
+        this.poolMaxConnections = poolMaxConnections; 
+    }
+    
+    public Integer getPoolMaxPending() { 
+        return poolMaxPending; 
+    }
+    
+    public void setPoolMaxPending(Integer poolMaxPending) { 
+        this.poolMaxPending = poolMaxPending; 
+    }
+    
+    public Long getPoolMaxIdleMs() { 
+        return poolMaxIdleMs; 
+    }
+    
+    public void setPoolMaxIdleMs(Long poolMaxIdleMs) { 
+        this.poolMaxIdleMs = poolMaxIdleMs; 
+    }
+    
+    public Long getPoolMaxLifeMs() { 
+        return poolMaxLifeMs; 
+    }
+    
+    public void setPoolMaxLifeMs(Long poolMaxLifeMs) { 
+        this.poolMaxLifeMs = poolMaxLifeMs; 
+    }
+    
+    public Long getPoolAcquireTimeoutMs() { 
+        return poolAcquireTimeoutMs; 
+    }
+    
+    public void setPoolAcquireTimeoutMs(Long poolAcquireTimeoutMs) { 
+        this.poolAcquireTimeoutMs = poolAcquireTimeoutMs; 
+    }
+    
+    public String getUpstreamProtocol() { 
+        return upstreamProtocol; 
+    }
+    
+    public void setUpstreamProtocol(String upstreamProtocol) { 
+        this.upstreamProtocol = upstreamProtocol; 
+    }
+    
+    public Boolean getCacheEnabled() { 
+        return cacheEnabled; 
+    }
+    
+    public void setCacheEnabled(Boolean cacheEnabled) { 
+        this.cacheEnabled = cacheEnabled; 
+    }
+    
+    public String getExtraTargets() { 
+        return extraTargets; 
+    }
+    
+    public void setExtraTargets(String extraTargets) { 
+        this.extraTargets = extraTargets; 
+    }
+    
+    public String getBalancer() { 
+        return balancer; 
+    }
+    
+    public void setBalancer(String balancer) { 
+        this.balancer = balancer; 
+    }
+    
+    public String getHashKey() { 
+        return hashKey; 
+    }
+    
+    public void setHashKey(String hashKey) { 
+        this.hashKey = hashKey; 
+    }
+    
+    public String getHealthCheckPath() { 
+        return healthCheckPath; 
+    }
+    
+    public void setHealthCheckPath(String healthCheckPath) { 
+        this.healthCheckPath = healthCheckPath; 
+    }
+    
+    public Long getHealthCheckIntervalMs() { 
+        return healthCheckIntervalMs; 
+    }
+    
+    public void setHealthCheckIntervalMs(Long healthCheckIntervalMs) { 
+        this.healthCheckIntervalMs = healthCheckIntervalMs; 
+    }
+    
+    public Long getConnectTimeoutMs() { 
+        return connectTimeoutMs; 
+    }
+    
+    public void setConnectTimeoutMs(Long connectTimeoutMs) { 
+        this.connectTimeoutMs = connectTimeoutMs; 
+    }
+    
+    public Long getResponseTimeoutMs() { 
+        return responseTimeoutMs; 
+    }
+    
+    public void setResponseTimeoutMs(Long responseTimeoutMs) { 
+        this.responseTimeoutMs = responseTimeoutMs; 
+    }
+    
+    public Long getTotalTimeoutMs() { 
+        return totalTimeoutMs; 
+    }
+    
+    public void setTotalTimeoutMs(Long totalTimeoutMs) { 
+        this.totalTimeoutMs = totalTimeoutMs; 
+    }
+    
+    public Integer getMaxRetries() { 
+        return maxRetries; 
+    }
+    
+    public void setMaxRetries(Integer maxRetries) { 
+        this.maxRetries = maxRetries; 
+    }
+    
+    public Integer getBreakerErrorPercent() { 
+        return breakerErrorPercent; 
+    }
+    
+    public void setBreakerErrorPercent(Integer breakerErrorPercent) { 
+        this.breakerErrorPercent = breakerErrorPercent; 
+    }
+    
+    public Boolean getCompressEnabled() { 
+        return compressEnabled; 
+    }
+    
+    public void setCompressEnabled(Boolean compressEnabled) { 
+        this.compressEnabled = compressEnabled; 
+    }
+    
+    public String getCompressTypes() { 
+        return compressTypes; 
+    }
+    
+    public void setCompressTypes(String compressTypes) { 
+        this.compressTypes = compressTypes; 
+    }
+    
+    public Integer getCompressMinBytes() { 
+        return compressMinBytes; 
+    }
+    
+    public void setCompressMinBytes(Integer compressMinBytes) { 
+        this.compressMinBytes = compressMinBytes; 
+    }
+    
+    public Integer getRewriteMaxBytes() { 
+        return rewriteMaxBytes; 
+    }
+    
+    public void setRewriteMaxBytes(Integer rewriteMaxBytes) { 
+        this.rewriteMaxBytes = rewriteMaxBytes; 
+    }
+    
+    public Long getUploadMaxBytes() { 
+        return uploadMaxBytes; 
+    }
+    
+    public void setUploadMaxBytes(Long uploadMaxBytes) { 
+        this.uploadMaxBytes = uploadMaxBytes; 
+    }
+    
+    public Long getUploadRateBytes() { 
+        return uploadRateBytes; 
+    }
+    
+    public void setUploadRateBytes(Long uploadRateBytes) { 
+        this.uploadRateBytes = uploadRateBytes; 
+    }
+    
+    public String getRouteHost() { 
+        return routeHost; 
+    }
+    
+    public void setRouteHost(String routeHost) { 
+        this.routeHost = routeHost; 
+    }
+    
+    public String getFallbackRules() { 
+        return fallbackRules; 
+    }
+    
+    public void setFallbackRules(String fallbackRules) { 
+        this.fallbackRules = fallbackRules; 
+    }
+    
+    public Integer getRateLimit() { 
+        return rateLimit; 
+    }
+    
+    public void setRateLimit(Integer rateLimit) { 
+        this.rateLimit = rateLimit; 
+    }
+    
+    public Integer getRateLimitBurst() { 
+        return rateLimitBurst; 
+    }
+    
+    public void setRateLimitBurst(Integer rateLimitBurst) { 
+        this.rateLimitBurst = rateLimitBurst; 
+    }
+    
+    public Integer getClientRateLimit() { 
+        return clientRateLimit; 
+    }
+    
+    public void setClientRateLimit(Integer clientRateLimit) { 
+        this.clientRateLimit = clientRateLimit; 
+    }
+    
+    public Integer getClientRateLimitBurst() { 
+        return clientRateLimitBurst; 
+    }
+    
+    public void setClientRateLimitBurst(Integer clientRateLimitBurst) { 
+        this.clientRateLimitBurst = clientRateLimitBurst; 
+    }
+    
+    public String getRouteRateLimits() { 
+        return routeRateLimits; 
+    }
+    
+    public void setRouteRateLimits(String routeRateLimits) { 
+        this.routeRateLimits = routeRateLimits; 
+    }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.example.funnelproxy.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket refilled at {@code perSecond} requests per second that holds up to
+ * {@code burst} requests, so a client that was quiet may send {@code burst} at once.
+ */
+public record RateLimit(int perSecond, int burst) {
+    
+    /**
+     * @return {@code null} when {@code perSecond} is not set; a missing burst means one
+     * second's worth of requests
+     */
+    static RateLimit of(Integer perSecond, Integer burst) {
+        if (perSecond == null) {
+            return null;
+        }
+        return new RateLimit(perSecond, burst != null ? burst : perSecond);
+    }
+    
+    /**
+     * @throws IllegalArgumentException when a rate or burst is set but not positive
+     */
+    static void validate(Integer perSecond, Integer burst, String what) {
+        if (perSecond != null && perSecond <= 0) {
+            throw new IllegalArgumentException(what + " must be positive requests per second, or empty for no limit");
+        }
+        if (burst != null && burst <= 0) {
+            throw new IllegalArgumentException(what + " burst must be positive, or empty for one second's worth");
+        }
+        if (burst != null && perSecond == null) {
+            throw new IllegalArgumentException(what + " burst needs a rate");
+        }
+    }
+    
+    /** Time it takes to earn one request. */
+    long intervalNanos() {
+        return TimeUnit.SECONDS.toNanos(1) / perSecond;
+    }
+    
+    @Override
+    public String toString() {
+        return perSecond + "/" + burst;
+    }
+}
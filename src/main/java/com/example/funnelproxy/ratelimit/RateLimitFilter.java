@@ -0,0 +1,106 @@
+package com.example.funnelproxy.ratelimit;
+
+import com.example.funnelproxy.logging.AccessLog;
+import com.example.funnelproxy.logging.AccessRecord;
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.routing.Route;
+import com.example.funnelproxy.service.ProxyService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Applies each mapping's rate limits before the request reaches the proxy, answering
+ * {@code 429} with {@code Retry-After} when one is exceeded. Mappings without limits cost a
+ * route lookup, which the proxy then reuses.
+ * <p>
+ * Clients are told apart by their address. Behind other proxies, such as Tailscale Funnel,
+ * that address is the proxy's own; {@code funnel.ratelimit.forwarded-hops} is then the number
+ * of proxies in front whose {@code X-Forwarded-For} entries can be trusted.
+ */
+@Component
+@Order(-50) // After RequestLoggingFilter, so refused requests are logged and metered too
+public class RateLimitFilter implements WebFilter {
+    private static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    
+    private final ProxyService proxyService;
+    private final RateLimiter limiter;
+    private final AccessLog accessLog;
+    private final int forwardedHops;
+    
+    public RateLimitFilter(ProxyService proxyService, RateLimiter limiter, AccessLog accessLog,
+                           @Value("${funnel.ratelimit.forwarded-hops:0}") int forwardedHops) {
+        this.proxyService = proxyService;
+        this.limiter = limiter;
+        this.accessLog = accessLog;
+        this.forwardedHops = forwardedHops;
+    }
+    
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().value();
+        if (!ProxyService.isProxied(path)) {
+            return chain.filter(exchange);
+        }
+        Route route = proxyService.select(exchange).route();
+        if (route == null || !route.getRateLimits().isEnabled()) {
+            return chain.filter(exchange);
+        }
+        
+        ServiceMapping mapping = route.getMapping();
+        RateLimitSettings limits = route.getRateLimits();
+        String client = limits.client() != null ? clientAddress(request) : null;
+        RateLimitRejection rejection = limiter.acquire(mapping.getId(), limits, client,
+                ProxyService.backendPath(path, mapping.getPathPrefix()));
+        if (rejection == null) {
+            return chain.filter(exchange);
+        }
+        
+        AccessRecord record = AccessRecord.of(exchange);
+        record.setMapping(mapping.getName());
+        record.setMeters(route.getMeters());
+        route.getMeters().rateLimited(rejection.scope());
+        if (accessLog.isTraced(mapping.getId())) {
+            accessLog.trace("{} {} refused by the {} rate limit of {} (client: {})", request.getMethod(), path,
+                    rejection.scope().getTag(), mapping.getName(), client);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(rejection.retryAfterSeconds()));
+        return response.setComplete();
+    }
+    
+    /**
+     * The address of the client, skipping {@code forwardedHops} trusted proxies in front:
+     * the last {@code X-Forwarded-For} entry was added by the nearest of them, and so on.
+     */
+    private String clientAddress(ServerHttpRequest request) {
+        if (forwardedHops > 0) {
+            List<String> forwarded = request.getHeaders().get(X_FORWARDED_FOR);
+            if (forwarded != null && !forwarded.isEmpty()) {
+                String[] entries = String.join(",", forwarded).split(",");
+                String entry = entries[Math.max(0, entries.length - forwardedHops)].trim();
+                if (!entry.isEmpty()) {
+                    return entry;
+                }
+            }
+        }
+        InetSocketAddress remote = request.getRemoteAddress();
+        if (remote == null) {
+            return "-";
+        }
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+}
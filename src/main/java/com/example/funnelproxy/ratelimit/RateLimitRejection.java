@@ -0,0 +1,14 @@
+package com.example.funnelproxy.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request refused by a rate limit, with the time until that limit lets one through again.
+ */
+public record RateLimitRejection(RateLimitScope scope, long retryAfterNanos) {
+    
+    /** Whole seconds to announce in {@code Retry-After}, at least one. */
+    public long retryAfterSeconds() {
+        return Math.max(1, (retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.funnelproxy.ratelimit;
+
+/**
+ * Which of a mapping's limits turned a request away.
+ */
+public enum RateLimitScope {
+    // The client's address sent more than the per-client rate
+    CLIENT("client"),
+    // A path glob with its own limit was over its rate
+    ROUTE("route"),
+    // The mapping as a whole was over its rate
+    MAPPING("mapping");
+    
+    private final String tag;
+    
+    RateLimitScope(String tag) {
+        this.tag = tag;
+    }
+    
+    public String getTag() {
+        return tag;
+    }
+}
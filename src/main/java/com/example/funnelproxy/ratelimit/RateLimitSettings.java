@@ -0,0 +1,81 @@
+package com.example.funnelproxy.ratelimit;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.routing.PathGlob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Effective rate limits for one mapping; a {@code null} limit and an empty route list mean
+ * no limit at that level.
+ * <p>
+ * Route limits are stored on a {@link ServiceMapping} as a comma or newline separated spec of
+ * {@code <glob>=<rate>[/<burst>]} entries, for example
+ * {@code /api/search/**=5/10, /api/assets/**=50}. Globs match the path sent to the backend,
+ * below the mapping's prefix; a request counts against the first entry it matches.
+ */
+public record RateLimitSettings(RateLimit mapping, RateLimit client, List<RouteRateLimit> routes) {
+    
+    public static final RateLimitSettings NONE = new RateLimitSettings(null, null, List.of());
+    
+    private static final Pattern SEPARATOR = Pattern.compile("[,\\n]");
+    private static final Pattern ENTRY = Pattern.compile("(\\S+?)\\s*=\\s*(\\d{1,9})(?:\\s*/\\s*(\\d{1,9}))?");
+    
+    /**
+     * @throws IllegalArgumentException when a limit is not positive, or the route limits
+     * cannot be parsed
+     */
+    public static RateLimitSettings of(ServiceMapping mapping) {
+        validateRates(mapping);
+        RateLimit total = RateLimit.of(mapping.getRateLimit(), mapping.getRateLimitBurst());
+        RateLimit client = RateLimit.of(mapping.getClientRateLimit(), mapping.getClientRateLimitBurst());
+        List<RouteRateLimit> routes = parseRoutes(mapping.getRouteRateLimits());
+        if (total == null && client == null && routes.isEmpty()) {
+            return NONE;
+        }
+        return new RateLimitSettings(total, client, routes);
+    }
+    
+    /**
+     * @throws IllegalArgumentException when a limit is set but not positive, or the route
+     * limits cannot be parsed
+     */
+    public static void validate(ServiceMapping mapping) {
+        validateRates(mapping);
+        parseRoutes(mapping.getRouteRateLimits());
+    }
+    
+    private static void validateRates(ServiceMapping mapping) {
+        RateLimit.validate(mapping.getRateLimit(), mapping.getRateLimitBurst(), "Rate limit");
+        RateLimit.validate(mapping.getClientRateLimit(), mapping.getClientRateLimitBurst(), "Client rate limit");
+    }
+    
+    private static List<RouteRateLimit> parseRoutes(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return List.of();
+        }
+        List<RouteRateLimit> routes = new ArrayList<>();
+        for (String part : SEPARATOR.split(spec)) {
+            String entry = part.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            Matcher matcher = ENTRY.matcher(entry);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Route rate limits must look like /path/**=rate or /path/**=rate/burst: " + entry);
+            }
+            Integer perSecond = Integer.valueOf(matcher.group(2));
+            Integer burst = matcher.group(3) != null ? Integer.valueOf(matcher.group(3)) : null;
+            RateLimit.validate(perSecond, burst, "Route rate limit");
+            routes.add(new RouteRateLimit(PathGlob.compile(matcher.group(1)), RateLimit.of(perSecond, burst)));
+        }
+        return List.copyOf(routes);
+    }
+    
+    public boolean isEnabled() {
+        return mapping != null || client != null || !routes.isEmpty();
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.funnelproxy.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * Holds the token buckets of every mapping, client and route limit in one bounded table.
+ * Lookups of an existing bucket take no locks, and the table's hash bins are locked
+ * separately only while a new bucket is added, so requests of different clients never wait
+ * on each other.
+ * <p>
+ * Every {@code funnel.ratelimit.sweep-interval-ms} the buckets that have filled up again are
+ * dropped, since a new one would let exactly as much through. Sweeping in the background
+ * rather than expiring entries on access keeps the request path to a hash lookup and a
+ * compare-and-set. When clients outnumber {@code funnel.ratelimit.max-keys}, the least used
+ * buckets are dropped first. Buckets are keyed by their limit as well, so changing a
+ * mapping's limits starts afresh.
+ */
+@Component
+public class RateLimiter {
+    private final Cache<BucketKey, TokenBucket> buckets;
+    private final Disposable sweeping;
+    
+    public RateLimiter(MeterRegistry registry, @Value("${funnel.ratelimit.max-keys:100000}") long maxKeys,
+                       @Value("${funnel.ratelimit.sweep-interval-ms:10000}") long sweepIntervalMs) {
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .build();
+        Gauge.builder("funnel.ratelimit.buckets", buckets, Cache::estimatedSize)
+                .description("Rate limit buckets currently tracked")
+                .register(registry);
+        Duration interval = Duration.ofMillis(sweepIntervalMs);
+        this.sweeping = Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .subscribe(tick -> sweep());
+    }
+    
+    /**
+     * Takes a token from each limit that applies: the client's first, so a client that is
+     * turned away does not use up the limits it shares with others, then the first matching
+     * route's, then the mapping's. When a later limit refuses, the tokens already taken are
+     * given back, so a refused request uses up none of its limits.
+     *
+     * @param client the client's address; only used when {@code settings} limit clients
+     * @param path   the path sent to the backend, matched against route limits
+     * @return {@code null} when the request may go ahead
+     */
+    public RateLimitRejection acquire(Long mappingId, RateLimitSettings settings, String client, String path) {
+        long now = System.nanoTime();
+        TokenBucket clientBucket = null;
+        if (settings.client() != null) {
+            clientBucket = bucket(new BucketKey(mappingId, RateLimitScope.CLIENT, client, settings.client()), now);
+            long wait = clientBucket.acquire(now);
+            if (wait > 0) {
+                return new RateLimitRejection(RateLimitScope.CLIENT, wait);
+            }
+        }
+        TokenBucket routeBucket = null;
+        for (RouteRateLimit route : settings.routes()) {
+            if (route.path().matches(path)) {
+                BucketKey key = new BucketKey(mappingId, RateLimitScope.ROUTE, route.path().toString(), route.limit());
+                routeBucket = bucket(key, now);
+                long wait = routeBucket.acquire(now);
+                if (wait > 0) {
+                    refund(clientBucket);
+                    return new RateLimitRejection(RateLimitScope.ROUTE, wait);
+                }
+                break;
+            }
+        }
+        if (settings.mapping() != null) {
+            long wait = bucket(new BucketKey(mappingId, RateLimitScope.MAPPING, "", settings.mapping()), now).acquire(now);
+            if (wait > 0) {
+                refund(clientBucket);
+                refund(routeBucket);
+                return new RateLimitRejection(RateLimitScope.MAPPING, wait);
+            }
+        }
+        return null;
+    }
+    
+    private static void refund(TokenBucket taken) {
+        if (taken != null) {
+            taken.refund();
+        }
+    }
+    
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.asMap().values().removeIf(bucket -> bucket.isFull(now));
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        sweeping.dispose();
+    }
+    
+    private TokenBucket bucket(BucketKey key, long now) {
+        TokenBucket bucket = buckets.getIfPresent(key);
+        return bucket != null ? bucket : buckets.get(key, unused -> new TokenBucket(key.limit(), now));
+    }
+    
+    private record BucketKey(Long mappingId, RateLimitScope scope, String key, RateLimit limit) {
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.funnelproxy.ratelimit;
+
+import com.example.funnelproxy.routing.PathGlob;
+
+/**
+ * A limit shared by every request whose backend path matches {@code path}.
+ */
+public record RouteRateLimit(PathGlob path, RateLimit limit) {
+}
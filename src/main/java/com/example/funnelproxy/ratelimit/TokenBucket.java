@@ -0,0 +1,58 @@
+package com.example.funnelproxy.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as a single timestamp (the generic cell rate algorithm): the time at
+ * which the bucket would be full again. Taking a token moves it one interval ahead, and a
+ * request is refused when that would put it more than a whole burst ahead of now. Each
+ * request costs one compare-and-set and never blocks.
+ */
+final class TokenBucket {
+    private final long interval;
+    private final long capacity;
+    // Time at which the bucket is full again, in System.nanoTime() terms
+    private final AtomicLong full;
+    
+    TokenBucket(RateLimit limit, long now) {
+        this.interval = limit.intervalNanos();
+        this.capacity = interval * limit.burst();
+        this.full = new AtomicLong(now);
+    }
+    
+    /**
+     * Takes one token.
+     *
+     * @return 0 when the request may go ahead, otherwise the nanoseconds until a token is free
+     */
+    long acquire(long now) {
+        while (true) {
+            long current = full.get();
+            // A bucket that filled up in the meantime holds no more than a burst
+            long next = (current - now < 0 ? now : current) + interval;
+            long excess = next - now - capacity;
+            if (excess > 0) {
+                return excess;
+            }
+            if (full.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+    
+    /**
+     * Gives back a token taken by {@link #acquire} for a request that did not go ahead after all.
+     * A bucket that has filled up since is left full.
+     */
+    void refund() {
+        full.addAndGet(-interval);
+    }
+    
+    /**
+     * Whether the bucket has filled up again, and so can be forgotten without letting
+     * anything more through.
+     */
+    boolean isFull(long now) {
+        return full.get() - now <= 0;
+    }
+}
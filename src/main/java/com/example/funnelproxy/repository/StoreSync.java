@@ -0,0 +1,83 @@
+package com.example.funnelproxy.repository;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+
+/**
+ * Makes admin writes durable. H2 commits to its file store in the background and never forces
+ * the file to disk on commit, so a write the admin API acknowledged could be lost with power.
+ * Writers wait on {@link #sync()} instead; all writes that arrive within
+ * {@code funnel.store.sync-delay-ms} of the first share one {@code CHECKPOINT SYNC}, so a burst
+ * of changes costs a single fsync.
+ * <p>
+ * On shutdown the database is closed with {@code SHUTDOWN COMPACT}, which leaves a compact
+ * file that the next start reads in one pass.
+ */
+@Component
+public class StoreSync {
+    private static final Logger log = LoggerFactory.getLogger(StoreSync.class);
+    
+    private final DatabaseClient databaseClient;
+    private final Scheduler blocking;
+    private final Duration delay;
+    private final boolean compactOnShutdown;
+    // The batch new writes join, until its checkpoint starts; guarded by this
+    private Mono<Void> pending;
+    
+    public StoreSync(DatabaseClient databaseClient, Scheduler blocking,
+                     @Value("${funnel.store.sync-delay-ms:20}") long delayMs,
+                     @Value("${funnel.store.compact-on-shutdown:true}") boolean compactOnShutdown) {
+        this.databaseClient = databaseClient;
+        this.blocking = blocking;
+        this.delay = Duration.ofMillis(delayMs);
+        this.compactOnShutdown = compactOnShutdown;
+    }
+    
+    /**
+     * Completes once everything committed before the call is on disk.
+     */
+    public Mono<Void> sync() {
+        return Mono.defer(this::join);
+    }
+    
+    private synchronized Mono<Void> join() {
+        if (pending == null) {
+            Mono<Void> batch = Mono.delay(delay, blocking)
+                    .doOnNext(unused -> close())
+                    .then(databaseClient.sql("CHECKPOINT SYNC").then())
+                    .cache();
+            // Runs even if every writer waiting on it goes away
+            batch.subscribe(null, error -> log.error("❌ Error syncing the mapping store: {}", error.getMessage()));
+            pending = batch;
+        }
+        return pending;
+    }
+    
+    /**
+     * Writes committed after the checkpoint starts may miss it, so they start the next batch.
+     */
+    private synchronized void close() {
+        pending = null;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (!compactOnShutdown) {
+            return;
+        }
+        try {
+            databaseClient.sql("SHUTDOWN COMPACT").then().subscribeOn(blocking).block(Duration.ofSeconds(30));
+            log.info("💾 Mapping store compacted and closed");
+        } catch (RuntimeException e) {
+            log.warn("❌ Could not compact the mapping store: {}", e.getMessage());
+        }
+    }
+}
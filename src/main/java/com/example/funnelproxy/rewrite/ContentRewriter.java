@@ -0,0 +1,460 @@
+package com.example.funnelproxy.rewrite;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Single-pass streaming rewriter that inserts a path prefix in front of absolute paths.
+ * <p>
+ * All rule triggers are compiled into one Aho-Corasick automaton over bytes, so the body
+ * is scanned exactly once no matter how many rules are active. The rewriter works on the
+ * {@code Flux<DataBuffer>} chunk by chunk: only the few bytes that could still belong to an
+ * unfinished match are carried over to the next chunk, so memory stays bounded and the first
+ * bytes are emitted before the upstream body completes. Triggers are ASCII, so any
+ * ASCII-compatible charset (including UTF-8) is handled without decoding.
+ * <p>
+ * A bounded rewrite stops after a byte limit, or when the global {@link RewriteBudget} is spent,
+ * and passes the rest of the body through untouched, so a large streamed page costs no more
+ * memory than a small one.
+ */
+public final class ContentRewriter {
+    private static final int ALPHABET = 128;
+    // Whitespace allowed between a trigger and its quote, e.g. {@code url(  "/a")}
+    private static final int MAX_WHITESPACE = 16;
+    private static final int NO_MATCH = -1;
+    private static final int NEED_MORE = -2;
+    
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    
+    private final Trigger[] triggers;
+    private final int[] transitions;
+    private final int[][] outputs;
+    private final int[] depths;
+    
+    private ContentRewriter(Trigger[] triggers, int[] transitions, int[][] outputs, int[] depths) {
+        this.triggers = triggers;
+        this.transitions = transitions;
+        this.outputs = outputs;
+        this.depths = depths;
+    }
+    
+    public static ContentRewriter compile(Collection<RewriteRule> rules) {
+        List<Trigger> triggers = new ArrayList<>();
+        for (RewriteRule rule : rules) {
+            switch (rule.getKind()) {
+                case ATTRIBUTE -> triggers.add(new Trigger(rule.getToken() + "=", rule.getKind()));
+                case CALL, CSS_URL -> triggers.add(new Trigger(rule.getToken() + "(", rule.getKind()));
+                case MODULE -> triggers.add(new Trigger(rule.getToken(), rule.getKind()));
+                case LITERAL -> {
+                    triggers.add(new Trigger("\"" + rule.getToken(), rule.getKind()));
+                    triggers.add(new Trigger("'" + rule.getToken(), rule.getKind()));
+                }
+            }
+        }
+        return build(triggers.toArray(new Trigger[0]));
+    }
+    
+    private static ContentRewriter build(Trigger[] triggers) {
+        // Trie construction
+        List<int[]> gotos = new ArrayList<>();
+        List<List<Integer>> own = new ArrayList<>();
+        List<Integer> depth = new ArrayList<>();
+        gotos.add(newRow());
+        own.add(new ArrayList<>());
+        depth.add(0);
+        for (int t = 0; t < triggers.length; t++) {
+            int state = 0;
+            for (byte b : triggers[t].bytes) {
+                if (gotos.get(state)[b] < 0) {
+                    gotos.get(state)[b] = gotos.size();
+                    gotos.add(newRow());
+                    own.add(new ArrayList<>());
+                    depth.add(depth.get(state) + 1);
+                }
+                state = gotos.get(state)[b];
+            }
+            own.get(state).add(t);
+        }
+        
+        // Failure links, flattened into a dense transition table
+        int count = gotos.size();
+        int[] fail = new int[count];
+        int[] transitions = new int[count * ALPHABET];
+        int[][] outputs = new int[count][];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = gotos.get(0)[c];
+            transitions[c] = Math.max(next, 0);
+            if (next > 0) {
+                queue.add(next);
+            }
+        }
+        outputs[0] = new int[0];
+        List<Integer> order = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            order.add(state);
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = gotos.get(state)[c];
+                if (next > 0) {
+                    fail[next] = transitions[fail[state] * ALPHABET + c];
+                    transitions[state * ALPHABET + c] = next;
+                    queue.add(next);
+                } else {
+                    transitions[state * ALPHABET + c] = transitions[fail[state] * ALPHABET + c];
+                }
+            }
+        }
+        for (int state : order) {
+            List<Integer> matched = new ArrayList<>(own.get(state));
+            for (int t : outputs[fail[state]]) {
+                matched.add(t);
+            }
+            // Longest trigger first so the most specific rule wins
+            matched.sort((a, b) -> Integer.compare(triggers[b].bytes.length, triggers[a].bytes.length));
+            outputs[state] = matched.stream().mapToInt(Integer::intValue).toArray();
+        }
+        int[] depths = depth.stream().mapToInt(Integer::intValue).toArray();
+        return new ContentRewriter(triggers, transitions, outputs, depths);
+    }
+    
+    private static int[] newRow() {
+        int[] row = new int[ALPHABET];
+        Arrays.fill(row, -1);
+        return row;
+    }
+    
+    /**
+     * The configured per-response rewrite limit, or the default when none (or a non-positive one) is set.
+     */
+    public static long maxBytes(Integer configured) {
+        return configured != null && configured > 0 ? configured : DEFAULT_MAX_BYTES;
+    }
+    
+    /**
+     * Rejects a non-positive rewrite limit; {@code null} is fine and means the default.
+     */
+    public static void validateMaxBytes(Integer configured) {
+        if (configured != null && configured <= 0) {
+            throw new IllegalArgumentException("rewriteMaxBytes must be positive");
+        }
+    }
+    
+    /**
+     * Rewrites {@code body} as it streams, inserting {@code pathPrefix} in front of every
+     * absolute path selected by the compiled rules. Input buffers are released as they are consumed.
+     */
+    public Flux<DataBuffer> rewrite(Flux<DataBuffer> body, String pathPrefix, DataBufferFactory bufferFactory) {
+        return rewrite(body, pathPrefix, bufferFactory, Long.MAX_VALUE, null, fallback -> { });
+    }
+    
+    /**
+     * Rewrites the first {@code maxBytes} of {@code body} and streams the rest through unchanged.
+     * Rewriting also stops early when {@code budget} cannot cover the next chunk. Either way no
+     * bytes are lost: whatever was held back for an unfinished match is sent ahead of the
+     * pass-through, and {@code onFallback} is told why once.
+     */
+    public Flux<DataBuffer> rewrite(Flux<DataBuffer> body, String pathPrefix, DataBufferFactory bufferFactory,
+                                    long maxBytes, RewriteBudget budget, Consumer<RewriteFallback> onFallback) {
+        return Flux.defer(() -> {
+            Session session = new Session(pathPrefix.getBytes(StandardCharsets.UTF_8), bufferFactory, maxBytes,
+                    budget, onFallback);
+            return body.map(session::process)
+                    .concatWith(Mono.fromSupplier(session::finish))
+                    .filter(buffer -> {
+                        if (buffer.readableByteCount() > 0) {
+                            return true;
+                        }
+                        DataBufferUtils.release(buffer);
+                        return false;
+                    })
+                    .doFinally(signal -> session.close());
+        });
+    }
+    
+    /**
+     * Rewrites a complete in-memory document. Mainly useful for small bodies and benchmarks.
+     */
+    public byte[] rewrite(byte[] content, String pathPrefix) {
+        Sink sink = new Sink(content.length + 64);
+        new Scanner(pathPrefix.getBytes(StandardCharsets.UTF_8)).scan(content, content.length, true, sink);
+        return sink.toByteArray();
+    }
+    
+    private static boolean isIdentifier(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$';
+    }
+    
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+    
+    private static boolean isQuote(byte b) {
+        return b == '"' || b == '\'';
+    }
+    
+    /**
+     * Returns the index to insert the prefix at, {@link #NO_MATCH}, or {@link #NEED_MORE}
+     * when the decision depends on bytes that have not arrived yet.
+     */
+    private static int matchTail(RewriteRule.Kind kind, byte[] data, int from, int end, boolean last) {
+        int i = from;
+        while (i < end && isWhitespace(data[i])) {
+            if (i - from >= MAX_WHITESPACE) {
+                return NO_MATCH;
+            }
+            i++;
+        }
+        if (i == end) {
+            return last ? NO_MATCH : NEED_MORE;
+        }
+        if (isQuote(data[i])) {
+            i++;
+        } else if (kind != RewriteRule.Kind.CSS_URL) {
+            return NO_MATCH;
+        }
+        if (i == end) {
+            return last ? NO_MATCH : NEED_MORE;
+        }
+        if (data[i] != '/') {
+            return NO_MATCH;
+        }
+        if (i + 1 == end) {
+            return last ? i : NEED_MORE;
+        }
+        // Protocol-relative URLs such as //cdn.example.com point elsewhere
+        return data[i + 1] == '/' ? NO_MATCH : i;
+    }
+    
+    private static final class Trigger {
+        final byte[] bytes;
+        final RewriteRule.Kind kind;
+        
+        Trigger(String token, RewriteRule.Kind kind) {
+            this.bytes = token.getBytes(StandardCharsets.US_ASCII);
+            this.kind = kind;
+        }
+    }
+    
+    /** Output target for the scanner, either a growable array or a {@link DataBuffer}. */
+    private interface Output {
+        void write(byte[] source, int offset, int length);
+    }
+    
+    private static final class Sink implements Output {
+        private byte[] bytes;
+        private int length;
+        
+        Sink(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+        
+        @Override
+        public void write(byte[] source, int offset, int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+    
+    private class Scanner {
+        final byte[] prefix;
+        // Byte preceding data[0], used for word-boundary checks across chunks
+        byte previous = ' ';
+        
+        Scanner(byte[] prefix) {
+            this.prefix = prefix;
+        }
+        
+        /**
+         * Scans {@code data[0, end)} and writes everything that is fully decided to {@code out}.
+         * Returns the index of the first byte that must be carried over to the next chunk.
+         */
+        int scan(byte[] data, int end, boolean last, Output out) {
+            int state = 0;
+            int emitted = 0;
+            int i = 0;
+            while (i < end) {
+                byte b = data[i];
+                state = b >= 0 ? transitions[state * ALPHABET + b] : 0;
+                int resumeAt = -1;
+                for (int t : outputs[state]) {
+                    Trigger trigger = triggers[t];
+                    int start = i - trigger.bytes.length + 1;
+                    int insertAt;
+                    if (trigger.kind == RewriteRule.Kind.LITERAL) {
+                        insertAt = start + 1;
+                    } else {
+                        byte before = start > 0 ? data[start - 1] : previous;
+                        if (isIdentifier(before)) {
+                            continue;
+                        }
+                        insertAt = matchTail(trigger.kind, data, i + 1, end, last);
+                    }
+                    if (insertAt == NEED_MORE) {
+                        return carryFrom(data, emitted, start, out);
+                    }
+                    if (insertAt >= 0) {
+                        out.write(data, emitted, insertAt - emitted);
+                        out.write(prefix, 0, prefix.length);
+                        emitted = insertAt;
+                        resumeAt = insertAt;
+                        break;
+                    }
+                }
+                if (resumeAt >= 0) {
+                    state = 0;
+                    i = resumeAt;
+                } else {
+                    i++;
+                }
+            }
+            if (last) {
+                out.write(data, emitted, end - emitted);
+                return end;
+            }
+            // Hold back a possible partial trigger at the end of the chunk
+            return carryFrom(data, emitted, Math.max(emitted, end - depths[state]), out);
+        }
+        
+        private int carryFrom(byte[] data, int emitted, int carryStart, Output out) {
+            out.write(data, emitted, carryStart - emitted);
+            if (carryStart > 0) {
+                previous = data[carryStart - 1];
+            }
+            return carryStart;
+        }
+    }
+    
+    private final class Session extends Scanner implements Output {
+        private final DataBufferFactory bufferFactory;
+        private final long maxBytes;
+        private final RewriteBudget budget;
+        private final Consumer<RewriteFallback> onFallback;
+        private byte[] carry = new byte[0];
+        // Budget held for the carry, which stays with the session from chunk to chunk
+        private long carryReserved;
+        private DataBuffer target;
+        private long consumed;
+        private boolean passThrough;
+        private boolean closed;
+        
+        Session(byte[] prefix, DataBufferFactory bufferFactory, long maxBytes, RewriteBudget budget,
+                Consumer<RewriteFallback> onFallback) {
+            super(prefix);
+            this.bufferFactory = bufferFactory;
+            this.maxBytes = maxBytes;
+            this.budget = budget;
+            this.onFallback = onFallback;
+        }
+        
+        synchronized DataBuffer process(DataBuffer chunk) {
+            if (passThrough || closed) {
+                return chunk;
+            }
+            int size = chunk.readableByteCount();
+            if (consumed + size > maxBytes) {
+                return fallBack(RewriteFallback.LIMIT, chunk);
+            }
+            // The copied input plus an output buffer of about the same size
+            int length = carry.length + size;
+            long reserved = 2L * length + prefix.length;
+            if (budget != null && !budget.tryReserve(reserved)) {
+                return fallBack(RewriteFallback.BUDGET, chunk);
+            }
+            byte[] data;
+            try {
+                data = Arrays.copyOf(carry, length);
+                chunk.read(data, carry.length, size);
+            } finally {
+                DataBufferUtils.release(chunk);
+            }
+            consumed += size;
+            DataBuffer result = drain(data, false, length + prefix.length);
+            if (budget != null) {
+                // The output keeps its share until it is released; of the input copy only the new carry stays held
+                budget.release(carryReserved + length - carry.length);
+                carryReserved = carry.length;
+            }
+            return result;
+        }
+        
+        synchronized DataBuffer finish() {
+            if (passThrough || closed) {
+                return bufferFactory.allocateBuffer(0);
+            }
+            // The last output takes over the carry's share
+            carryReserved = 0;
+            return drain(carry, true, carry.length);
+        }
+        
+        /**
+         * Gives back the carry's share once the body is done, failed or was cancelled.
+         */
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                releaseCarry();
+            }
+        }
+        
+        private void releaseCarry() {
+            if (budget != null) {
+                budget.release(carryReserved);
+            }
+            carryReserved = 0;
+        }
+        
+        private DataBuffer fallBack(RewriteFallback reason, DataBuffer chunk) {
+            passThrough = true;
+            onFallback.accept(reason);
+            releaseCarry();
+            if (carry.length == 0) {
+                return chunk;
+            }
+            // Bytes held back for a possible match go out first, as they arrived
+            DataBuffer joined = bufferFactory.join(List.of(bufferFactory.wrap(carry), chunk));
+            carry = new byte[0];
+            return joined;
+        }
+        
+        /**
+         * Scans {@code data} into an output buffer of {@code capacity} bytes, which are already
+         * reserved when there is a budget.
+         */
+        private DataBuffer drain(byte[] data, boolean last, int capacity) {
+            target = budget != null ? budget.allocate(bufferFactory, capacity) : bufferFactory.allocateBuffer(capacity);
+            int carryStart = scan(data, data.length, last, this);
+            carry = Arrays.copyOfRange(data, carryStart, data.length);
+            DataBuffer result = target;
+            target = null;
+            return result;
+        }
+        
+        @Override
+        public void write(byte[] source, int offset, int length) {
+            if (length > 0) {
+                target.ensureWritable(length);
+                target.write(source, offset, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.funnelproxy.rewrite;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledHeapByteBuf;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global cap on the buffer bytes held by all rewrites in flight. A rewrite holds the bytes it
+ * keeps back between chunks until the page is done, and each rewritten chunk holds its bytes
+ * until that buffer is released after the write; when the budget is spent, the page streams
+ * through unchanged instead of waiting.
+ */
+@Component
+public class RewriteBudget {
+    private final long maxBytes;
+    private final AtomicLong inUse = new AtomicLong();
+    
+    public RewriteBudget(@Value("${funnel.rewrite.budget-bytes:16777216}") long maxBytes, MeterRegistry registry) {
+        this.maxBytes = maxBytes;
+        Gauge.builder("funnel.proxy.rewrite.buffered", inUse, AtomicLong::get)
+                .description("Buffer bytes held by page rewrites in flight")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+    
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long current = inUse.get();
+            if (current + bytes > maxBytes) {
+                return false;
+            }
+            if (inUse.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+    
+    void release(long bytes) {
+        inUse.addAndGet(-bytes);
+    }
+    
+    /**
+     * A buffer for {@code capacity} bytes the caller has already reserved, which gives them back
+     * when it is released. Only Netty buffers report their release; buffers from any other
+     * factory are left to the garbage collector, so their reservation ends right away.
+     */
+    DataBuffer allocate(DataBufferFactory factory, int capacity) {
+        if (factory instanceof NettyDataBufferFactory netty) {
+            return netty.wrap(new ReservedByteBuf(netty.getByteBufAllocator(), capacity, this));
+        }
+        release(capacity);
+        return factory.allocateBuffer(capacity);
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    public long getInUse() {
+        return inUse.get();
+    }
+    
+    private static final class ReservedByteBuf extends UnpooledHeapByteBuf {
+        private final long reserved;
+        private final RewriteBudget budget;
+        
+        ReservedByteBuf(ByteBufAllocator allocator, int capacity, RewriteBudget budget) {
+            super(allocator, capacity, Integer.MAX_VALUE);
+            this.reserved = capacity;
+            this.budget = budget;
+        }
+        
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            budget.release(reserved);
+        }
+    }
+}
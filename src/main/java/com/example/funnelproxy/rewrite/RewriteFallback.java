@@ -0,0 +1,23 @@
+package com.example.funnelproxy.rewrite;
+
+/**
+ * Why a page was streamed to the client without (fully) rewriting it.
+ */
+public enum RewriteFallback {
+    // The declared Content-Length is over the mapping's limit, so rewriting never started
+    TOO_LARGE("too_large"),
+    // The body grew past the limit while streaming; the rest was passed through
+    LIMIT("limit"),
+    // Concurrent rewrites were holding the whole global budget
+    BUDGET("budget");
+    
+    private final String tag;
+    
+    RewriteFallback(String tag) {
+        this.tag = tag;
+    }
+    
+    public String getTag() {
+        return tag;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.funnelproxy.rewrite;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A single content rewrite rule. Each rule names a trigger token; when the token is
+ * followed by an absolute path, the mapping's path prefix is inserted in front of it.
+ * <p>
+ * Rules are stored on a {@link com.example.funnelproxy.model.ServiceMapping} as a comma or
+ * newline separated spec, for example {@code defaults, literal:/api/}. Supported entries:
+ * <ul>
+ *   <li>{@code defaults} - the built-in rule set, see {@link #defaults()}</li>
+ *   <li>{@code none} - no rewriting at all (only valid on its own)</li>
+ *   <li>{@code attribute:<name>}, {@code call:<name>}, {@code module:<keyword>}</li>
+ *   <li>{@code url} - CSS {@code url()} references</li>
+ *   <li>{@code literal:<path>} - quoted strings starting with {@code <path>}</li>
+ * </ul>
+ * A missing or blank spec means {@code defaults}.
+ */
+public final class RewriteRule {
+    
+    public enum Kind {
+        /** {@code name="/path"} or {@code name='/path'}, e.g. {@code src}, {@code href}. */
+        ATTRIBUTE,
+        /** {@code name("/path")}, e.g. {@code fetch}, {@code import}. */
+        CALL,
+        /** {@code url(/path)} with optional quotes. */
+        CSS_URL,
+        /** {@code from "/path"} or {@code import "/path"} module specifiers. */
+        MODULE,
+        /** A quoted string literal starting with the given path, e.g. {@code "/api/"}. */
+        LITERAL
+    }
+    
+    private static final Pattern SEPARATOR = Pattern.compile("[,\\n]");
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$-]*");
+    private static final Pattern LITERAL_PATH = Pattern.compile("/[!#-&(-~]*");
+    
+    private static final List<RewriteRule> DEFAULTS = List.of(
+            attribute("src"),
+            attribute("href"),
+            call("fetch"),
+            call("import"),
+            cssUrl(),
+            module("from"),
+            module("import"));
+    
+    private final Kind kind;
+    private final String token;
+    
+    private RewriteRule(Kind kind, String token) {
+        this.kind = kind;
+        this.token = token;
+    }
+    
+    public static RewriteRule attribute(String name) {
+        return new RewriteRule(Kind.ATTRIBUTE, name);
+    }
+    
+    public static RewriteRule call(String name) {
+        return new RewriteRule(Kind.CALL, name);
+    }
+    
+    public static RewriteRule cssUrl() {
+        return new RewriteRule(Kind.CSS_URL, "url");
+    }
+    
+    public static RewriteRule module(String keyword) {
+        return new RewriteRule(Kind.MODULE, keyword);
+    }
+    
+    public static RewriteRule literal(String path) {
+        if (!LITERAL_PATH.matcher(path).matches()) {
+            throw new IllegalArgumentException("Literal rewrite paths must start with '/' and contain no quotes or whitespace: " + path);
+        }
+        return new RewriteRule(Kind.LITERAL, path);
+    }
+    
+    /**
+     * Rules covering {@code src}/{@code href} attributes, CSS {@code url()},
+     * {@code fetch}/{@code import} calls and static module specifiers.
+     */
+    public static List<RewriteRule> defaults() {
+        return DEFAULTS;
+    }
+    
+    /**
+     * Parses a rule spec as stored on a mapping.
+     *
+     * @throws IllegalArgumentException if an entry is not recognised
+     */
+    public static List<RewriteRule> parseAll(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return DEFAULTS;
+        }
+        Set<RewriteRule> rules = new LinkedHashSet<>();
+        boolean none = false;
+        for (String part : SEPARATOR.split(spec)) {
+            String entry = part.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (entry.equals("none")) {
+                none = true;
+            } else if (entry.equals("defaults")) {
+                rules.addAll(DEFAULTS);
+            } else {
+                rules.add(parse(entry));
+            }
+        }
+        if (none && !rules.isEmpty()) {
+            throw new IllegalArgumentException("'none' cannot be combined with other rewrite rules");
+        }
+        return List.copyOf(rules);
+    }
+    
+    private static RewriteRule parse(String entry) {
+        if (entry.equals("url")) {
+            return cssUrl();
+        }
+        int colon = entry.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Unknown rewrite rule: " + entry);
+        }
+        String type = entry.substring(0, colon).trim();
+        String token = entry.substring(colon + 1).trim();
+        if (type.equals("literal")) {
+            return literal(token);
+        }
+        if (!NAME.matcher(token).matches()) {
+            throw new IllegalArgumentException("Invalid name in rewrite rule: " + entry);
+        }
+        return switch (type) {
+            case "attribute" -> attribute(token);
+            case "call" -> call(token);
+            case "module" -> module(token);
+            default -> throw new IllegalArgumentException("Unknown rewrite rule type: " + type);
+        };
+    }
+    
+    /**
+     * Canonical spec for a rule list, usable as a cache key for compiled rewriters.
+     */
+    public static String format(List<RewriteRule> rules) {
+        if (rules.isEmpty()) {
+            return "none";
+        }
+        List<String> entries = new ArrayList<>(rules.size());
+        for (RewriteRule rule : rules) {
+            entries.add(rule.toString());
+        }
+        return String.join(",", entries);
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    public String getToken() {
+        return token;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof RewriteRule rule)) {
+            return false;
+        }
+        return kind == rule.kind && token.equals(rule.token);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, token);
+    }
+    
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case ATTRIBUTE -> "attribute:" + token;
+            case CALL -> "call:" + token;
+            case CSS_URL -> "url";
+            case MODULE -> "module:" + token;
+            case LITERAL -> "literal:" + token;
+        };
+    }
+}
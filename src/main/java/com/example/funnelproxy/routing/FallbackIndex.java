@@ -0,0 +1,199 @@
+package com.example.funnelproxy.routing;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * All mappings' {@link FallbackRules} compiled into one index when the route table is built,
+ * for requests that match no path prefix.
+ * <ul>
+ *   <li>{@code referer} prefixes share one {@link PrefixRouter}, walked over the path part of
+ *   the {@code Referer} in place.</li>
+ *   <li>{@code path:} globs sit in a character trie keyed by their literal prefix, so only
+ *   globs whose prefix the path starts with are tried, longest prefix first.</li>
+ *   <li>{@code cookie} mappings are looked up by the id the sticky cookie carries.</li>
+ * </ul>
+ * Glob decisions depend on the path alone and are kept in a bounded cache, so repeat misses
+ * for the same asset skip the glob matching. Only mappings without a route host take part;
+ * a service on its own host has no requests to claim from others.
+ */
+public final class FallbackIndex {
+    public static final FallbackIndex EMPTY = compile(List.of(), 0);
+    
+    /**
+     * Remembers the mapping of the last page a client opened, for {@code cookie} rules.
+     */
+    public static final String COOKIE = "funnel_route";
+    
+    private final PrefixRouter<Route> referers;
+    private final Node globs;
+    private final Map<String, Route> sticky;
+    private final Cache<String, Optional<Route>> decisions;
+    
+    private FallbackIndex(PrefixRouter<Route> referers, Node globs, Map<String, Route> sticky,
+                          Cache<String, Optional<Route>> decisions) {
+        this.referers = referers;
+        this.globs = globs;
+        this.sticky = sticky;
+        this.decisions = decisions;
+    }
+    
+    /**
+     * @param cacheSize glob decisions to keep; 0 turns the cache off
+     */
+    public static FallbackIndex compile(List<Route> routes, long cacheSize) {
+        List<Route> byReferer = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        Map<String, Route> sticky = new HashMap<>();
+        for (Route route : routes) {
+            if (route.getMapping().getRouteHost() != null) {
+                continue;
+            }
+            FallbackRules rules = route.getFallback();
+            if (rules.referer()) {
+                byReferer.add(route);
+            }
+            for (PathGlob glob : rules.paths()) {
+                entries.add(new Entry(glob, route));
+            }
+            if (rules.cookie() && route.getMapping().getId() != null) {
+                sticky.put(route.getMapping().getId().toString(), route);
+            }
+        }
+        // Within one literal prefix, try the longer, more specific pattern first
+        entries.sort(Comparator.comparingInt((Entry entry) -> entry.glob.toString().length()).reversed());
+        Builder root = new Builder();
+        for (Entry entry : entries) {
+            String prefix = entry.glob.literalPrefix();
+            Builder node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            node.entries.add(entry);
+        }
+        Cache<String, Optional<Route>> decisions = entries.isEmpty() || cacheSize <= 0 ? null
+                : Caffeine.newBuilder().maximumSize(cacheSize).build();
+        return new FallbackIndex(PrefixRouter.compile(byReferer, route -> route.getMapping().getPathPrefix()),
+                root.build(null), Map.copyOf(sticky), decisions);
+    }
+    
+    /**
+     * The mapping whose path prefix the {@code Referer}'s path lies under, or {@code null}.
+     */
+    public Route byReferer(String referer) {
+        if (referer == null) {
+            return null;
+        }
+        // Skip scheme and authority: https://host:port/path?query
+        int scheme = referer.indexOf("://");
+        int start = scheme < 0 ? 0 : referer.indexOf('/', scheme + 3);
+        if (start < 0) {
+            return null;
+        }
+        int end = start;
+        while (end < referer.length() && referer.charAt(end) != '?' && referer.charAt(end) != '#') {
+            end++;
+        }
+        return referers.match(referer, start, end);
+    }
+    
+    /**
+     * The mapping with the most specific {@code path:} glob matching {@code path}, or {@code null}.
+     */
+    public Route byPath(String path) {
+        if (decisions == null) {
+            return globs.keys.length == 0 ? null : matchGlobs(path);
+        }
+        return decisions.get(path, key -> Optional.ofNullable(matchGlobs(key))).orElse(null);
+    }
+    
+    /**
+     * The {@code cookie} mapping a sticky cookie value names, or {@code null}.
+     */
+    public Route bySticky(String cookie) {
+        return cookie != null ? sticky.get(cookie) : null;
+    }
+    
+    private Route matchGlobs(String path) {
+        Node node = globs;
+        Node deepest = node.entries.length > 0 ? node : null;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.child(path.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.entries.length > 0) {
+                deepest = node;
+            }
+        }
+        for (Node candidate = deepest; candidate != null; candidate = candidate.shorter) {
+            for (Entry entry : candidate.entries) {
+                if (entry.glob.matches(path)) {
+                    return entry.route;
+                }
+            }
+        }
+        return null;
+    }
+    
+    private record Entry(PathGlob glob, Route route) {
+    }
+    
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+        
+        final Entry[] entries;
+        // The nearest shorter literal prefix that has globs
+        final Node shorter;
+        // Set once while compiling, before the index is published
+        char[] keys = NO_KEYS;
+        Node[] children;
+        
+        Node(Entry[] entries, Node shorter) {
+            this.entries = entries.length == 0 ? NO_ENTRIES : entries;
+            this.shorter = shorter;
+        }
+        
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+    }
+    
+    private static final class Builder {
+        private final TreeMap<Character, Builder> children = new TreeMap<>();
+        private final List<Entry> entries = new ArrayList<>();
+        
+        Builder child(char c) {
+            return children.computeIfAbsent(c, key -> new Builder());
+        }
+        
+        Node build(Node shorter) {
+            Node node = new Node(entries.toArray(new Entry[0]), shorter);
+            Node nearest = entries.isEmpty() ? shorter : node;
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build(nearest);
+                i++;
+            }
+            if (keys.length > 0) {
+                node.keys = keys;
+            }
+            node.children = nodes;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.funnelproxy.routing;
+
+import com.example.funnelproxy.model.ServiceMapping;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * How a mapping claims requests that match no path prefix, such as an app's root-level assets.
+ * <p>
+ * Rules are stored on a {@link ServiceMapping} as a comma or newline separated spec, for
+ * example {@code referer, path:/_app/immutable/**, cookie}. Supported entries:
+ * <ul>
+ *   <li>{@code referer} - the request's {@code Referer} lies under the mapping's path prefix</li>
+ *   <li>{@code path:<glob>} - the request path matches the glob; {@code *} and {@code ?} stay
+ *   within a segment, {@code **} crosses segments</li>
+ *   <li>{@code cookie} - the client last opened a page of this mapping, as remembered in a
+ *   cookie the proxy sets on page loads</li>
+ *   <li>{@code none} - never claim other requests (only valid on its own)</li>
+ * </ul>
+ * A missing or blank spec means {@code referer}.
+ */
+public record FallbackRules(boolean referer, List<PathGlob> paths, boolean cookie) {
+    
+    public static final FallbackRules DEFAULTS = new FallbackRules(true, List.of(), false);
+    public static final FallbackRules NONE = new FallbackRules(false, List.of(), false);
+    
+    private static final Pattern SEPARATOR = Pattern.compile("[,\\n]");
+    
+    /**
+     * Parses a rule spec as stored on a mapping.
+     *
+     * @throws IllegalArgumentException if an entry is not recognised
+     */
+    public static FallbackRules parse(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return DEFAULTS;
+        }
+        boolean referer = false;
+        boolean cookie = false;
+        boolean none = false;
+        Set<PathGlob> paths = new LinkedHashSet<>();
+        for (String part : SEPARATOR.split(spec)) {
+            String entry = part.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (entry.equals("none")) {
+                none = true;
+            } else if (entry.equals("referer")) {
+                referer = true;
+            } else if (entry.equals("cookie")) {
+                cookie = true;
+            } else if (entry.startsWith("path:")) {
+                paths.add(PathGlob.compile(entry.substring("path:".length()).trim()));
+            } else {
+                throw new IllegalArgumentException("Unknown fallback rule: " + entry);
+            }
+        }
+        if (none && (referer || cookie || !paths.isEmpty())) {
+            throw new IllegalArgumentException("'none' cannot be combined with other fallback rules");
+        }
+        return new FallbackRules(referer, List.copyOf(paths), cookie);
+    }
+    
+    public boolean isEmpty() {
+        return !referer && !cookie && paths.isEmpty();
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.funnelproxy.routing;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+
+/**
+ * Compiled router over inbound host names, such as
+ * {@link com.example.funnelproxy.model.ServiceMapping#getRouteHost()}.
+ * <p>
+ * Exact names live in an open-addressing hash table and wildcards ({@code *.example.com}) in a
+ * character trie over the reversed suffix, so a lookup hashes the host once and walks it once,
+ * regardless of how many hosts exist. A wildcard matches subdomains at any depth but not the
+ * bare domain. Candidates are tried from the most specific down: the exact name, then the
+ * longest matching wildcard, then shorter ones, then the value for any host. Names are compared
+ * case-insensitively and a port or trailing dot in the {@code Host} header is ignored, all in
+ * place, so lookups do not allocate.
+ */
+public final class HostRouter<T> {
+    private static final String WILDCARD = "*.";
+    
+    private final String[] names;
+    private final T[] exact;
+    private final int mask;
+    private final Node<T> wildcards;
+    private final T any;
+    
+    private HostRouter(String[] names, T[] exact, Node<T> wildcards, T any) {
+        this.names = names;
+        this.exact = exact;
+        this.mask = names.length - 1;
+        this.wildcards = wildcards;
+        this.any = any;
+    }
+    
+    /**
+     * @param byHost values keyed by {@link #normalize normalized} host pattern
+     * @param any    the value tried last, for every host; may be null
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> HostRouter<T> compile(Map<String, T> byHost, T any) {
+        int capacity = Integer.highestOneBit(Math.max(1, byHost.size()) * 2 - 1) << 1;
+        String[] names = new String[capacity];
+        T[] exact = (T[]) new Object[capacity];
+        Builder<T> root = new Builder<>();
+        for (Map.Entry<String, T> entry : byHost.entrySet()) {
+            String host = entry.getKey();
+            if (host.startsWith(WILDCARD)) {
+                // Keep the dot, so the match ends on a label boundary
+                Builder<T> node = root;
+                for (int i = host.length() - 1; i > 0; i--) {
+                    node = node.child(host.charAt(i));
+                }
+                node.value = entry.getValue();
+            } else {
+                int slot = hash(host, host.length()) & (capacity - 1);
+                while (names[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                names[slot] = host;
+                exact[slot] = entry.getValue();
+            }
+        }
+        return new HostRouter<>(names, exact, root.build(null), any);
+    }
+    
+    /**
+     * Lowercases a host pattern and drops a trailing dot; blank means any host and becomes null.
+     */
+    public static String normalize(String pattern) {
+        if (pattern == null || pattern.isBlank()) {
+            return null;
+        }
+        String host = pattern.trim().toLowerCase(Locale.ROOT);
+        return host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    }
+    
+    /**
+     * @throws IllegalArgumentException when a normalized pattern is neither a host name nor
+     *                                  {@code *.} followed by one
+     */
+    public static void validate(String pattern) {
+        if (pattern == null) {
+            return;
+        }
+        String name = pattern.startsWith(WILDCARD) ? pattern.substring(WILDCARD.length()) : pattern;
+        if (name.isEmpty() || name.startsWith(".") || name.contains("..")) {
+            throw new IllegalArgumentException("Invalid route host: " + pattern);
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-' && c != '.') {
+                throw new IllegalArgumentException("Invalid route host: " + pattern
+                        + " (expected a name like photos.example.com or *.example.com, without a port)");
+            }
+        }
+    }
+    
+    /**
+     * Applies {@code lookup} to each value whose pattern matches {@code host}, most specific
+     * first, and returns its first non-null result. {@code host} is a {@code Host} header value
+     * and may be null, which only matches the value for any host.
+     */
+    public <A, R> R match(String host, A argument, BiFunction<T, A, R> lookup) {
+        if (host != null) {
+            int end = hostEnd(host);
+            T value = exact(host, end);
+            if (value != null) {
+                R result = lookup.apply(value, argument);
+                if (result != null) {
+                    return result;
+                }
+            }
+            for (Node<T> node = wildcard(host, end); node != null; node = node.shorter) {
+                R result = lookup.apply(node.value, argument);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return any != null ? lookup.apply(any, argument) : null;
+    }
+    
+    private T exact(String host, int end) {
+        int slot = hash(host, end) & mask;
+        for (String name = names[slot]; name != null; name = names[slot]) {
+            if (name.length() == end && name.regionMatches(true, 0, host, 0, end)) {
+                return exact[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+    
+    /**
+     * The longest wildcard matching the host, or null. The matched suffix starts with a dot that
+     * must not be the host's first character, so {@code *.example.com} skips {@code example.com}.
+     */
+    private Node<T> wildcard(String host, int end) {
+        Node<T> node = wildcards;
+        Node<T> best = null;
+        for (int i = end - 1; i > 0 && node != null; i--) {
+            char c = host.charAt(i);
+            node = node.child(lower(c));
+            if (node != null && node.value != null && c == '.') {
+                best = node;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Where the name ends in a {@code Host} value: before a port, and before a trailing dot.
+     * A bracketed IPv6 literal keeps its brackets.
+     */
+    private static int hostEnd(String host) {
+        int end = host.length();
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            return close < 0 ? end : close + 1;
+        }
+        int colon = host.indexOf(':');
+        if (colon >= 0) {
+            end = colon;
+        }
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+        return end;
+    }
+    
+    private static int hash(String host, int end) {
+        int hash = 0;
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + lower(host.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+    
+    private static final class Node<T> {
+        private static final char[] NO_KEYS = new char[0];
+        
+        final T value;
+        // The next shorter wildcard that also matches wherever this one does
+        final Node<T> shorter;
+        // Set once while compiling, before the router is published
+        char[] keys = NO_KEYS;
+        Node<T>[] children;
+        
+        Node(T value, Node<T> shorter) {
+            this.value = value;
+            this.shorter = shorter;
+        }
+        
+        Node<T> child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+    }
+    
+    private static final class Builder<T> {
+        private final TreeMap<Character, Builder<T>> children = new TreeMap<>();
+        private T value;
+        
+        Builder<T> child(char c) {
+            return children.computeIfAbsent(c, key -> new Builder<>());
+        }
+        
+        @SuppressWarnings("unchecked")
+        Node<T> build(Node<T> shorter) {
+            Node<T> node = new Node<>(value, shorter);
+            Node<T> nearest = value != null ? node : shorter;
+            char[] keys = new char[children.size()];
+            Node<T>[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder<T>> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build(nearest);
+                i++;
+            }
+            if (keys.length > 0) {
+                node.keys = keys;
+            }
+            node.children = nodes;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.funnelproxy.routing;
+
+import java.util.regex.Pattern;
+
+/**
+ * A request path pattern from a {@code path:} fallback rule. {@code *} matches any characters
+ * but {@code /}, {@code ?} one character but {@code /}, and {@code **} anything, so
+ * {@code /_app/immutable/**} covers every file below that directory and {@code /sw-*.js} only
+ * root-level service workers. Matching does not allocate.
+ */
+public final class PathGlob {
+    private static final Pattern VALID = Pattern.compile("/[!#-&(-~]*");
+    
+    private final String pattern;
+    // Everything before the first wildcard, matched as a plain prefix
+    private final int literalLength;
+    
+    private PathGlob(String pattern) {
+        this.pattern = pattern;
+        int wildcard = 0;
+        while (wildcard < pattern.length() && pattern.charAt(wildcard) != '*' && pattern.charAt(wildcard) != '?') {
+            wildcard++;
+        }
+        this.literalLength = wildcard;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the pattern is not an absolute path
+     */
+    public static PathGlob compile(String pattern) {
+        if (!VALID.matcher(pattern).matches()) {
+            throw new IllegalArgumentException("Path globs must start with '/' and contain no quotes or whitespace: " + pattern);
+        }
+        return new PathGlob(pattern);
+    }
+    
+    public boolean matches(String path) {
+        return path.regionMatches(0, pattern, 0, literalLength) && matches(literalLength, path, literalLength);
+    }
+    
+    String literalPrefix() {
+        return pattern.substring(0, literalLength);
+    }
+    
+    private boolean matches(int p, String path, int s) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                boolean crossSegments = p + 1 < pattern.length() && pattern.charAt(p + 1) == '*';
+                int rest = crossSegments ? p + 2 : p + 1;
+                // Try the shortest run first; a run of * stops at the next '/'
+                for (int end = s; end <= path.length(); end++) {
+                    if (matches(rest, path, end)) {
+                        return true;
+                    }
+                    if (end < path.length() && !crossSegments && path.charAt(end) == '/') {
+                        return false;
+                    }
+                }
+                return false;
+            }
+            if (s == path.length() || (c == '?' ? path.charAt(s) == '/' : path.charAt(s) != c)) {
+                return false;
+            }
+            p++;
+            s++;
+        }
+        return s == path.length();
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PathGlob glob && pattern.equals(glob.pattern);
+    }
+    
+    @Override
+    public int hashCode() {
+        return pattern.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.funnelproxy.routing;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Compiled longest-prefix router over path prefixes, such as
+ * {@link com.example.funnelproxy.model.ServiceMapping#getPathPrefix()}.
+ * <p>
+ * Prefixes are stored in a character trie whose children are kept in sorted arrays,
+ * so a lookup walks the request path once and costs O(path length) regardless of how
+ * many mappings exist. Matches are segment-aware: {@code /ha} matches {@code /ha} and
+ * {@code /ha/lovelace} but not {@code /hacsfiles/...}. Lookups do not allocate.
+ */
+public final class PrefixRouter<T> {
+    private final Node<T> root;
+    
+    private PrefixRouter(Node<T> root) {
+        this.root = root;
+    }
+    
+    public static <T> PrefixRouter<T> compile(Collection<T> values, Function<T, String> prefixOf) {
+        Builder<T> root = new Builder<>();
+        for (T value : values) {
+            String prefix = prefixOf.apply(value);
+            if (prefix == null || prefix.isEmpty()) {
+                continue;
+            }
+            Builder<T> node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            node.value = value;
+        }
+        return new PrefixRouter<>(root.build());
+    }
+    
+    /**
+     * Returns the value with the longest prefix matching {@code path} on a segment
+     * boundary, or {@code null} if none matches.
+     */
+    public T match(String path) {
+        return match(path, 0, path.length());
+    }
+    
+    /**
+     * {@link #match(String)} over the path {@code text} holds between {@code start} and
+     * {@code end}, such as the path part of a URL, without cutting it out first.
+     */
+    public T match(String text, int start, int end) {
+        Node<T> node = root;
+        T best = null;
+        for (int i = start; node != null; i++) {
+            if (node.value != null && (i == end || node.open || text.charAt(i) == '/')) {
+                best = node.value;
+            }
+            if (i == end) {
+                break;
+            }
+            node = node.child(text.charAt(i));
+        }
+        return best;
+    }
+    
+    private static final class Node<T> {
+        private static final char[] NO_KEYS = new char[0];
+        
+        final char[] keys;
+        final Node<T>[] children;
+        final T value;
+        // A prefix ending in '/' matches anything below it, not just whole segments
+        final boolean open;
+        
+        Node(char[] keys, Node<T>[] children, T value, boolean open) {
+            this.keys = keys.length == 0 ? NO_KEYS : keys;
+            this.children = children;
+            this.value = value;
+            this.open = open;
+        }
+        
+        Node<T> child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+    }
+    
+    private static final class Builder<T> {
+        private final TreeMap<Character, Builder<T>> children = new TreeMap<>();
+        private T value;
+        
+        Builder<T> child(char c) {
+            return children.computeIfAbsent(c, key -> new Builder<>());
+        }
+        
+        Node<T> build() {
+            return build(false);
+        }
+        
+        @SuppressWarnings("unchecked")
+        private Node<T> build(boolean open) {
+            char[] keys = new char[children.size()];
+            Node<T>[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder<T>> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build(entry.getKey() == '/');
+                i++;
+            }
+            return new Node<>(keys, nodes, value, open);
+        }
+    }
+}
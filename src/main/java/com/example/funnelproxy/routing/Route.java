@@ -0,0 +1,82 @@
+package com.example.funnelproxy.routing;
+
+import com.example.funnelproxy.compress.CompressionSettings;
+import com.example.funnelproxy.metrics.MappingMeters;
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.ratelimit.RateLimitSettings;
+import com.example.funnelproxy.rewrite.ContentRewriter;
+import com.example.funnelproxy.upload.UploadSettings;
+import com.example.funnelproxy.upstream.LoadBalancer;
+import com.example.funnelproxy.upstream.UpstreamPool;
+
+/**
+ * A {@link ServiceMapping} together with everything compiled from it when the
+ * route table is built, so the request path never has to derive it again.
+ */
+public final class Route {
+    private final ServiceMapping mapping;
+    private final ContentRewriter rewriter;
+    private final UpstreamPool upstream;
+    private final LoadBalancer balancer;
+    private final MappingMeters meters;
+    private final CompressionSettings compression;
+    private final long rewriteMaxBytes;
+    private final UploadSettings upload;
+    private final FallbackRules fallback;
+    private final RateLimitSettings rateLimits;
+    
+    public Route(ServiceMapping mapping, ContentRewriter rewriter, UpstreamPool upstream, LoadBalancer balancer,
+                 MappingMeters meters, CompressionSettings compression, long rewriteMaxBytes, UploadSettings upload,
+                 FallbackRules fallback, RateLimitSettings rateLimits) {
+        this.mapping = mapping;
+        this.rewriter = rewriter;
+        this.upstream = upstream;
+        this.balancer = balancer;
+        this.meters = meters;
+        this.compression = compression;
+        this.rewriteMaxBytes = rewriteMaxBytes;
+        this.upload = upload;
+        this.fallback = fallback;
+        this.rateLimits = rateLimits;
+    }
+    
+    public ServiceMapping getMapping() {
+        return mapping;
+    }
+    
+    public ContentRewriter getRewriter() {
+        return rewriter;
+    }
+    
+    public UpstreamPool getUpstream() {
+        return upstream;
+    }
+    
+    public LoadBalancer getBalancer() {
+        return balancer;
+    }
+    
+    public MappingMeters getMeters() {
+        return meters;
+    }
+    
+    public CompressionSettings getCompression() {
+        return compression;
+    }
+    
+    public long getRewriteMaxBytes() {
+        return rewriteMaxBytes;
+    }
+    
+    public UploadSettings getUpload() {
+        return upload;
+    }
+    
+    public FallbackRules getFallback() {
+        return fallback;
+    }
+    
+    public RateLimitSettings getRateLimits() {
+        return rateLimits;
+    }
+}
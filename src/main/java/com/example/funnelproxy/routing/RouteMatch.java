@@ -0,0 +1,15 @@
+package com.example.funnelproxy.routing;
+
+/**
+ * The route selected for a request, and the rule that selected it: {@code prefix} for a
+ * {@link RouteTable#match match}, or the {@link FallbackIndex fallback} rule that claimed it.
+ * {@code route} is {@code null} when no mapping claims the request.
+ */
+public record RouteMatch(Route route, String rule) {
+    
+    public static final RouteMatch NONE = new RouteMatch(null, "none");
+    
+    public boolean isPrefix() {
+        return "prefix".equals(rule);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.funnelproxy.routing;
+
+import com.example.funnelproxy.compress.CompressionSettings;
+import com.example.funnelproxy.metrics.ProxyMetrics;
+import com.example.funnelproxy.model.ServiceMapping;
+import com.example.funnelproxy.ratelimit.RateLimitSettings;
+import com.example.funnelproxy.repository.ServiceMappingRepo;
+import com.example.funnelproxy.rewrite.ContentRewriter;
+import com.example.funnelproxy.rewrite.RewriteRule;
+import com.example.funnelproxy.upload.UploadSettings;
+import com.example.funnelproxy.upstream.LoadBalancers;
+import com.example.funnelproxy.upstream.UpstreamClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link RouteTable}. The table is rebuilt from the repository only
+ * when mappings are changed through the admin API and then published with a single
+ * atomic swap; readers on the request path just dereference the current snapshot.
+ */
+@Service
+public class RouteRegistry {
+    private static final Logger log = LoggerFactory.getLogger(RouteRegistry.class);
+    
+    private final ServiceMappingRepo repo;
+    private final UpstreamClients upstreams;
+    private final LoadBalancers balancers;
+    private final ProxyMetrics metrics;
+    private final Scheduler blocking;
+    private final long fallbackCacheSize;
+    private final AtomicReference<RouteTable> current = new AtomicReference<>(RouteTable.EMPTY);
+    private final AtomicLong versions = new AtomicLong();
+    // Compiled rewriters keyed by normalized rule spec; unchanged mappings reuse them across reloads
+    private final Map<String, ContentRewriter> rewriters = new ConcurrentHashMap<>();
+    
+    public RouteRegistry(ServiceMappingRepo repo, UpstreamClients upstreams, LoadBalancers balancers, ProxyMetrics metrics,
+                         Scheduler blocking, @Value("${funnel.fallback.cache-size:10000}") long fallbackCacheSize) {
+        this.repo = repo;
+        this.upstreams = upstreams;
+        this.balancers = balancers;
+        this.metrics = metrics;
+        this.blocking = blocking;
+        this.fallbackCacheSize = fallbackCacheSize;
+    }
+    
+    public RouteTable current() {
+        return current.get();
+    }
+    
+    /**
+     * Reloads all mappings from the repository and publishes a new snapshot.
+     * Concurrent reloads are resolved by version so an older read never replaces a newer one.
+     */
+    public Mono<RouteTable> reload() {
+        return Mono.defer(() -> {
+            long version = versions.incrementAndGet();
+            return repo.findAll()
+                    .subscribeOn(blocking)
+                    .collectList()
+                    .map(mappings -> compileAndPublish(version, mappings));
+        });
+    }
+    
+    /**
+     * Compiling swaps pools, balancers and meters in their shared owners, so it runs together
+     * with the publish, one reload at a time. A read that finishes after a newer table was
+     * published is dropped before it can replace anything that table still uses.
+     */
+    private synchronized RouteTable compileAndPublish(long version, List<ServiceMapping> mappings) {
+        RouteTable existing = current.get();
+        if (version < existing.getVersion()) {
+            return existing;
+        }
+        return publish(new RouteTable(version, compile(mappings), fallbackCacheSize));
+    }
+    
+    private List<Route> compile(List<ServiceMapping> mappings) {
+        List<Route> routes = new ArrayList<>(mappings.size());
+        Map<String, ContentRewriter> used = new ConcurrentHashMap<>();
+        for (ServiceMapping mapping : mappings) {
+            List<RewriteRule> rules;
+            try {
+                rules = RewriteRule.parseAll(mapping.getRewriteRules());
+            } catch (IllegalArgumentException e) {
+                log.warn("❌ Invalid rewrite rules for {}, using defaults: {}", mapping.getName(), e.getMessage());
+                rules = RewriteRule.defaults();
+            }
+            String key = RewriteRule.format(rules);
+            List<RewriteRule> compiled = rules;
+            ContentRewriter rewriter = rewriters.computeIfAbsent(key, unused -> ContentRewriter.compile(compiled));
+            used.put(key, rewriter);
+            FallbackRules fallback;
+            try {
+                fallback = FallbackRules.parse(mapping.getFallbackRules());
+            } catch (IllegalArgumentException e) {
+                log.warn("❌ Invalid fallback rules for {}, using defaults: {}", mapping.getName(), e.getMessage());
+                fallback = FallbackRules.DEFAULTS;
+            }
+            RateLimitSettings rateLimits;
+            try {
+                rateLimits = RateLimitSettings.of(mapping);
+            } catch (IllegalArgumentException e) {
+                log.warn("❌ Invalid rate limits for {}, not limiting: {}", mapping.getName(), e.getMessage());
+                rateLimits = RateLimitSettings.NONE;
+            }
+            routes.add(new Route(mapping, rewriter, upstreams.poolFor(mapping), balancers.balancerFor(mapping),
+                    metrics.metersFor(mapping), CompressionSettings.of(mapping),
+                    ContentRewriter.maxBytes(mapping.getRewriteMaxBytes()), UploadSettings.of(mapping),
+                    fallback, rateLimits));
+        }
+        rewriters.keySet().retainAll(used.keySet());
+        return routes;
+    }
+    
+    private RouteTable publish(RouteTable table) {
+        current.set(table);
+        upstreams.retainOnly(table.getRoutes().stream().map(Route::getUpstream).toList());
+        balancers.retainOnly(table.getRoutes().stream().map(Route::getBalancer).toList());
+        metrics.retainOnly(table.getRoutes().stream().map(Route::getMeters).toList());
+        log.info("🔄 Route table v{} loaded with {} mappings", table.getVersion(), table.getMappings().size());
+        return table;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.funnelproxy.routing;
+
+import com.example.funnelproxy.model.ServiceMapping;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, versioned snapshot of all service mappings.
+ * A new instance is built whenever the mappings change and swapped in atomically
+ * by {@link RouteRegistry}, so request handling never has to query the database.
+ */
+public final class RouteTable {
+    public static final RouteTable EMPTY = new RouteTable(0, List.of(), 0);
+    
+    private final long version;
+    private final List<Route> routes;
+    private final List<ServiceMapping> mappings;
+    private final HostRouter<PrefixRouter<Route>> router;
+    private final FallbackIndex fallback;
+    
+    /**
+     * @param fallbackCacheSize glob decisions the {@link #fallback() fallback index} keeps
+     */
+    public RouteTable(long version, List<Route> routes, long fallbackCacheSize) {
+        this.version = version;
+        this.routes = List.copyOf(routes);
+        this.mappings = this.routes.stream().map(Route::getMapping).toList();
+        this.router = compileRouter(this.routes);
+        this.fallback = FallbackIndex.compile(this.routes, fallbackCacheSize);
+    }
+    
+    /**
+     * One path router per route host, plus one for the routes that serve any host.
+     */
+    private static HostRouter<PrefixRouter<Route>> compileRouter(List<Route> routes) {
+        Map<String, List<Route>> byHost = new HashMap<>();
+        List<Route> anyHost = new ArrayList<>();
+        for (Route route : routes) {
+            String host = HostRouter.normalize(route.getMapping().getRouteHost());
+            if (host == null) {
+                anyHost.add(route);
+            } else {
+                byHost.computeIfAbsent(host, key -> new ArrayList<>()).add(route);
+            }
+        }
+        Map<String, PrefixRouter<Route>> routers = new HashMap<>();
+        byHost.forEach((host, hostRoutes) -> routers.put(host, pathRouter(hostRoutes)));
+        return HostRouter.compile(routers, anyHost.isEmpty() ? null : pathRouter(anyHost));
+    }
+    
+    private static PrefixRouter<Route> pathRouter(List<Route> routes) {
+        return PrefixRouter.compile(routes, route -> route.getMapping().getPathPrefix());
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public List<Route> getRoutes() {
+        return routes;
+    }
+    
+    public List<ServiceMapping> getMappings() {
+        return mappings;
+    }
+    
+    /**
+     * Longest segment-aware prefix match for {@code path} among the routes of the most specific
+     * route host matching {@code host} that has one, or {@code null}. {@code host} is the
+     * request's {@code Host} header; without one only routes for any host match.
+     */
+    public Route match(String host, String path) {
+        return router.match(host, path, PrefixRouter::match);
+    }
+    
+    /**
+     * Where a request that {@link #match matches} no route may still belong.
+     */
+    public FallbackIndex fallback() {
+        return fallback;
+    }
+    
+    public boolean isEmpty() {
+        return routes.isEmpty();
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.funnelproxy.service;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.util.AsciiString;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import reactor.netty.http.server.HttpServerRequest;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Header rules applied when a request or response passes through the proxy.
+ * <p>
+ * Request headers are copied from the client's Netty headers straight into the upstream Netty
+ * request, without building an intermediate map. Names are matched case-insensitively in place,
+ * so no lowercased copy of a name is ever made.
+ */
+public final class ProxyHeaders {
+    private static final AsciiString X_FORWARDED_FOR = AsciiString.cached("x-forwarded-for");
+    private static final AsciiString X_FORWARDED_PROTO = AsciiString.cached("x-forwarded-proto");
+    private static final AsciiString X_FORWARDED_HOST = AsciiString.cached("x-forwarded-host");
+    private static final AsciiString FORWARDED = AsciiString.cached("forwarded");
+    private static final AsciiString HTTP2_EXTENSION_PREFIX = AsciiString.cached("x-http2-");
+    
+    /**
+     * Hop-by-hop names bucketed by length, so most names are rejected on their length alone.
+     */
+    private static final AsciiString[][] HOP_BY_HOP = byLength(
+            HttpHeaderNames.CONNECTION,
+            AsciiString.cached("keep-alive"),
+            HttpHeaderNames.PROXY_AUTHENTICATE,
+            HttpHeaderNames.PROXY_AUTHORIZATION,
+            AsciiString.cached("proxy-connection"),
+            HttpHeaderNames.TE,
+            AsciiString.cached("trailers"),
+            HttpHeaderNames.TRANSFER_ENCODING,
+            HttpHeaderNames.UPGRADE);
+    
+    /**
+     * Headers Reactor Netty puts on every request it creates; the client's own take their place.
+     */
+    private static final AsciiString[] CLIENT_DEFAULTS = {
+            HttpHeaderNames.HOST, HttpHeaderNames.ACCEPT, HttpHeaderNames.USER_AGENT };
+    
+    private ProxyHeaders() {
+    }
+    
+    /**
+     * Headers that only apply to a single connection and must not be forwarded.
+     */
+    public static boolean isHopByHop(CharSequence headerName) {
+        int length = headerName.length();
+        if (length >= HOP_BY_HOP.length) {
+            return false;
+        }
+        AsciiString[] candidates = HOP_BY_HOP[length];
+        if (candidates == null) {
+            return false;
+        }
+        for (AsciiString candidate : candidates) {
+            if (candidate.contentEqualsIgnoreCase(headerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Whether a {@code Connection} header value names this header, which makes it hop-by-hop
+     * for that message. {@code connection} may be null.
+     */
+    public static boolean isConnectionListed(CharSequence headerName, CharSequence connection) {
+        if (connection == null) {
+            return false;
+        }
+        int length = connection.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && connection.charAt(end) != ',') {
+                end++;
+            }
+            int tokenStart = start;
+            int tokenEnd = end;
+            while (tokenStart < tokenEnd && isWhitespace(connection.charAt(tokenStart))) {
+                tokenStart++;
+            }
+            while (tokenEnd > tokenStart && isWhitespace(connection.charAt(tokenEnd - 1))) {
+                tokenEnd--;
+            }
+            if (tokenEnd - tokenStart == headerName.length()
+                    && AsciiString.regionMatches(connection, true, tokenStart, headerName, 0, headerName.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+    
+    /**
+     * Copies the client's end-to-end headers into the upstream request. Hop-by-hop headers and
+     * the ones the client's {@code Connection} header lists are left out, and so is
+     * {@code Expect}: the proxy answers {@code 100-continue} itself once it has an upstream
+     * connection to stream the body to, and sends the body without waiting.
+     */
+    public static void copyRequest(io.netty.handler.codec.http.HttpHeaders from, io.netty.handler.codec.http.HttpHeaders to) {
+        for (AsciiString name : CLIENT_DEFAULTS) {
+            if (from.contains(name)) {
+                to.remove(name);
+            }
+        }
+        CharSequence connection = connectionTokens(from);
+        Iterator<Map.Entry<CharSequence, CharSequence>> entries = from.iteratorCharSequence();
+        while (entries.hasNext()) {
+            Map.Entry<CharSequence, CharSequence> entry = entries.next();
+            CharSequence name = entry.getKey();
+            if (!isHopByHop(name) && !isConnectionListed(name, connection) && !isExpect(name)
+                    && !isHttp2Extension(name)) {
+                to.add(name, entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * The client's headers as Netty headers. On Reactor Netty these are the request's own; any
+     * other request is copied once.
+     */
+    public static io.netty.handler.codec.http.HttpHeaders nettyHeaders(ServerHttpRequest request) {
+        Object nativeRequest = ServerHttpRequestDecorator.getNativeRequest(request);
+        if (nativeRequest instanceof HttpServerRequest serverRequest) {
+            return serverRequest.requestHeaders();
+        }
+        io.netty.handler.codec.http.HttpHeaders headers = new DefaultHttpHeaders();
+        request.getHeaders().forEach(headers::add);
+        return headers;
+    }
+    
+    /**
+     * Adds this hop to {@code X-Forwarded-For} and {@code Forwarded}, and fills in
+     * {@code X-Forwarded-Proto} and {@code X-Forwarded-Host} unless an earlier proxy already did.
+     * Values from earlier proxies are kept in front of ours.
+     */
+    public static void addForwarded(io.netty.handler.codec.http.HttpHeaders from, io.netty.handler.codec.http.HttpHeaders to,
+                                    InetSocketAddress client, String proto) {
+        String host = from.get(HttpHeaderNames.HOST);
+        String node = client != null ? clientAddress(client) : null;
+        
+        if (node != null) {
+            to.set(X_FORWARDED_FOR, append(joined(from, X_FORWARDED_FOR), node));
+        }
+        if (!from.contains(X_FORWARDED_PROTO)) {
+            to.set(X_FORWARDED_PROTO, proto);
+        }
+        if (host != null && !from.contains(X_FORWARDED_HOST)) {
+            to.set(X_FORWARDED_HOST, host);
+        }
+        
+        // RFC 7239: for=192.0.2.60;host="example.com";proto=https, IPv6 quoted and bracketed
+        StringBuilder element = new StringBuilder(64);
+        if (node != null) {
+            element.append("for=");
+            if (node.indexOf(':') >= 0) {
+                element.append("\"[").append(node).append("]\"");
+            } else {
+                element.append(node);
+            }
+            element.append(';');
+        }
+        if (host != null) {
+            element.append("host=\"").append(host).append("\";");
+        }
+        element.append("proto=").append(proto);
+        to.set(FORWARDED, append(joined(from, FORWARDED), element));
+    }
+    
+    /**
+     * Points a redirect to an absolute path back through the mapping's prefix.
+     */
+    public static String rewriteLocation(String location, String pathPrefix) {
+        if (location.startsWith("/") && !location.startsWith(pathPrefix)) {
+            return pathPrefix + location;
+        }
+        return location;
+    }
+    
+    /**
+     * Copies the backend's end-to-end headers into the client response, pointing redirects back
+     * through the mapping's prefix.
+     */
+    public static void copyResponse(HttpHeaders from, HttpHeaders to, String pathPrefix) {
+        String connection = connectionTokens(from);
+        from.forEach((name, values) -> {
+            if (isHopByHop(name) || isConnectionListed(name, connection) || isHttp2Extension(name)) {
+                return;
+            }
+            if (name.equalsIgnoreCase(HttpHeaders.LOCATION)) {
+                for (String location : values) {
+                    to.add(name, rewriteLocation(location, pathPrefix));
+                }
+            } else {
+                to.addAll(name, values);
+            }
+        });
+    }
+    
+    /**
+     * The client's WebSocket handshake headers to send on the backend handshake, such as
+     * {@code Cookie}, {@code Authorization} and {@code Origin}. The WebSocket client writes
+     * its own {@code Host} and {@code Sec-WebSocket-*} headers, and the subprotocol is
+     * negotiated separately.
+     */
+    public static HttpHeaders copyHandshake(HttpHeaders from) {
+        String connection = connectionTokens(from);
+        HttpHeaders to = new HttpHeaders();
+        from.forEach((name, values) -> {
+            if (isHopByHop(name) || isConnectionListed(name, connection) || isHttp2Extension(name)
+                    || name.equalsIgnoreCase(HttpHeaders.HOST) || name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)
+                    || name.regionMatches(true, 0, "Sec-WebSocket-", 0, "Sec-WebSocket-".length())) {
+                return;
+            }
+            to.addAll(name, values);
+        });
+        return to;
+    }
+    
+    private static CharSequence connectionTokens(io.netty.handler.codec.http.HttpHeaders headers) {
+        return joined(headers, HttpHeaderNames.CONNECTION);
+    }
+    
+    private static String connectionTokens(HttpHeaders headers) {
+        List<String> values = headers.get(HttpHeaders.CONNECTION);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.size() == 1 ? values.get(0) : String.join(",", values);
+    }
+    
+    /**
+     * All values of a header as one comma-separated list, or null. A single value, the usual
+     * case, is returned as is.
+     */
+    private static CharSequence joined(io.netty.handler.codec.http.HttpHeaders headers, AsciiString name) {
+        Iterator<? extends CharSequence> values = headers.valueCharSequenceIterator(name);
+        if (!values.hasNext()) {
+            return null;
+        }
+        CharSequence first = values.next();
+        if (!values.hasNext()) {
+            return first;
+        }
+        StringBuilder all = new StringBuilder(first);
+        while (values.hasNext()) {
+            all.append(", ").append(values.next());
+        }
+        return all;
+    }
+    
+    private static CharSequence append(CharSequence list, CharSequence element) {
+        if (list == null || list.length() == 0) {
+            return element;
+        }
+        return new StringBuilder(list.length() + 2 + element.length()).append(list).append(", ").append(element);
+    }
+    
+    private static String clientAddress(InetSocketAddress client) {
+        InetAddress address = client.getAddress();
+        return address != null ? address.getHostAddress() : client.getHostString();
+    }
+    
+    /**
+     * The {@code x-http2-*} headers Netty adds when it converts an HTTP/2 stream to HTTP/1.1
+     * messages, such as {@code x-http2-stream-id}. They describe this hop's stream only.
+     */
+    private static boolean isHttp2Extension(CharSequence name) {
+        return name.length() > HTTP2_EXTENSION_PREFIX.length()
+                && AsciiString.regionMatches(name, true, 0, HTTP2_EXTENSION_PREFIX, 0, HTTP2_EXTENSION_PREFIX.length());
+    }
+    
+    private static boolean isExpect(CharSequence name) {
+        return name.length() == 6 && HttpHeaderNames.EXPECT.contentEqualsIgnoreCase(name);
+    }
+    
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+    
+    private static AsciiString[][] byLength(AsciiString... names) {
+        int longest = 0;
+        for (AsciiString name : names) {
+            longest = Math.max(longest, name.length());
+        }
+        AsciiString[][] table = new AsciiString[longest + 1][];
+        for (AsciiString name : names) {
+            AsciiString[] bucket = table[name.length()];
+            AsciiString[] grown = bucket == null ? new AsciiString[1] : Arrays.copyOf(bucket, bucket.length + 1);
+            grown[grown.length - 1] = name;
+            table[name.length()] = grown;
+        }
+        return table;
+    }
+}
@@ -1,298 +1,613 @@
 package com.example.funnelproxy.service;
 
+import com.example.funnelproxy.cache.CacheKey;
+import com.example.funnelproxy.cache.RequestCoalescer;
+import com.example.funnelproxy.cache.ResponseCache;
+import com.example.funnelproxy.compress.ContentCoding;
+import com.example.funnelproxy.compress.ResponseCompressor;
+import com.example.funnelproxy.logging.AccessLog;
+import com.example.funnelproxy.logging.AccessRecord;
+import com.example.funnelproxy.metrics.MappingMeters;
+import com.example.funnelproxy.metrics.ProxyMetrics;
+import com.example.funnelproxy.metrics.UpstreamError;
 import com.example.funnelproxy.model.ServiceMapping;
-import com.example.funnelproxy.repository.ServiceMappingRepo;
+import com.example.funnelproxy.rewrite.RewriteBudget;
+import com.example.funnelproxy.rewrite.RewriteFallback;
+import com.example.funnelproxy.routing.FallbackIndex;
+import com.example.funnelproxy.routing.Route;
+import com.example.funnelproxy.routing.RouteMatch;
+import com.example.funnelproxy.routing.RouteRegistry;
+import com.example.funnelproxy.routing.RouteTable;
+import com.example.funnelproxy.upload.UploadStream;
+import com.example.funnelproxy.upload.UploadStreams;
+import com.example.funnelproxy.upload.UploadTooLargeException;
+import com.example.funnelproxy.upstream.CircuitBreaker;
+import com.example.funnelproxy.upstream.CircuitOpenException;
+import com.example.funnelproxy.upstream.LoadBalancer;
+import com.example.funnelproxy.upstream.UpstreamPool;
+import com.example.funnelproxy.upstream.UpstreamTarget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpCookie;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.client.reactive.ClientHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.netty.http.client.HttpClientRequest;
+import reactor.netty.http.client.PrematureCloseException;
+import reactor.util.retry.Retry;
 
-import java.nio.charset.StandardCharsets;
+import java.net.ConnectException;
+import java.time.Duration;
 import java.util.List;
+import java.util.Set;
 
 @Service
 public class ProxyService {
-    private final ServiceMappingRepo repo;
-    private final WebClient webClient;
+    private static final Logger log = LoggerFactory.getLogger(ProxyService.class);
+    private static final String MATCH_ATTRIBUTE = RouteMatch.class.getName();
+    // Pages, stylesheets and scripts are where absolute links, url() and module specifiers live
+    private static final List<MediaType> REWRITABLE_TYPES = List.of(
+            MediaType.TEXT_HTML,
+            MediaType.valueOf("text/css"),
+            MediaType.valueOf("text/javascript"),
+            MediaType.valueOf("application/javascript"),
+            MediaType.valueOf("application/x-javascript"),
+            MediaType.valueOf("application/ecmascript"));
+    private static final Set<String> REWRITABLE_DESTINATIONS = Set.of("document", "iframe", "script", "style",
+            "worker", "sharedworker", "serviceworker");
     
-    public ProxyService(ServiceMappingRepo repo) {
-        this.repo = repo;
-        this.webClient = WebClient.builder().build();
+    private final RouteRegistry routes;
+    private final ResponseCache responseCache;
+    private final RequestCoalescer coalescer;
+    private final AccessLog accessLog;
+    private final ProxyMetrics metrics;
+    private final ResponseCompressor compressor;
+    private final RewriteBudget rewriteBudget;
+    private final UploadStreams uploads;
+    private final boolean forwardedHeaders;
+    
+    public ProxyService(RouteRegistry routes, ResponseCache responseCache, RequestCoalescer coalescer, AccessLog accessLog,
+                        ProxyMetrics metrics, ResponseCompressor compressor, RewriteBudget rewriteBudget, UploadStreams uploads,
+                        @Value("${funnel.forwarded-headers.enabled:true}") boolean forwardedHeaders) {
+        this.routes = routes;
+        this.responseCache = responseCache;
+        this.coalescer = coalescer;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.compressor = compressor;
+        this.rewriteBudget = rewriteBudget;
+        this.uploads = uploads;
+        this.forwardedHeaders = forwardedHeaders;
+    }
+    
+    /**
+     * Whether requests to {@code path} are proxied at all; admin, health and status paths are
+     * left to the other controllers.
+     */
+    public static boolean isProxied(String path) {
+        return !(path.startsWith("/admin") || path.equals("/health") || path.equals("/status") || path.equals("/"));
+    }
+    
+    /**
+     * The path sent to the backend: the request path without the mapping's prefix, or the
+     * whole path for requests claimed by a fallback rule.
+     */
+    public static String backendPath(String path, String pathPrefix) {
+        // Only remove the prefix if the path actually starts with it
+        if (path.startsWith(pathPrefix + "/") || path.equals(pathPrefix)) {
+            // Normal case: /ha/something -> /something or /ha -> /
+            String stripped = path.substring(pathPrefix.length());
+            return stripped.isEmpty() || !stripped.startsWith("/") ? "/" + stripped : stripped;
+        }
+        // Context-based routing: /auth/authorize, /hacsfiles/iconset.js -> keep as-is
+        return path;
+    }
+    
+    /**
+     * Selects the route for the exchange's request once; filters ahead of the proxy and the
+     * proxy itself share the result.
+     */
+    public RouteMatch select(ServerWebExchange exchange) {
+        RouteMatch match = exchange.getAttribute(MATCH_ATTRIBUTE);
+        if (match == null) {
+            match = select(exchange.getRequest());
+            exchange.getAttributes().put(MATCH_ATTRIBUTE, match);
+        }
+        return match;
     }
     
-    public Mono<Void> proxy(ServerHttpRequest request, ServerHttpResponse response) {
+    private RouteMatch select(ServerHttpRequest request) {
         String path = request.getPath().value();
-        String referer = request.getHeaders().getFirst("Referer");
+        String host = request.getHeaders().getFirst(HttpHeaders.HOST);
         
-        System.out.println("🔍 ProxyService: Looking for service matching path: " + path);
-        System.out.println("🔍 Referer header: " + referer);
+        RouteTable table = routes.current();
         
-        return repo.findAll()
-                .collectList()
-                .flatMap(services -> {
-                    // First, try exact prefix matching
-                    ServiceMapping exactMatch = services.stream()
-                            .filter(s -> path.startsWith(s.getPathPrefix()))
-                            .max((a, b) -> Integer.compare(a.getPathPrefix().length(), b.getPathPrefix().length()))
-                            .orElse(null);
-                    
-                    // If no exact match, check if this might be a root-level request from a proxied app
-                    ServiceMapping contextMatch = null;
-                    if (exactMatch == null) {
-                        // First, try referer-based matching
-                        if (referer != null) {
-                            contextMatch = services.stream()
-                                    .filter(s -> referer.contains(s.getPathPrefix()))
-                                    .findFirst()
-                                    .orElse(null);
-                            
-                            if (contextMatch != null) {
-                                System.out.println("🎯 Context-based match: " + path + " likely belongs to " + contextMatch.getName() + " based on referer");
-                            }
-                        }
-                        
-                        // If still no match, try pattern-based matching for known asset patterns
-                        if (contextMatch == null) {
-                            if (path.startsWith("/_app/immutable/") || path.startsWith("/api/")) {
-                                // These are likely Immich assets
-                                contextMatch = services.stream()
-                                        .filter(s -> s.getName().toLowerCase().contains("immich"))
-                                        .findFirst()
-                                        .orElse(null);
-                                
-                                if (contextMatch != null) {
-                                    System.out.println("🎯 Pattern-based match: " + path + " likely belongs to " + contextMatch.getName() + " based on path pattern");
-                                }
-                            } else if (path.startsWith("/hacsfiles/") || path.startsWith("/auth/") || path.startsWith("/manifest.json") || path.startsWith("/sw-modern.js")) {
-                                // These are likely Home Assistant assets
-                                contextMatch = services.stream()
-                                        .filter(s -> s.getName().toLowerCase().contains("home") || s.getName().toLowerCase().contains("assistant"))
-                                        .findFirst()
-                                        .orElse(null);
-                                
-                                if (contextMatch != null) {
-                                    System.out.println("🎯 Pattern-based match: " + path + " likely belongs to " + contextMatch.getName() + " based on path pattern");
-                                }
-                            }
-                        }
-                    }
-                    
-                    ServiceMapping selectedMapping = exactMatch != null ? exactMatch : contextMatch;
-                    
-                    if (selectedMapping == null) {
-                        System.out.println("❌ No service found for path: " + path);
-                        response.setStatusCode(org.springframework.http.HttpStatus.NOT_FOUND);
-                        return response.setComplete();
-                    }
-                    
-                    return proxyRequest(request, response, selectedMapping, path);
-                });
+        // First, try the route host, then longest prefix matching through the compiled router
+        Route exactMatch = table.match(host, path);
+        if (exactMatch != null) {
+            return new RouteMatch(exactMatch, "prefix");
+        }
+        
+        // If no exact match, check if this might be a root-level request from a proxied app,
+        // by the mappings' fallback rules
+        FallbackIndex fallback = table.fallback();
+        Route fallbackMatch = fallback.byReferer(request.getHeaders().getFirst("Referer"));
+        if (fallbackMatch != null) {
+            return new RouteMatch(fallbackMatch, "referer");
+        }
+        fallbackMatch = fallback.byPath(path);
+        if (fallbackMatch != null) {
+            return new RouteMatch(fallbackMatch, "path");
+        }
+        HttpCookie sticky = request.getCookies().getFirst(FallbackIndex.COOKIE);
+        if (sticky != null) {
+            fallbackMatch = fallback.bySticky(sticky.getValue());
+            if (fallbackMatch != null) {
+                return new RouteMatch(fallbackMatch, "cookie");
+            }
+        }
+        return RouteMatch.NONE;
     }
     
-    private Mono<Void> proxyRequest(ServerHttpRequest request, ServerHttpResponse response, ServiceMapping mapping, String originalPath) {
-        System.out.println("✅ Found matching service: " + mapping.getName() + " for path: " + originalPath);
+    public Mono<Void> proxy(ServerHttpRequest request, ServerHttpResponse response, AccessRecord record, RouteMatch match) {
+        String path = request.getPath().value();
+        Route selectedRoute = match.route();
         
-        // Rewrite path: only remove the prefix if the path actually starts with it
-        String newPath;
-        if (originalPath.startsWith(mapping.getPathPrefix() + "/") || originalPath.equals(mapping.getPathPrefix())) {
-            // Normal case: /ha/something -> /something or /ha -> /
-            newPath = originalPath.substring(mapping.getPathPrefix().length());
-            if (newPath.isEmpty() || !newPath.startsWith("/")) {
-                newPath = "/" + newPath;
-            }
-        } else {
-            // Context-based routing: /auth/authorize, /hacsfiles/iconset.js -> keep as-is
-            newPath = originalPath;
-            System.out.println("🔄 Context-based routing: keeping path as-is");
+        if (selectedRoute == null) {
+            record.setMapping("-");
+            record.setMeters(metrics.unmatched());
+            response.setStatusCode(org.springframework.http.HttpStatus.NOT_FOUND);
+            return response.setComplete();
+        }
+        
+        ServiceMapping selected = selectedRoute.getMapping();
+        record.setMapping(selected.getName());
+        record.setMeters(selectedRoute.getMeters());
+        record.setTraced(accessLog.isTraced(selected.getId()));
+        if (record.isTraced()) {
+            accessLog.trace("{} {} matched {} by {} (referer: {})", request.getMethod(), path, selected.getName(),
+                    match.rule(), request.getHeaders().getFirst("Referer"));
+        }
+        if (match.isPrefix() && selectedRoute.getFallback().cookie() && isPageRequest(request)) {
+            rememberPage(request, response, selected);
+        }
+        
+        return proxyRequest(request, response, selectedRoute, path, record);
+    }
+    
+    private Mono<Void> proxyRequest(ServerHttpRequest request, ServerHttpResponse response, Route route, String originalPath,
+                                    AccessRecord record) {
+        ServiceMapping mapping = route.getMapping();
+        
+        // Refuse a body declared too large before reading any of it; a client waiting on
+        // Expect: 100-continue then never sends it
+        if (route.getUpload().exceeds(request.getHeaders().getContentLength())) {
+            route.getMeters().uploadRejected();
+            response.setStatusCode(HttpStatus.PAYLOAD_TOO_LARGE);
+            return response.setComplete();
         }
         
-        // Build target URL
-        String targetUrl = mapping.getTargetUrl() + newPath;
+        String newPath = backendPath(originalPath, mapping.getPathPrefix());
+        
+        // The target itself is picked per upstream exchange
+        String pathAndQuery = newPath;
         if (request.getURI().getQuery() != null) {
-            targetUrl += "?" + request.getURI().getQuery();
+            pathAndQuery += "?" + request.getURI().getQuery();
         }
         
-        final String finalTargetUrl = targetUrl;
-        System.out.println("🎯 Proxying " + originalPath + " -> " + finalTargetUrl);
+        final String finalPathAndQuery = pathAndQuery;
         
-        // Create headers for the proxied request
+        // The client's headers are copied straight into the upstream request; these replace some of them
         HttpHeaders headers = new HttpHeaders();
-        request.getHeaders().forEach((key, values) -> {
-            // Skip hop-by-hop headers
-            if (!isHopByHopHeader(key)) {
-                headers.addAll(key, values);
-            }
-        });
         
         // Set the Host header to the target host
         if (mapping.getHost() != null && !mapping.getHost().isEmpty()) {
             headers.set("Host", mapping.getHost());
-            System.out.println("🏠 Setting Host header to: " + mapping.getHost());
         }
         
-        // Make the proxied request
-        return webClient.method(request.getMethod())
+        // Pages, stylesheets and scripts are rewritten, so make sure they come back in a coding we can decode
+        if (expectsRewritable(request, originalPath)) {
+            ResponseCompressor.restrictToDecodable(request.getHeaders(), headers);
+        }
+        if (record.isTraced()) {
+            accessLog.trace("{} -> {} request headers: {}, replaced: {}", originalPath, finalPathAndQuery, request.getHeaders(), headers);
+        }
+        
+        // Answer from the response cache when possible, or revalidate a stale entry
+        ResponseCache.Lookup cacheLookup = null;
+        boolean revalidating = false;
+        if (Boolean.TRUE.equals(mapping.getCacheEnabled()) && responseCache.isCacheable(request)) {
+            String query = request.getURI().getRawQuery();
+            cacheLookup = responseCache.lookup(new CacheKey(mapping.getId(), query != null ? newPath + "?" + query : newPath), request.getHeaders());
+            if (cacheLookup.isFresh()) {
+                record.setCache("hit");
+                return responseCache.serve(cacheLookup, request, response);
+            }
+            if (cacheLookup.canRevalidate()) {
+                revalidating = responseCache.addValidators(cacheLookup, request.getHeaders(), headers);
+            }
+        }
+        
+        // Identical requests already on their way upstream share that exchange
+        if (cacheLookup != null && !revalidating && coalescer.isCoalescable(request)) {
+            RequestCoalescer.Flight flight = coalescer.join(cacheLookup.getKey(), request);
+            if (flight != null && flight.isLeader()) {
+                return forward(request, response, route, finalPathAndQuery, headers, cacheLookup, false, flight, record)
+                        .doFinally(signal -> coalescer.land(flight));
+            }
+            if (flight != null) {
+                final ResponseCache.Lookup lookup = cacheLookup;
+                record.setCache("coalesced");
+                Mono<Void> fallback = Mono.defer(() -> {
+                    record.setCache("miss");
+                    return forward(request, response, route, finalPathAndQuery, headers, lookup, false, null, record);
+                });
+                return coalescer.awaitAndServe(flight, request, response, fallback);
+            }
+        }
+        return forward(request, response, route, finalPathAndQuery, headers, cacheLookup, revalidating, null, record);
+    }
+    
+    private Mono<Void> forward(ServerHttpRequest request, ServerHttpResponse response, Route route, String pathAndQuery,
+                               HttpHeaders headers, ResponseCache.Lookup lookup, boolean revalidated,
+                               RequestCoalescer.Flight flight, AccessRecord record) {
+        UpstreamPool upstream = route.getUpstream();
+        // Only bodiless safe requests can be sent again; a streamed request body can be read once
+        boolean replayable = isReplayable(request);
+        Mono<Void> exchange = Mono.defer(() -> attempt(request, response, route, pathAndQuery, headers, lookup, revalidated,
+                flight, record, !replayable));
+        if (replayable && upstream.getSettings().maxRetries() > 0) {
+            int maxRetries = upstream.getSettings().maxRetries();
+            exchange = exchange.retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                Throwable error = signal.failure();
+                if (signal.totalRetries() < maxRetries && isRetryable(error) && !response.isCommitted()
+                        && upstream.getRetryBudget().tryWithdraw()) {
+                    route.getMeters().retried();
+                    return Mono.just(signal.totalRetries());
+                }
+                return Mono.error(error);
+            })));
+        }
+        return Mono.fromRunnable(upstream.getRetryBudget()::deposit)
+                .then(exchange)
+                .onErrorResume(error -> {
+                    if (isUploadTooLarge(error)) {
+                        route.getMeters().uploadRejected();
+                        if (response.isCommitted()) {
+                            return Mono.error(error);
+                        }
+                        response.setStatusCode(HttpStatus.PAYLOAD_TOO_LARGE);
+                        return response.setComplete();
+                    }
+                    UpstreamError type = UpstreamError.classify(error);
+                    record.setError(type);
+                    if (response.isCommitted()) {
+                        // The status is already out; abort the connection rather than end the body as if it were complete
+                        return Mono.error(error);
+                    }
+                    if (error instanceof CircuitOpenException open) {
+                        route.getMeters().upstreamError(type);
+                        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(open.getRetryAfterSeconds()));
+                        return response.setComplete();
+                    }
+                    response.setStatusCode(type == UpstreamError.TIMEOUT ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.BAD_GATEWAY);
+                    return response.setComplete();
+                });
+    }
+    
+    /**
+     * One try at the upstream exchange: passes the circuit breaker, picks a target and reports the
+     * outcome to both. Picking happens on subscription, so a retry may land on another target.
+     */
+    private Mono<Void> attempt(ServerHttpRequest request, ServerHttpResponse response, Route route, String pathAndQuery,
+                               HttpHeaders headers, ResponseCache.Lookup lookup, boolean revalidated,
+                               RequestCoalescer.Flight flight, AccessRecord record, boolean sendBody) {
+        UpstreamPool upstream = route.getUpstream();
+        CircuitBreaker breaker = upstream.getBreaker();
+        if (!breaker.tryAcquire()) {
+            return Mono.error(new CircuitOpenException(route.getMapping().getName(), breaker.retryAfterSeconds()));
+        }
+        LoadBalancer balancer = route.getBalancer();
+        UpstreamTarget target = balancer.select(request.getHeaders());
+        String targetUrl = target.getUrl() + pathAndQuery;
+        Mono<Void> exchange = forward(request, response, route, target, targetUrl, headers, lookup, revalidated, flight,
+                record, sendBody);
+        Duration totalTimeout = upstream.getSettings().totalTimeout();
+        if (totalTimeout != null) {
+            exchange = exchange.timeout(totalTimeout);
+        }
+        return exchange
+                .doOnError(error -> {
+                    if (isUploadTooLarge(error)) {
+                        // The client's fault, not the target's
+                        if (record.getUpstreamNanos() < 0) {
+                            breaker.onIgnored();
+                        }
+                        return;
+                    }
+                    UpstreamError type = UpstreamError.classify(error);
+                    route.getMeters().upstreamError(type);
+                    if (record.getUpstreamNanos() < 0) {
+                        // No response arrived, so the target itself is at fault
+                        balancer.failed(target);
+                        breaker.onFailure();
+                    }
+                    
+                    // Provide helpful error messages
+                    switch (type) {
+                        case DNS -> log.warn("Proxy error for {}: {}. DNS resolution failed, try an IP address instead of a hostname "
+                                + "(e.g. http://192.168.1.100:8123 instead of http://homeassistant:8123)", targetUrl, error.toString());
+                        case REFUSED -> log.warn("Proxy error for {}: {}. Check that the service is running and accessible",
+                                targetUrl, error.toString());
+                        case TIMEOUT -> log.warn("Proxy error for {}: {}. The service did not answer in time", targetUrl, error.toString());
+                        default -> log.warn("Proxy error for {}: {}", targetUrl, error.toString());
+                    }
+                })
+                .doFinally(signal -> {
+                    balancer.release(target);
+                    if (signal == SignalType.CANCEL && record.getUpstreamNanos() < 0) {
+                        breaker.onIgnored();
+                    }
+                });
+    }
+    
+    private Mono<Void> forward(ServerHttpRequest request, ServerHttpResponse response, Route route, UpstreamTarget target,
+                               String finalTargetUrl, HttpHeaders headers, ResponseCache.Lookup lookup, boolean revalidated,
+                               RequestCoalescer.Flight flight, AccessRecord record, boolean sendBody) {
+        ServiceMapping mapping = route.getMapping();
+        
+        // Make the proxied request on the mapping's own connection pool. A request body is
+        // streamed at the pace the upstream socket takes it
+        UploadStream upload = sendBody ? uploads.open(route.getUpload()) : null;
+        WebClient.RequestBodySpec spec = route.getUpstream().getWebClient().method(request.getMethod())
                 .uri(finalTargetUrl)
-                .headers(h -> h.addAll(headers))
-                .body(request.getBody(), DataBuffer.class)
+                .headers(h -> h.putAll(headers))
+                .httpRequest(upstream -> {
+                    copyHeaders(request, upstream);
+                    if (upload != null) {
+                        upload.attach(upstream.getNativeRequest());
+                    }
+                });
+        WebClient.RequestHeadersSpec<?> upstreamRequest = sendBody
+                ? spec.body(upload.body(request.getBody().doOnNext(buffer -> record.addBytesIn(buffer.readableByteCount()))),
+                        DataBuffer.class)
+                : spec;
+        return upstreamRequest
                 .exchangeToMono(clientResponse -> {
-                    System.out.println("📡 Got response: " + clientResponse.statusCode() + " from " + finalTargetUrl);
+                    record.upstreamResponded();
+                    if (isTargetFailure(clientResponse.statusCode().value())) {
+                        route.getBalancer().failed(target);
+                        route.getUpstream().getBreaker().onFailure();
+                    } else {
+                        route.getBalancer().succeeded(target);
+                        route.getUpstream().getBreaker().onSuccess();
+                    }
+                    if (record.isTraced()) {
+                        accessLog.trace("{} responded {} with headers: {}", finalTargetUrl, clientResponse.statusCode(),
+                                clientResponse.headers().asHttpHeaders());
+                    }
+                    
+                    // Our stale copy is still valid
+                    if (revalidated && clientResponse.statusCode().value() == 304) {
+                        record.setCache("revalidated");
+                        ResponseCache.Lookup refreshed = responseCache.refresh(lookup, clientResponse.headers().asHttpHeaders());
+                        return clientResponse.releaseBody().then(responseCache.serve(refreshed, request, response));
+                    }
+                    
+                    if (lookup != null) {
+                        record.setCache("miss");
+                    }
                     
                     // Copy response status
                     response.setStatusCode(clientResponse.statusCode());
                     
                     // Copy response headers, but modify Location header for redirects
-                    clientResponse.headers().asHttpHeaders().forEach((key, values) -> {
-                        if (!isHopByHopHeader(key)) {
-                            if (key.equalsIgnoreCase("Location")) {
-                                // Rewrite Location header to include the path prefix
-                                List<String> rewrittenValues = values.stream()
-                                        .map(location -> rewriteLocationHeader(location, mapping))
-                                        .toList();
-                                System.out.println("🔄 Rewritten Location header: " + rewrittenValues);
-                                response.getHeaders().addAll(key, rewrittenValues);
-                            } else {
-                                response.getHeaders().addAll(key, values);
-                            }
-                        }
-                    });
+                    ProxyHeaders.copyResponse(clientResponse.headers().asHttpHeaders(), response.getHeaders(), mapping.getPathPrefix());
                     
-                    // Stream the response body - only rewrite small HTML responses
+                    // Stream the response body - only rewrite pages, stylesheets and scripts within the limit
                     MediaType contentType = clientResponse.headers().contentType().orElse(null);
-                    if (shouldRewriteContent(contentType) && isSmallResponse(clientResponse)) {
-                        return response.writeWith(
-                            rewriteResponseContent(
-                                clientResponse.bodyToFlux(DataBuffer.class),
-                                contentType,
-                                mapping,
-                                response.bufferFactory()
-                            )
-                        );
-                    } else {
-                        // Stream directly without rewriting for large responses or non-HTML content
-                        return response.writeWith(clientResponse.bodyToFlux(DataBuffer.class));
+                    HttpHeaders upstreamHeaders = clientResponse.headers().asHttpHeaders();
+                    Flux<DataBuffer> body = clientResponse.bodyToFlux(DataBuffer.class);
+                    if (shouldRewriteContent(contentType, mapping) && fitsRewriteLimit(clientResponse, route)
+                            && ResponseCompressor.isDecodable(upstreamHeaders)) {
+                        // The rewritten body has a different length
+                        response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                        if (upstreamHeaders.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+                            // gzip from the backend is decoded here and compressed again below
+                            body = compressor.decodeGzip(body, response.bufferFactory());
+                            response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+                        }
+                        body = rewriteResponseContent(body, route, response.bufferFactory());
                     }
-                })
-                .onErrorResume(error -> {
-                    String errorMsg = error.getMessage();
-                    System.err.println("❌ Proxy error for " + finalTargetUrl + ": " + errorMsg);
+                    body = compress(request, response, route, clientResponse.statusCode().value(), body);
                     
-                    // Provide helpful error messages
-                    if (errorMsg.contains("Failed to resolve")) {
-                        System.err.println("💡 DNS Resolution failed. Try using IP address instead of hostname.");
-                        System.err.println("💡 Example: http://192.168.1.100:8123 instead of http://homeassistant:8123");
-                    } else if (errorMsg.contains("Connection refused")) {
-                        System.err.println("💡 Connection refused. Check if the service is running and accessible.");
+                    if (lookup != null) {
+                        // Keep a copy of what the client receives if the response is storable
+                        body = responseCache.store(lookup.getKey(), request, clientResponse.statusCode().value(),
+                                clientResponse.headers().asHttpHeaders(), response.getHeaders(), body);
                     }
-                    
-                    response.setStatusCode(org.springframework.http.HttpStatus.BAD_GATEWAY);
-                    return response.setComplete();
-                });
+                    if (flight != null) {
+                        // Hand the same bytes to requests waiting on this exchange
+                        body = coalescer.publish(flight, clientResponse.statusCode().value(),
+                                clientResponse.headers().asHttpHeaders(), response.getHeaders(), body);
+                    }
+                    return response.writeWith(body);
+                })
+                .doOnSubscribe(subscription -> record.upstreamStarted());
     }
     
-    private String rewriteLocationHeader(String location, ServiceMapping mapping) {
-        // If the location is a relative path, prepend the path prefix
-        if (location.startsWith("/") && !location.startsWith(mapping.getPathPrefix())) {
-            return mapping.getPathPrefix() + location;
+    /**
+     * Writes the client's headers, and this hop's forwarding headers, into the upstream Netty
+     * request. The headers set through the WebClient are applied after these and replace them.
+     */
+    private void copyHeaders(ServerHttpRequest request, ClientHttpRequest upstream) {
+        HttpClientRequest nativeRequest = upstream.getNativeRequest();
+        io.netty.handler.codec.http.HttpHeaders from = ProxyHeaders.nettyHeaders(request);
+        ProxyHeaders.copyRequest(from, nativeRequest.requestHeaders());
+        if (forwardedHeaders) {
+            ProxyHeaders.addForwarded(from, nativeRequest.requestHeaders(), request.getRemoteAddress(),
+                    request.getSslInfo() != null ? "https" : "http");
         }
-        return location;
     }
     
-    private boolean isHopByHopHeader(String headerName) {
-        String lowerName = headerName.toLowerCase();
-        return lowerName.equals("connection") ||
-               lowerName.equals("keep-alive") ||
-               lowerName.equals("proxy-authenticate") ||
-               lowerName.equals("proxy-authorization") ||
-               lowerName.equals("te") ||
-               lowerName.equals("trailers") ||
-               lowerName.equals("transfer-encoding") ||
-               lowerName.equals("upgrade");
+    /**
+     * Compresses the body for the client if the mapping's rules allow it, adjusting the response headers.
+     */
+    private Flux<DataBuffer> compress(ServerHttpRequest request, ServerHttpResponse response, Route route, int status,
+                                      Flux<DataBuffer> body) {
+        HttpHeaders headers = response.getHeaders();
+        if (!compressor.isCompressible(route.getCompression(), request, status, headers)) {
+            return body;
+        }
+        ResponseCompressor.addVary(headers);
+        ContentCoding coding = ContentCoding.negotiate(request.getHeaders());
+        if (coding == null) {
+            return body;
+        }
+        compressor.applyHeaders(headers, coding);
+        return compressor.compress(body, coding, response.bufferFactory());
     }
     
-    private Flux<DataBuffer> rewriteResponseContent(Flux<DataBuffer> originalContent, 
-                                                   MediaType contentType, 
-                                                   ServiceMapping mapping, 
-                                                   DataBufferFactory bufferFactory) {
-        
-        System.out.println("🔄 Rewriting HTML content for " + mapping.getName());
-        
-        // Collect all data buffers into a single string (only for small HTML responses)
-        return originalContent
-            .reduce(bufferFactory.allocateBuffer(), (accumulated, buffer) -> {
-                accumulated.write(buffer);
-                return accumulated;
-            })
-            .map(buffer -> {
-                // Convert to string
-                byte[] bytes = new byte[buffer.readableByteCount()];
-                buffer.read(bytes);
-                String content = new String(bytes, StandardCharsets.UTF_8);
-                
-                // Perform content rewriting
-                String rewrittenContent = rewriteContent(content, mapping);
-                
-                // Convert back to DataBuffer
-                byte[] rewrittenBytes = rewrittenContent.getBytes(StandardCharsets.UTF_8);
-                return bufferFactory.wrap(rewrittenBytes);
-            })
-            .flux();
+    /**
+     * Marks the mapping a page came from, so the {@code cookie} fallback rule can route the
+     * page's root-level requests that carry no usable {@code Referer}.
+     */
+    private static void rememberPage(ServerHttpRequest request, ServerHttpResponse response, ServiceMapping mapping) {
+        String id = String.valueOf(mapping.getId());
+        HttpCookie current = request.getCookies().getFirst(FallbackIndex.COOKIE);
+        if (current == null || !current.getValue().equals(id)) {
+            response.addCookie(ResponseCookie.from(FallbackIndex.COOKIE, id)
+                    .path("/")
+                    .httpOnly(true)
+                    .sameSite("Lax")
+                    .build());
+        }
     }
     
-    private boolean shouldRewriteContent(MediaType contentType) {
-        return contentType != null && contentType.includes(MediaType.TEXT_HTML);
+    /**
+     * Browser navigations, whose answer is usually a page to rewrite.
+     */
+    private static boolean isPageRequest(ServerHttpRequest request) {
+        for (String accept : request.getHeaders().getOrEmpty(HttpHeaders.ACCEPT)) {
+            if (accept.contains("text/html")) {
+                return true;
+            }
+        }
+        return false;
     }
     
-    private boolean isSmallResponse(org.springframework.web.reactive.function.client.ClientResponse clientResponse) {
-        // Only rewrite responses smaller than 1MB to avoid memory issues
-        return clientResponse.headers().contentLength().orElse(0L) < 1024 * 1024;
+    /**
+     * Requests whose answer is probably rewritten: browser navigations, and stylesheet or script
+     * loads as told by {@code Sec-Fetch-Dest}, or by the file extension for clients that do not send it.
+     */
+    private static boolean expectsRewritable(ServerHttpRequest request, String path) {
+        if (isPageRequest(request)) {
+            return true;
+        }
+        String destination = request.getHeaders().getFirst("Sec-Fetch-Dest");
+        if (destination != null) {
+            return REWRITABLE_DESTINATIONS.contains(destination);
+        }
+        return path.endsWith(".js") || path.endsWith(".mjs") || path.endsWith(".css");
     }
     
-    private String rewriteContent(String content, ServiceMapping mapping) {
-        String pathPrefix = mapping.getPathPrefix();
-        
-        // Common patterns to rewrite for web applications
-        String rewritten = content;
-        
-        // Rewrite absolute paths in HTML/JS
-        // src="/_app/... -> src="/immich/_app/...
-        rewritten = rewritten.replaceAll("(src|href)=\"(/[^\"]*?)\"", "$1=\"" + pathPrefix + "$2\"");
-        
-        // Rewrite fetch() and similar API calls
-        // fetch("/_app/... -> fetch("/immich/_app/...
-        rewritten = rewritten.replaceAll("(fetch|import)\\s*\\(\\s*['\"](/[^'\"]*?)['\"]", "$1(\"" + pathPrefix + "$2\"");
-        
-        // Rewrite CSS url() references
-        // url(/_app/... -> url(/immich/_app/...
-        rewritten = rewritten.replaceAll("url\\s*\\(\\s*['\"]?(/[^'\"\\)]*?)['\"]?\\s*\\)", "url(" + pathPrefix + "$1)");
-        
-        // Rewrite JavaScript module imports
-        // import ... from "/_app/... -> import ... from "/immich/_app/...
-        rewritten = rewritten.replaceAll("(import\\s+.*?\\s+from\\s+['\"])(/[^'\"]*?)(['\"])", "$1" + pathPrefix + "$2$3");
-        
-        // Rewrite dynamic imports
-        // import("/_app/... -> import("/immich/_app/...
-        rewritten = rewritten.replaceAll("import\\s*\\(\\s*['\"](/[^'\"]*?)['\"]\\s*\\)", "import(\"" + pathPrefix + "$1\")");
-        
-        // Special handling for common API patterns
-        if (pathPrefix.contains("immich")) {
-            // Rewrite Immich API calls
-            rewritten = rewritten.replaceAll("(['\"])/api/", "$1" + pathPrefix + "/api/");
+    /**
+     * GET, HEAD and OPTIONS requests without a body, which are safe to send to the backend again.
+     */
+    private static boolean isReplayable(ServerHttpRequest request) {
+        HttpMethod method = request.getMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD && method != HttpMethod.OPTIONS) {
+            return false;
         }
-        
-        if (pathPrefix.contains("ha")) {
-            // Rewrite Home Assistant patterns
-            rewritten = rewritten.replaceAll("(['\"])/auth/", "$1" + pathPrefix + "/auth/");
-            rewritten = rewritten.replaceAll("(['\"])/hacsfiles/", "$1" + pathPrefix + "/hacsfiles/");
+        HttpHeaders headers = request.getHeaders();
+        return headers.getContentLength() <= 0 && !headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+    }
+    
+    /**
+     * Failures where the request cannot have reached the backend's application: the connection
+     * could not be opened, or a pooled connection was closed before any response arrived.
+     */
+    private static boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof PrematureCloseException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * A request body over the mapping's limit, which the WebClient reports wrapped in its own exception.
+     */
+    private static boolean isUploadTooLarge(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof UploadTooLargeException) {
+                return true;
+            }
         }
+        return false;
+    }
+    
+    /**
+     * Statuses that say the target could not handle the request, as opposed to a problem with the request.
+     */
+    private static boolean isTargetFailure(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+    
+    private Flux<DataBuffer> rewriteResponseContent(Flux<DataBuffer> originalContent, 
+                                                   Route route, 
+                                                   DataBufferFactory bufferFactory) {
+        ServiceMapping mapping = route.getMapping();
         
-        System.out.println("🔄 Content rewriting completed for " + mapping.getName());
-        return rewritten;
+        // Rewrite chunk by chunk as the body streams through, up to the mapping's limit
+        MappingMeters meters = route.getMeters();
+        return route.getRewriter().rewrite(originalContent, mapping.getPathPrefix(), bufferFactory,
+                route.getRewriteMaxBytes(), rewriteBudget, fallback -> {
+                    meters.rewriteFallback(fallback);
+                    log.debug("Rewrite of {} response fell back to pass-through: {}", mapping.getName(), fallback.getTag());
+                });
+    }
+    
+    private boolean shouldRewriteContent(MediaType contentType, ServiceMapping mapping) {
+        // A service mounted at the root, such as one on its own host, has no prefix to add to links
+        if (contentType == null || "/".equals(mapping.getPathPrefix())) {
+            return false;
+        }
+        for (MediaType type : REWRITABLE_TYPES) {
+            if (type.includes(contentType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Responses declared larger than the mapping's limit are streamed as-is. Those of unknown length
+     * are rewritten in bounded mode, which passes the rest through once the limit is reached.
+     */
+    private boolean fitsRewriteLimit(ClientResponse clientResponse, Route route) {
+        long length = clientResponse.headers().contentLength().orElse(-1L);
+        if (length > route.getRewriteMaxBytes()) {
+            route.getMeters().rewriteFallback(RewriteFallback.TOO_LARGE);
+            return false;
+        }
+        return true;
     }
 }
\ No newline at end of file
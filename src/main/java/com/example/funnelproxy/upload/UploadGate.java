@@ -0,0 +1,92 @@
+package com.example.funnelproxy.upload;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sits in the upstream connection's pipeline for the length of one upload. It tells the
+ * upload when the socket can take more data, and counts the body bytes written to the
+ * connection that the socket has not accepted yet.
+ */
+final class UploadGate extends ChannelDuplexHandler {
+    static final String NAME = "funnel.upload";
+    
+    private final Channel channel;
+    private final AtomicLong inflight;
+    private final AtomicReference<MonoSink<Void>> waiter = new AtomicReference<>();
+    
+    UploadGate(Channel channel, AtomicLong inflight) {
+        this.channel = channel;
+        this.inflight = inflight;
+    }
+    
+    /**
+     * Completes once the connection is writable, right away when it already is. A closed
+     * connection counts as writable, so the next write fails instead of waiting forever.
+     */
+    Mono<Void> whenWritable() {
+        if (isWritable()) {
+            return Mono.empty();
+        }
+        return Mono.create(sink -> {
+            waiter.set(sink);
+            // Writability may have changed before the sink was registered
+            if (isWritable()) {
+                wake();
+            }
+        });
+    }
+    
+    boolean isWritable() {
+        return channel.isWritable() || !channel.isActive();
+    }
+    
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        long bytes = msg instanceof ByteBuf buffer ? buffer.readableBytes()
+                : msg instanceof ByteBufHolder holder ? holder.content().readableBytes() : 0;
+        if (bytes == 0) {
+            ctx.write(msg, promise);
+            return;
+        }
+        inflight.addAndGet(bytes);
+        ChannelPromise written = promise.unvoid();
+        written.addListener(future -> inflight.addAndGet(-bytes));
+        ctx.write(msg, written);
+    }
+    
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            wake();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+    
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        wake();
+        super.channelInactive(ctx);
+    }
+    
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        wake();
+    }
+    
+    private void wake() {
+        MonoSink<Void> sink = waiter.getAndSet(null);
+        if (sink != null) {
+            sink.success();
+        }
+    }
+}
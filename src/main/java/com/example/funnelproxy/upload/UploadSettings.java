@@ -0,0 +1,45 @@
+package com.example.funnelproxy.upload;
+
+import com.example.funnelproxy.model.ServiceMapping;
+
+/**
+ * Effective request body limits for one mapping. {@code maxBytes} is {@link Long#MAX_VALUE}
+ * and {@code bytesPerSecond} is 0 when the mapping sets no limit.
+ */
+public record UploadSettings(long maxBytes, long bytesPerSecond) {
+    
+    public static final UploadSettings UNLIMITED = new UploadSettings(Long.MAX_VALUE, 0);
+    
+    public static UploadSettings of(ServiceMapping mapping) {
+        Long maxBytes = mapping.getUploadMaxBytes();
+        Long rate = mapping.getUploadRateBytes();
+        if ((maxBytes == null || maxBytes <= 0) && (rate == null || rate <= 0)) {
+            return UNLIMITED;
+        }
+        return new UploadSettings(maxBytes != null && maxBytes > 0 ? maxBytes : Long.MAX_VALUE,
+                rate != null && rate > 0 ? rate : 0);
+    }
+    
+    /**
+     * @throws IllegalArgumentException when a limit is set but not positive
+     */
+    public static void validate(ServiceMapping mapping) {
+        if (mapping.getUploadMaxBytes() != null && mapping.getUploadMaxBytes() <= 0) {
+            throw new IllegalArgumentException("Upload max bytes must be positive, or empty for no limit");
+        }
+        if (mapping.getUploadRateBytes() != null && mapping.getUploadRateBytes() <= 0) {
+            throw new IllegalArgumentException("Upload rate must be positive bytes per second, or empty for no limit");
+        }
+    }
+    
+    public boolean isRateLimited() {
+        return bytesPerSecond > 0;
+    }
+    
+    /**
+     * Whether a declared {@code Content-Length} is already over the limit; -1 (unknown) never is.
+     */
+    public boolean exceeds(long contentLength) {
+        return contentLength > maxBytes;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.funnelproxy.upload;
+
+import io.netty.channel.Channel;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.http.client.HttpClientRequest;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One request body on its way upstream. The client's body is read a chunk at a time, and
+ * the next chunk is only requested once the upstream socket is writable again and the
+ * mapping's rate allows it. Reading from the client therefore stops while the backend is
+ * slow, and the proxy holds about one chunk plus the connection's write buffer per upload.
+ */
+public final class UploadStream {
+    private final UploadSettings settings;
+    private final AtomicLong inflight;
+    private volatile Connection connection;
+    private volatile UploadGate gate;
+    private long received;
+    private long startNanos;
+    
+    UploadStream(UploadSettings settings, AtomicLong inflight) {
+        this.settings = settings;
+        this.inflight = inflight;
+    }
+    
+    /**
+     * Ties the upload to the upstream connection its request was just created on. Must be
+     * called before the body is subscribed; without it the body is still limited and paced,
+     * just not by the socket.
+     */
+    public void attach(HttpClientRequest request) {
+        if (request instanceof Connection upstream) {
+            Channel channel = upstream.channel();
+            UploadGate created = new UploadGate(channel, inflight);
+            if (channel.pipeline().get(UploadGate.NAME) != null) {
+                upstream.removeHandler(UploadGate.NAME);
+            }
+            upstream.addHandlerLast(UploadGate.NAME, created);
+            connection = upstream;
+            gate = created;
+        }
+    }
+    
+    /**
+     * The client's body, limited to the mapping's size and rate. A body that grows past the
+     * limit fails with {@link UploadTooLargeException}.
+     */
+    public Flux<DataBuffer> body(Flux<DataBuffer> source) {
+        return Flux.defer(() -> {
+                    startNanos = System.nanoTime();
+                    return source.concatMap(this::admit, 1);
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .doFinally(signal -> detach());
+    }
+    
+    private Mono<DataBuffer> admit(DataBuffer buffer) {
+        long before = received;
+        received += buffer.readableByteCount();
+        if (received > settings.maxBytes()) {
+            DataBufferUtils.release(buffer);
+            return Mono.error(new UploadTooLargeException(settings.maxBytes()));
+        }
+        UploadGate current = gate;
+        Mono<Void> ready = null;
+        if (settings.isRateLimited()) {
+            // Each chunk goes out no earlier than the bytes before it are allowed at the mapping's rate
+            long due = startNanos + (long) (before * 1e9 / settings.bytesPerSecond());
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                ready = Mono.delay(Duration.ofNanos(wait))
+                        .then(current != null ? Mono.defer(current::whenWritable) : Mono.empty());
+            }
+        }
+        if (ready == null && current != null && !current.isWritable()) {
+            ready = current.whenWritable();
+        }
+        if (ready == null) {
+            return Mono.just(buffer);
+        }
+        return ready.thenReturn(buffer)
+                .doOnCancel(() -> DataBufferUtils.release(buffer));
+    }
+    
+    private void detach() {
+        Connection upstream = connection;
+        if (upstream != null && upstream.channel().pipeline().get(UploadGate.NAME) == gate) {
+            upstream.removeHandler(UploadGate.NAME);
+        }
+    }
+}
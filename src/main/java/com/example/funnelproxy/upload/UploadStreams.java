@@ -0,0 +1,33 @@
+package com.example.funnelproxy.upload;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out one {@link UploadStream} per upstream exchange that carries a request body, and
+ * publishes the body bytes those exchanges have written to upstream connections that the
+ * sockets have not accepted yet. With every upload paced by its socket, this stays around a
+ * write buffer per upload however large the bodies are.
+ */
+@Component
+public class UploadStreams {
+    private final AtomicLong inflight = new AtomicLong();
+    
+    public UploadStreams(MeterRegistry registry) {
+        Gauge.builder("funnel.proxy.upload.inflight", inflight, AtomicLong::get)
+                .description("Request body bytes queued on upstream connections, not yet accepted by the socket")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+    
+    public UploadStream open(UploadSettings settings) {
+        return new UploadStream(settings, inflight);
+    }
+    
+    public long getInflight() {
+        return inflight.get();
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.funnelproxy.upload;
+
+/**
+ * Signals a request body that grew past the mapping's limit while it was being streamed.
+ */
+public class UploadTooLargeException extends RuntimeException {
+    private final long maxBytes;
+    
+    public UploadTooLargeException(long maxBytes) {
+        super("Request body exceeds " + maxBytes + " bytes", null, false, false);
+        this.maxBytes = maxBytes;
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
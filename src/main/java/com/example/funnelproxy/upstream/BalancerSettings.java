@@ -0,0 +1,164 @@
+package com.example.funnelproxy.upstream;
+
+import com.example.funnelproxy.model.ServiceMapping;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Effective load balancing settings for one mapping, with defaults applied. Equality decides
+ * whether an existing {@link LoadBalancer}, and with it the targets' health state, can be kept
+ * across a route reload.
+ */
+public record BalancerSettings(List<String> targets,
+                               Strategy strategy,
+                               HashKey hashKey,
+                               String healthCheckPath,
+                               Duration healthCheckInterval) {
+    
+    public static final Duration DEFAULT_HEALTH_CHECK_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration MIN_HEALTH_CHECK_INTERVAL = Duration.ofSeconds(1);
+    
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING,
+        P2C,
+        HASH
+    }
+    
+    /**
+     * Where the consistent-hash key of a request comes from.
+     */
+    public record HashKey(Source source, String name) {
+        public enum Source {
+            HEADER,
+            COOKIE
+        }
+    }
+    
+    public static BalancerSettings of(ServiceMapping mapping) {
+        Strategy strategy = lenientStrategy(mapping.getBalancer());
+        HashKey hashKey = lenientHashKey(mapping.getHashKey());
+        if (strategy == Strategy.HASH && hashKey == null) {
+            strategy = Strategy.ROUND_ROBIN;
+        }
+        String healthPath = mapping.getHealthCheckPath();
+        Long interval = mapping.getHealthCheckIntervalMs();
+        return new BalancerSettings(
+                targets(mapping),
+                strategy,
+                strategy == Strategy.HASH ? hashKey : null,
+                healthPath == null || healthPath.isBlank() ? null : healthPath.trim(),
+                interval == null || interval <= 0
+                        ? DEFAULT_HEALTH_CHECK_INTERVAL
+                        : max(Duration.ofMillis(interval), MIN_HEALTH_CHECK_INTERVAL));
+    }
+    
+    /**
+     * Checks the balancing columns of a mapping before it is saved.
+     *
+     * @throws IllegalArgumentException describing the first invalid value
+     */
+    public static void validate(ServiceMapping mapping) {
+        for (String target : targets(mapping)) {
+            URI uri;
+            try {
+                uri = URI.create(target);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid target URL '" + target + "'");
+            }
+            if (uri.getHost() == null || !("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))) {
+                throw new IllegalArgumentException("Target URL '" + target + "' must be an absolute http:// or https:// URL");
+            }
+        }
+        Strategy strategy = strategy(mapping.getBalancer());
+        HashKey hashKey = hashKey(mapping.getHashKey());
+        if (strategy == Strategy.HASH && hashKey == null) {
+            throw new IllegalArgumentException("The HASH balancer needs a hash key such as 'cookie:session' or 'header:X-User'");
+        }
+        String healthPath = mapping.getHealthCheckPath();
+        if (healthPath != null && !healthPath.isBlank() && !healthPath.trim().startsWith("/")) {
+            throw new IllegalArgumentException("Health check path must start with '/'");
+        }
+    }
+    
+    /**
+     * {@code targetUrl} followed by the distinct entries of {@code extraTargets}.
+     */
+    static List<String> targets(ServiceMapping mapping) {
+        Set<String> targets = new LinkedHashSet<>();
+        if (mapping.getTargetUrl() != null && !mapping.getTargetUrl().isBlank()) {
+            targets.add(mapping.getTargetUrl());
+        }
+        if (mapping.getExtraTargets() != null) {
+            for (String target : mapping.getExtraTargets().split("[,\\s]+")) {
+                if (!target.isBlank()) {
+                    targets.add(target.trim());
+                }
+            }
+        }
+        return List.copyOf(new ArrayList<>(targets));
+    }
+    
+    /**
+     * Parses the balancer column; {@code null} or blank means round-robin.
+     *
+     * @throws IllegalArgumentException for unknown values
+     */
+    public static Strategy strategy(String value) {
+        if (value == null || value.isBlank()) {
+            return Strategy.ROUND_ROBIN;
+        }
+        try {
+            return Strategy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown balancer '" + value
+                    + "', expected ROUND_ROBIN, LEAST_OUTSTANDING, P2C or HASH");
+        }
+    }
+    
+    /**
+     * Parses {@code header:<name>} or {@code cookie:<name>}; {@code null} or blank means none.
+     *
+     * @throws IllegalArgumentException for anything else
+     */
+    public static HashKey hashKey(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        int colon = value.indexOf(':');
+        String name = colon < 0 ? "" : value.substring(colon + 1).trim();
+        if (colon < 0 || name.isEmpty()) {
+            throw new IllegalArgumentException("Invalid hash key '" + value + "', expected 'header:<name>' or 'cookie:<name>'");
+        }
+        return switch (value.substring(0, colon).trim().toLowerCase()) {
+            case "header" -> new HashKey(HashKey.Source.HEADER, name);
+            case "cookie" -> new HashKey(HashKey.Source.COOKIE, name);
+            default -> throw new IllegalArgumentException("Invalid hash key '" + value + "', expected 'header:<name>' or 'cookie:<name>'");
+        };
+    }
+    
+    private static Strategy lenientStrategy(String value) {
+        try {
+            return strategy(value);
+        } catch (IllegalArgumentException e) {
+            return Strategy.ROUND_ROBIN;
+        }
+    }
+    
+    private static HashKey lenientHashKey(String value) {
+        try {
+            return hashKey(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+}
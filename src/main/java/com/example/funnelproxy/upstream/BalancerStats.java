@@ -0,0 +1,14 @@
+package com.example.funnelproxy.upstream;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of one mapping's load balancer and its targets.
+ */
+public record BalancerStats(Long mappingId,
+                            String name,
+                            String strategy,
+                            String hashKey,
+                            String healthCheckPath,
+                            List<TargetStats> targets) {
+}
@@ -0,0 +1,14 @@
+package com.example.funnelproxy.upstream;
+
+/**
+ * Point-in-time view of one mapping's circuit breaker. {@code requests} and {@code failures}
+ * cover the breaker's current ten-second window, {@code rejected} the lifetime of the pool.
+ */
+public record BreakerStats(Long mappingId,
+                           String name,
+                           String state,
+                           int errorPercent,
+                           long requests,
+                           long failures,
+                           long rejected) {
+}
@@ -0,0 +1,195 @@
+package com.example.funnelproxy.upstream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fails a mapping's requests fast while its backend is failing, instead of letting every request
+ * wait for a connection or timeout of its own.
+ * <p>
+ * Outcomes are counted in one-second buckets over a ten-second window. Once the window holds at
+ * least {@value #MIN_REQUESTS} exchanges and the configured share of them failed, the breaker
+ * opens and rejects requests without touching the backend. After the open period a few trial
+ * requests are let through: if they all succeed the breaker closes, and any failure opens it again
+ * for longer.
+ */
+public final class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+    static final int MIN_REQUESTS = 20;
+    private static final int BUCKETS = 10;
+    private static final long BUCKET_NANOS = Duration.ofSeconds(1).toNanos();
+    private static final Duration BASE_OPEN = Duration.ofSeconds(5);
+    private static final Duration MAX_OPEN = Duration.ofMinutes(1);
+    private static final int TRIAL_REQUESTS = 3;
+    
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+    
+    private final String name;
+    private final int errorPercent;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    // Per bucket: the second it counts, successes and failures
+    private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray successes = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray failures = new AtomicLongArray(BUCKETS);
+    private final AtomicInteger trialPermits = new AtomicInteger();
+    private final AtomicInteger trialSuccesses = new AtomicInteger();
+    private volatile long openUntil;
+    private volatile int consecutiveOpens;
+    private final AtomicLong rejected = new AtomicLong();
+    
+    CircuitBreaker(String name, int errorPercent) {
+        this.name = name;
+        this.errorPercent = errorPercent;
+    }
+    
+    /**
+     * Whether a request may go to the backend. Every permitted request must be followed by exactly
+     * one of {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+     */
+    public boolean tryAcquire() {
+        if (errorPercent == 0) {
+            return true;
+        }
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openUntil < 0) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                    trialSuccesses.set(0);
+                    trialPermits.set(TRIAL_REQUESTS);
+                    log.info("🟡 Circuit for {} half-open, letting {} trial requests through", name, TRIAL_REQUESTS);
+                }
+                return tryAcquire();
+            default:
+                if (trialPermits.getAndDecrement() > 0) {
+                    return true;
+                }
+                rejected.incrementAndGet();
+                return false;
+        }
+    }
+    
+    public void onSuccess() {
+        if (errorPercent == 0) {
+            return;
+        }
+        if (state.get() == State.HALF_OPEN) {
+            if (trialSuccesses.incrementAndGet() >= TRIAL_REQUESTS && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                resetWindow();
+                consecutiveOpens = 0;
+                log.info("🟢 Circuit for {} closed, backend is answering again", name);
+            }
+            return;
+        }
+        successes.incrementAndGet(bucket(System.nanoTime()));
+    }
+    
+    public void onFailure() {
+        if (errorPercent == 0) {
+            return;
+        }
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+            return;
+        }
+        if (current == State.OPEN) {
+            return;
+        }
+        failures.incrementAndGet(bucket(System.nanoTime()));
+        long[] window = window();
+        if (window[0] >= MIN_REQUESTS && window[1] * 100 >= (long) errorPercent * window[0]) {
+            open(State.CLOSED);
+        }
+    }
+    
+    /**
+     * Returns the permit of a request that ended without an outcome, e.g. because the client went away.
+     */
+    public void onIgnored() {
+        if (state.get() == State.HALF_OPEN) {
+            trialPermits.incrementAndGet();
+        }
+    }
+    
+    private void open(State from) {
+        if (!state.compareAndSet(from, State.OPEN)) {
+            return;
+        }
+        int opens = Math.min(consecutiveOpens + 1, 16);
+        consecutiveOpens = opens;
+        Duration duration = BASE_OPEN.multipliedBy(1L << Math.min(opens - 1, 4));
+        if (duration.compareTo(MAX_OPEN) > 0) {
+            duration = MAX_OPEN;
+        }
+        openUntil = System.nanoTime() + duration.toNanos();
+        log.warn("🔴 Circuit for {} opened for {}s, failing requests fast", name, duration.toSeconds());
+    }
+    
+    /**
+     * Seconds until trial requests are let through again, at least 1.
+     */
+    public long retryAfterSeconds() {
+        long remaining = openUntil - System.nanoTime();
+        return Math.max(1, (remaining + BUCKET_NANOS - 1) / BUCKET_NANOS);
+    }
+    
+    public State getState() {
+        return errorPercent == 0 ? State.CLOSED : state.get();
+    }
+    
+    private int bucket(long nanos) {
+        long epoch = nanos / BUCKET_NANOS;
+        int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+        long seen = epochs.get(index);
+        if (seen != epoch && epochs.compareAndSet(index, seen, epoch)) {
+            // First outcome in a new second; counts racing with this reset may be lost, which is fine
+            successes.set(index, 0);
+            failures.set(index, 0);
+        }
+        return index;
+    }
+    
+    private void resetWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            epochs.set(i, 0);
+            successes.set(i, 0);
+            failures.set(i, 0);
+        }
+    }
+    
+    /**
+     * Exchanges and failures counted in the current window.
+     */
+    private long[] window() {
+        long total = 0;
+        long failed = 0;
+        long now = System.nanoTime() / BUCKET_NANOS;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (now - epochs.get(i) < BUCKETS) {
+                failed += failures.get(i);
+                total += successes.get(i) + failures.get(i);
+            }
+        }
+        return new long[] {total, failed};
+    }
+    
+    BreakerStats stats(Long mappingId) {
+        long[] window = window();
+        return new BreakerStats(mappingId, name, getState().name(), errorPercent, window[0], window[1], rejected.get());
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.funnelproxy.upstream;
+
+/**
+ * Signals a request that was not sent because the mapping's circuit breaker is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+    private final long retryAfterSeconds;
+    
+    public CircuitOpenException(String name, long retryAfterSeconds) {
+        super("Circuit for " + name + " is open", null, false, false);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
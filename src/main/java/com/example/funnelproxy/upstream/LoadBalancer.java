@@ -0,0 +1,342 @@
+package com.example.funnelproxy.upstream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads one mapping's requests over its upstream targets.
+ * <p>
+ * Picks only read a volatile snapshot of the targets that are currently available; the snapshot
+ * is recomputed off the request path whenever an active health check flips or a target is ejected
+ * or readmitted. A target that fails {@value #EJECT_AFTER_FAILURES} requests in a row is ejected
+ * for a back-off that grows with every repeated ejection, and at most half of the targets can be
+ * ejected at a time. When no target is available, picks fall back to all targets rather than
+ * failing every request.
+ */
+public final class LoadBalancer {
+    private static final Logger log = LoggerFactory.getLogger(LoadBalancer.class);
+    static final int EJECT_AFTER_FAILURES = 5;
+    private static final Duration BASE_EJECTION = Duration.ofSeconds(30);
+    private static final Duration MAX_EJECTION = Duration.ofMinutes(5);
+    private static final Duration MAX_PROBE_TIMEOUT = Duration.ofSeconds(5);
+    // Virtual nodes per target on the consistent-hash ring
+    private static final int VIRTUAL_NODES = 100;
+    
+    private final Long mappingId;
+    private final String name;
+    private final BalancerSettings settings;
+    private final UpstreamTarget[] targets;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long[] ringHashes;
+    private final UpstreamTarget[] ringTargets;
+    private volatile UpstreamTarget[] available;
+    private volatile Disposable probes;
+    
+    LoadBalancer(Long mappingId, String name, BalancerSettings settings) {
+        this.mappingId = mappingId;
+        this.name = name;
+        this.settings = settings;
+        this.targets = settings.targets().stream().map(UpstreamTarget::new).toArray(UpstreamTarget[]::new);
+        this.available = targets;
+        if (settings.strategy() == BalancerSettings.Strategy.HASH) {
+            long[][] nodes = new long[targets.length * VIRTUAL_NODES][];
+            for (int t = 0; t < targets.length; t++) {
+                for (int v = 0; v < VIRTUAL_NODES; v++) {
+                    nodes[t * VIRTUAL_NODES + v] = new long[] {hash(targets[t].getUrl() + "#" + v), t};
+                }
+            }
+            Arrays.sort(nodes, (a, b) -> Long.compare(a[0], b[0]));
+            this.ringHashes = new long[nodes.length];
+            this.ringTargets = new UpstreamTarget[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                ringHashes[i] = nodes[i][0];
+                ringTargets[i] = targets[(int) nodes[i][1]];
+            }
+        } else {
+            this.ringHashes = null;
+            this.ringTargets = null;
+        }
+    }
+    
+    public BalancerSettings getSettings() {
+        return settings;
+    }
+    
+    /**
+     * Picks the target for a request and counts it as outstanding. Every pick must be followed by
+     * exactly one {@link #release(UpstreamTarget)} once the exchange is over.
+     */
+    public UpstreamTarget select(HttpHeaders headers) {
+        UpstreamTarget target = pick(headers);
+        target.outstanding().incrementAndGet();
+        return target;
+    }
+    
+    public void release(UpstreamTarget target) {
+        target.outstanding().decrementAndGet();
+    }
+    
+    /**
+     * Records an exchange that got a usable response from the target.
+     */
+    public void succeeded(UpstreamTarget target) {
+        // Read first so that the common case does not write a shared cache line
+        if (target.consecutiveFailures().get() != 0) {
+            target.consecutiveFailures().set(0);
+        }
+    }
+    
+    /**
+     * Records a connection failure or a 502, 503 or 504 from the target.
+     */
+    public void failed(UpstreamTarget target) {
+        if (target.consecutiveFailures().incrementAndGet() >= EJECT_AFTER_FAILURES) {
+            eject(target);
+        }
+    }
+    
+    private UpstreamTarget pick(HttpHeaders headers) {
+        UpstreamTarget[] pool = available;
+        if (pool.length == 1 && settings.strategy() != BalancerSettings.Strategy.HASH) {
+            return pool[0];
+        }
+        return switch (settings.strategy()) {
+            case ROUND_ROBIN -> roundRobin(pool);
+            case LEAST_OUTSTANDING -> leastOutstanding(pool);
+            case P2C -> powerOfTwoChoices(pool);
+            case HASH -> consistentHash(pool, headers);
+        };
+    }
+    
+    private UpstreamTarget roundRobin(UpstreamTarget[] pool) {
+        return pool[(next.getAndIncrement() & Integer.MAX_VALUE) % pool.length];
+    }
+    
+    private UpstreamTarget leastOutstanding(UpstreamTarget[] pool) {
+        // Start at a rotating offset so ties are spread instead of all landing on the first target
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % pool.length;
+        UpstreamTarget best = pool[start];
+        int bestOutstanding = best.getOutstanding();
+        for (int i = 1; i < pool.length && bestOutstanding > 0; i++) {
+            UpstreamTarget candidate = pool[(start + i) % pool.length];
+            int outstanding = candidate.getOutstanding();
+            if (outstanding < bestOutstanding) {
+                best = candidate;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+    
+    private static UpstreamTarget powerOfTwoChoices(UpstreamTarget[] pool) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(pool.length);
+        int second = random.nextInt(pool.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        UpstreamTarget a = pool[first];
+        UpstreamTarget b = pool[second];
+        return a.getOutstanding() <= b.getOutstanding() ? a : b;
+    }
+    
+    private UpstreamTarget consistentHash(UpstreamTarget[] pool, HttpHeaders headers) {
+        String key = hashKeyOf(headers);
+        if (key == null) {
+            return roundRobin(pool);
+        }
+        int index = Arrays.binarySearch(ringHashes, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        // Walk clockwise past unavailable targets so only their keys move elsewhere
+        for (int i = 0; i < ringTargets.length; i++) {
+            UpstreamTarget target = ringTargets[(index + i) % ringTargets.length];
+            if (target.isAvailable()) {
+                return target;
+            }
+        }
+        return ringTargets[index % ringTargets.length];
+    }
+    
+    private String hashKeyOf(HttpHeaders headers) {
+        BalancerSettings.HashKey hashKey = settings.hashKey();
+        if (hashKey.source() == BalancerSettings.HashKey.Source.HEADER) {
+            return headers.getFirst(hashKey.name());
+        }
+        List<String> cookieHeaders = headers.get(HttpHeaders.COOKIE);
+        if (cookieHeaders == null) {
+            return null;
+        }
+        String name = hashKey.name();
+        for (String cookies : cookieHeaders) {
+            int start = 0;
+            while (start < cookies.length()) {
+                int end = cookies.indexOf(';', start);
+                if (end < 0) {
+                    end = cookies.length();
+                }
+                while (start < end && cookies.charAt(start) == ' ') {
+                    start++;
+                }
+                if (cookies.startsWith(name, start) && start + name.length() < end
+                        && cookies.charAt(start + name.length()) == '=') {
+                    return cookies.substring(start + name.length() + 1, end).trim();
+                }
+                start = end + 1;
+            }
+        }
+        return null;
+    }
+    
+    private synchronized void eject(UpstreamTarget target) {
+        long now = System.nanoTime();
+        if (target.isEjected(now) || targets.length == 1) {
+            return;
+        }
+        int ejected = 0;
+        for (UpstreamTarget candidate : targets) {
+            if (candidate.isEjected(now)) {
+                ejected++;
+            }
+        }
+        if (ejected + 1 > targets.length / 2) {
+            return;
+        }
+        // A target that stayed in long enough since its last ejection starts over with the base back-off
+        if (now - target.getLastEjectedAt() > MAX_EJECTION.toNanos() * 2) {
+            target.setEjections(0);
+        }
+        target.setEjections(target.getEjections() + 1);
+        Duration duration = BASE_EJECTION.multipliedBy(target.getEjections());
+        if (duration.compareTo(MAX_EJECTION) > 0) {
+            duration = MAX_EJECTION;
+        }
+        target.setLastEjectedAt(now);
+        target.setEjectedUntil(now + duration.toNanos());
+        target.consecutiveFailures().set(0);
+        log.warn("⛔ Ejected {} from {} for {}s after {} consecutive failures",
+                target.getUrl(), name, duration.toSeconds(), EJECT_AFTER_FAILURES);
+        refresh();
+        Mono.delay(duration).subscribe(unused -> readmit(target));
+    }
+    
+    private synchronized void readmit(UpstreamTarget target) {
+        if (target.getEjectedUntil() != 0 && !target.isEjected(System.nanoTime())) {
+            target.setEjectedUntil(0);
+            log.info("✅ Readmitted {} to {}", target.getUrl(), name);
+            refresh();
+        }
+    }
+    
+    private synchronized void refresh() {
+        long now = System.nanoTime();
+        List<UpstreamTarget> usable = new ArrayList<>(targets.length);
+        for (UpstreamTarget target : targets) {
+            boolean ok = target.isHealthy() && !target.isEjected(now);
+            target.setAvailable(ok);
+            if (ok) {
+                usable.add(target);
+            }
+        }
+        if (usable.isEmpty()) {
+            log.warn("⚠️ No healthy targets left for {}, balancing over all of them", name);
+            available = targets;
+        } else {
+            available = usable.toArray(UpstreamTarget[]::new);
+        }
+    }
+    
+    /**
+     * Starts probing {@code healthCheckPath} on every target, if the mapping configures one.
+     * A 2xx or 3xx answer within the timeout marks a target healthy, anything else unhealthy.
+     */
+    void startProbes(HttpClient client) {
+        String path = settings.healthCheckPath();
+        if (path == null) {
+            return;
+        }
+        Duration interval = settings.healthCheckInterval();
+        Duration timeout = interval.compareTo(MAX_PROBE_TIMEOUT) < 0 ? interval : MAX_PROBE_TIMEOUT;
+        HttpClient probeClient = client.responseTimeout(timeout);
+        probes = Flux.interval(Duration.ZERO, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> Flux.fromArray(targets)
+                        .flatMap(target -> probe(probeClient, target, path, timeout))
+                        .then(), 1)
+                .subscribe(unused -> {}, error -> log.warn("❌ Health checks for {} stopped: {}", name, error.getMessage()));
+    }
+    
+    private Mono<Void> probe(HttpClient client, UpstreamTarget target, String path, Duration timeout) {
+        return client.get()
+                .uri(target.getUrl() + path)
+                .responseSingle((response, body) -> body.asByteArray()
+                        .then(Mono.just(response.status().code() < 400)))
+                .timeout(timeout)
+                .onErrorReturn(false)
+                .doOnNext(healthy -> {
+                    if (healthy != target.isHealthy()) {
+                        healthChanged(target, healthy);
+                    }
+                })
+                .then();
+    }
+    
+    private synchronized void healthChanged(UpstreamTarget target, boolean healthy) {
+        target.setHealthy(healthy);
+        if (healthy) {
+            log.info("✅ Health check passed again for {} of {}", target.getUrl(), name);
+        } else {
+            log.warn("⛔ Health check failed for {} of {}", target.getUrl(), name);
+        }
+        refresh();
+    }
+    
+    void dispose() {
+        Disposable running = probes;
+        if (running != null) {
+            running.dispose();
+        }
+    }
+    
+    public BalancerStats stats() {
+        long now = System.nanoTime();
+        List<TargetStats> stats = new ArrayList<>(targets.length);
+        for (UpstreamTarget target : targets) {
+            stats.add(target.stats(now));
+        }
+        BalancerSettings.HashKey hashKey = settings.hashKey();
+        return new BalancerStats(mappingId, name, settings.strategy().name(),
+                hashKey == null ? null : hashKey.source().name().toLowerCase() + ":" + hashKey.name(),
+                settings.healthCheckPath(), stats);
+    }
+    
+    /**
+     * 64-bit FNV-1a followed by a finalizer, so that nearby virtual node names spread over the ring.
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.funnelproxy.upstream;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns one {@link LoadBalancer} per mapping. Like upstream pools, balancers are created while
+ * the route table is compiled and kept across reloads as long as the mapping's balancing
+ * settings are unchanged, so target health and ejections survive unrelated edits.
+ */
+@Component
+public class LoadBalancers {
+    private final Map<Long, LoadBalancer> balancers = new HashMap<>();
+    // Health checks get their own small pool so they never queue behind proxied requests
+    private final ConnectionProvider probeProvider = ConnectionProvider.builder("health-checks")
+            .maxConnections(32)
+            .maxIdleTime(Duration.ofSeconds(30))
+            .build();
+    private final HttpClient probeClient = HttpClient.create(probeProvider)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) PoolSettings.DEFAULT_CONNECT_TIMEOUT.toMillis());
+    
+    public synchronized LoadBalancer balancerFor(ServiceMapping mapping) {
+        BalancerSettings settings = BalancerSettings.of(mapping);
+        LoadBalancer existing = balancers.get(mapping.getId());
+        if (existing != null && existing.getSettings().equals(settings)) {
+            return existing;
+        }
+        LoadBalancer balancer = new LoadBalancer(mapping.getId(), mapping.getName(), settings);
+        balancer.startProbes(probeClient);
+        if (existing != null) {
+            existing.dispose();
+        }
+        balancers.put(mapping.getId(), balancer);
+        return balancer;
+    }
+    
+    /**
+     * Stops the health checks of every balancer that is not referenced by the newly published route table.
+     */
+    public synchronized void retainOnly(Collection<LoadBalancer> active) {
+        Set<LoadBalancer> keep = new HashSet<>(active);
+        balancers.values().removeIf(balancer -> {
+            if (keep.contains(balancer)) {
+                return false;
+            }
+            balancer.dispose();
+            return true;
+        });
+    }
+    
+    public synchronized List<BalancerStats> stats() {
+        List<BalancerStats> stats = new ArrayList<>(balancers.size());
+        for (LoadBalancer balancer : balancers.values()) {
+            stats.add(balancer.stats());
+        }
+        return stats;
+    }
+    
+    @PreDestroy
+    public synchronized void shutdown() {
+        for (LoadBalancer balancer : balancers.values()) {
+            balancer.dispose();
+        }
+        balancers.clear();
+        probeProvider.disposeLater().block(Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.funnelproxy.upstream;
+
+import com.example.funnelproxy.model.ServiceMapping;
+
+import java.time.Duration;
+
+/**
+ * Effective connection pool and upstream call settings for one mapping, with defaults applied.
+ * Two mappings with equal settings still get separate pools; equality is only
+ * used to decide whether an existing pool can be kept across a route reload.
+ */
+public record PoolSettings(int maxConnections,
+                           int maxPending,
+                           Duration maxIdleTime,
+                           Duration maxLifeTime,
+                           Duration acquireTimeout,
+                           Protocol protocol,
+                           Duration connectTimeout,
+                           Duration responseTimeout,
+                           Duration totalTimeout,
+                           int maxRetries,
+                           int breakerErrorPercent) {
+    
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int DEFAULT_MAX_PENDING = 256;
+    public static final Duration DEFAULT_MAX_IDLE_TIME = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_MAX_LIFE_TIME = Duration.ofMinutes(10);
+    public static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_RESPONSE_TIMEOUT = Duration.ofSeconds(60);
+    public static final int DEFAULT_MAX_RETRIES = 1;
+    public static final int DEFAULT_BREAKER_ERROR_PERCENT = 50;
+    private static final int MAX_RETRIES_LIMIT = 3;
+    
+    public enum Protocol {
+        HTTP11,
+        // HTTP/2 cleartext with prior knowledge
+        H2C,
+        // HTTP/2 over TLS, negotiated with ALPN, falling back to HTTP/1.1 when the backend does not offer it
+        H2
+    }
+    
+    public static PoolSettings of(ServiceMapping mapping) {
+        return new PoolSettings(
+                positive(mapping.getPoolMaxConnections(), DEFAULT_MAX_CONNECTIONS),
+                positive(mapping.getPoolMaxPending(), DEFAULT_MAX_PENDING),
+                millis(mapping.getPoolMaxIdleMs(), DEFAULT_MAX_IDLE_TIME),
+                millis(mapping.getPoolMaxLifeMs(), DEFAULT_MAX_LIFE_TIME),
+                millis(mapping.getPoolAcquireTimeoutMs(), DEFAULT_ACQUIRE_TIMEOUT),
+                lenientProtocol(mapping.getUpstreamProtocol()),
+                millis(mapping.getConnectTimeoutMs(), DEFAULT_CONNECT_TIMEOUT),
+                millis(mapping.getResponseTimeoutMs(), DEFAULT_RESPONSE_TIMEOUT),
+                millis(mapping.getTotalTimeoutMs(), null),
+                mapping.getMaxRetries() == null ? DEFAULT_MAX_RETRIES : clamp(mapping.getMaxRetries(), 0, MAX_RETRIES_LIMIT),
+                mapping.getBreakerErrorPercent() == null
+                        ? DEFAULT_BREAKER_ERROR_PERCENT
+                        : clamp(mapping.getBreakerErrorPercent(), 0, 100));
+    }
+    
+    /**
+     * Checks the pool and upstream call columns of a mapping before it is saved.
+     *
+     * @throws IllegalArgumentException describing the first invalid value
+     */
+    public static void validate(ServiceMapping mapping) {
+        if (protocol(mapping.getUpstreamProtocol()) == Protocol.H2) {
+            for (String target : BalancerSettings.targets(mapping)) {
+                if (!target.regionMatches(true, 0, "https://", 0, 8)) {
+                    throw new IllegalArgumentException("Upstream protocol H2 needs https:// targets, use H2C for plain HTTP/2");
+                }
+            }
+        }
+        Integer retries = mapping.getMaxRetries();
+        if (retries != null && (retries < 0 || retries > MAX_RETRIES_LIMIT)) {
+            throw new IllegalArgumentException("Max retries must be between 0 and " + MAX_RETRIES_LIMIT);
+        }
+        Integer percent = mapping.getBreakerErrorPercent();
+        if (percent != null && (percent < 0 || percent > 100)) {
+            throw new IllegalArgumentException("Breaker error percent must be between 0 (off) and 100");
+        }
+    }
+    
+    /**
+     * Parses the protocol column; {@code null} or blank means HTTP/1.1.
+     *
+     * @throws IllegalArgumentException for unknown values
+     */
+    public static Protocol protocol(String value) {
+        if (value == null || value.isBlank()) {
+            return Protocol.HTTP11;
+        }
+        try {
+            return Protocol.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown upstream protocol '" + value + "', expected HTTP11, H2C or H2");
+        }
+    }
+    
+    private static Protocol lenientProtocol(String value) {
+        try {
+            return protocol(value);
+        } catch (IllegalArgumentException e) {
+            return Protocol.HTTP11;
+        }
+    }
+    
+    private static int positive(Integer value, int fallback) {
+        return value != null && value > 0 ? value : fallback;
+    }
+    
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+    
+    private static Duration millis(Long value, Duration fallback) {
+        return value != null && value > 0 ? Duration.ofMillis(value) : fallback;
+    }
+}
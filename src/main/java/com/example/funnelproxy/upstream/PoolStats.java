@@ -0,0 +1,16 @@
+package com.example.funnelproxy.upstream;
+
+/**
+ * Point-in-time view of one mapping's upstream connection pool, summed over
+ * all remote addresses the pool currently connects to.
+ */
+public record PoolStats(Long mappingId,
+                        String name,
+                        String protocol,
+                        int active,
+                        int idle,
+                        int pending,
+                        int allocated,
+                        int maxConnections,
+                        int maxPending) {
+}
@@ -0,0 +1,60 @@
+package com.example.funnelproxy.upstream;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps retries to a share of the mapping's traffic, so that retrying cannot multiply the load on
+ * a backend that is already struggling. Every request deposits a fifth of a retry; a small
+ * per-second allowance keeps retries possible for mappings with little traffic.
+ */
+public final class RetryBudget {
+    // Balances are kept in thousandths of a retry
+    private static final long UNIT = 1000;
+    private static final long DEPOSIT = UNIT / 5;
+    private static final long MIN_PER_SECOND = 10 * UNIT;
+    private static final long MAX_BALANCE = 100 * UNIT;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    
+    private final AtomicLong balance = new AtomicLong(MIN_PER_SECOND);
+    private final AtomicLong lastRefill = new AtomicLong(System.nanoTime());
+    
+    public void deposit() {
+        add(DEPOSIT);
+    }
+    
+    /**
+     * Takes one retry from the budget, if it has one.
+     */
+    public boolean tryWithdraw() {
+        refill();
+        while (true) {
+            long current = balance.get();
+            if (current < UNIT) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - UNIT)) {
+                return true;
+            }
+        }
+    }
+    
+    private void refill() {
+        long now = System.nanoTime();
+        long last = lastRefill.get();
+        long elapsed = now - last;
+        // Only whole tenths of a second, and only by the caller that wins the race
+        if (elapsed >= NANOS_PER_SECOND / 10 && lastRefill.compareAndSet(last, now)) {
+            add(Math.min(MAX_BALANCE, elapsed / (NANOS_PER_SECOND / 10) * (MIN_PER_SECOND / 10)));
+        }
+    }
+    
+    private void add(long amount) {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= MAX_BALANCE) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(MAX_BALANCE, current + amount)));
+    }
+}
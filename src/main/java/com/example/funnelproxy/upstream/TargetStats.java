@@ -0,0 +1,11 @@
+package com.example.funnelproxy.upstream;
+
+/**
+ * Point-in-time view of one upstream target of a mapping.
+ */
+public record TargetStats(String url,
+                          boolean healthy,
+                          boolean ejected,
+                          int outstanding,
+                          int consecutiveFailures) {
+}
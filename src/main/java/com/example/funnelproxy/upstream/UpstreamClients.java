@@ -0,0 +1,105 @@
+package com.example.funnelproxy.upstream;
+
+import com.example.funnelproxy.model.ServiceMapping;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns one {@link UpstreamPool} per mapping. Pools are created while the route table is
+ * compiled, kept across reloads as long as the mapping's pool settings are unchanged, and
+ * disposed after a grace period once no published route table references them. Callers
+ * compile and publish one route table at a time, so a pool replaced here is never one the
+ * published table still uses.
+ */
+@Component
+public class UpstreamClients {
+    private static final Logger log = LoggerFactory.getLogger(UpstreamClients.class);
+    // Lets requests that started on a replaced pool finish before its connections are closed
+    private static final Duration DISPOSE_GRACE = Duration.ofSeconds(30);
+    
+    private final Map<Long, UpstreamPool> pools = new HashMap<>();
+    private final Set<UpstreamPool> retired = new HashSet<>();
+    private final int maxFramePayloadLength;
+    
+    public UpstreamClients(@Value("${spring.webflux.websocket.max-frame-payload-length:65536}") int maxFramePayloadLength) {
+        this.maxFramePayloadLength = maxFramePayloadLength;
+    }
+    
+    public synchronized UpstreamPool poolFor(ServiceMapping mapping) {
+        PoolSettings settings = PoolSettings.of(mapping);
+        UpstreamPool existing = pools.get(mapping.getId());
+        if (existing != null && existing.getSettings().equals(settings)) {
+            return existing;
+        }
+        UpstreamPool pool = new UpstreamPool(mapping.getId(), mapping.getName(), settings, maxFramePayloadLength);
+        if (existing != null) {
+            retire(existing);
+        }
+        pools.put(mapping.getId(), pool);
+        return pool;
+    }
+    
+    /**
+     * Retires every pool that is not referenced by the newly published route table.
+     */
+    public synchronized void retainOnly(Collection<UpstreamPool> active) {
+        Set<UpstreamPool> keep = new HashSet<>(active);
+        pools.values().removeIf(pool -> {
+            if (keep.contains(pool)) {
+                return false;
+            }
+            retire(pool);
+            return true;
+        });
+    }
+    
+    public synchronized List<PoolStats> stats() {
+        List<PoolStats> stats = new ArrayList<>(pools.size());
+        for (UpstreamPool pool : pools.values()) {
+            stats.add(pool.stats());
+        }
+        return stats;
+    }
+    
+    public synchronized List<BreakerStats> breakerStats() {
+        List<BreakerStats> stats = new ArrayList<>(pools.size());
+        for (UpstreamPool pool : pools.values()) {
+            stats.add(pool.breakerStats());
+        }
+        return stats;
+    }
+    
+    private void retire(UpstreamPool pool) {
+        if (retired.add(pool)) {
+            Mono.delay(DISPOSE_GRACE)
+                    .then(pool.dispose())
+                    .doFinally(signal -> {
+                        synchronized (this) {
+                            retired.remove(pool);
+                        }
+                    })
+                    .subscribe(unused -> {}, error -> log.warn("❌ Error closing upstream pool: {}", error.getMessage()));
+        }
+    }
+    
+    @PreDestroy
+    public synchronized void shutdown() {
+        for (UpstreamPool pool : pools.values()) {
+            pool.dispose().block(Duration.ofSeconds(5));
+        }
+        pools.clear();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.funnelproxy.upstream;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dedicated connection pool and clients for a single mapping's backend, so a slow
+ * backend can only exhaust its own connections and never starve other mappings.
+ * The pool also carries the mapping's circuit breaker and retry budget.
+ */
+public final class UpstreamPool {
+    private static final Duration EVICTION_INTERVAL = Duration.ofSeconds(15);
+    
+    private final Long mappingId;
+    private final String name;
+    private final PoolSettings settings;
+    private final ConnectionProvider provider;
+    private final HttpClient httpClient;
+    private final WebClient webClient;
+    private final ReactorNettyWebSocketClient webSocketClient;
+    private final CircuitBreaker breaker;
+    private final RetryBudget retryBudget = new RetryBudget();
+    private final Map<SocketAddress, ConnectionPoolMetrics> metrics = new ConcurrentHashMap<>();
+    
+    UpstreamPool(Long mappingId, String name, PoolSettings settings, int maxFramePayloadLength) {
+        this.mappingId = mappingId;
+        this.name = name;
+        this.settings = settings;
+        this.provider = ConnectionProvider.builder("upstream-" + mappingId)
+                .maxConnections(settings.maxConnections())
+                .pendingAcquireMaxCount(settings.maxPending())
+                .pendingAcquireTimeout(settings.acquireTimeout())
+                .maxIdleTime(settings.maxIdleTime())
+                .maxLifeTime(settings.maxLifeTime())
+                .evictInBackground(EVICTION_INTERVAL)
+                .metrics(true, () -> new Registrar())
+                .build();
+        HttpClient base = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) settings.connectTimeout().toMillis());
+        // The response timeout bounds the wait for the first byte and every later silence while reading
+        HttpClient client = switch (settings.protocol()) {
+            case H2C -> base.protocol(HttpProtocol.H2C);
+            case H2 -> base.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+            case HTTP11 -> base.protocol(HttpProtocol.HTTP11);
+        };
+        this.httpClient = client.responseTimeout(settings.responseTimeout());
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+        // WebSocket upgrades always use HTTP/1.1; ping and pong frames are relayed, not answered
+        this.webSocketClient = new ReactorNettyWebSocketClient(base.protocol(HttpProtocol.HTTP11),
+                () -> WebsocketClientSpec.builder()
+                        .handlePing(true)
+                        .maxFramePayloadLength(maxFramePayloadLength));
+        this.breaker = new CircuitBreaker(name, settings.breakerErrorPercent());
+    }
+    
+    public Long getMappingId() {
+        return mappingId;
+    }
+    
+    public PoolSettings getSettings() {
+        return settings;
+    }
+    
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+    
+    public WebClient getWebClient() {
+        return webClient;
+    }
+    
+    public ReactorNettyWebSocketClient getWebSocketClient() {
+        return webSocketClient;
+    }
+    
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+    
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+    
+    public PoolStats stats() {
+        int active = 0;
+        int idle = 0;
+        int pending = 0;
+        int allocated = 0;
+        for (ConnectionPoolMetrics pool : metrics.values()) {
+            active += pool.acquiredSize();
+            idle += pool.idleSize();
+            pending += pool.pendingAcquireSize();
+            allocated += pool.allocatedSize();
+        }
+        return new PoolStats(mappingId, name, settings.protocol().name(), active, idle, pending, allocated,
+                settings.maxConnections(), settings.maxPending());
+    }
+    
+    public BreakerStats breakerStats() {
+        return breaker.stats(mappingId);
+    }
+    
+    Mono<Void> dispose() {
+        return provider.disposeLater();
+    }
+    
+    private final class Registrar implements ConnectionProvider.MeterRegistrar {
+        @Override
+        public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics poolMetrics) {
+            metrics.put(remoteAddress, poolMetrics);
+        }
+        
+        @Override
+        public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+            metrics.remove(remoteAddress);
+        }
+    }
+}
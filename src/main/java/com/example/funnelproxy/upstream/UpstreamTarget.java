@@ -0,0 +1,92 @@
+package com.example.funnelproxy.upstream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One backend URL of a mapping together with the state the {@link LoadBalancer} keeps about it:
+ * requests currently in flight, the last active health check result and passive outlier ejection.
+ */
+public final class UpstreamTarget {
+    private final String url;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private volatile boolean available = true;
+    // System.nanoTime() until which the target is ejected, 0 when it is not
+    private volatile long ejectedUntil;
+    // Guarded by the owning balancer
+    private int ejections;
+    private long lastEjectedAt;
+    
+    UpstreamTarget(String url) {
+        this.url = url;
+    }
+    
+    public String getUrl() {
+        return url;
+    }
+    
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+    
+    AtomicInteger outstanding() {
+        return outstanding;
+    }
+    
+    AtomicInteger consecutiveFailures() {
+        return consecutiveFailures;
+    }
+    
+    boolean isHealthy() {
+        return healthy;
+    }
+    
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+    
+    /**
+     * Healthy and not ejected, as of the balancer's last recomputation.
+     */
+    boolean isAvailable() {
+        return available;
+    }
+    
+    void setAvailable(boolean available) {
+        this.available = available;
+    }
+    
+    boolean isEjected(long now) {
+        long until = ejectedUntil;
+        return until != 0 && now - until < 0;
+    }
+    
+    long getEjectedUntil() {
+        return ejectedUntil;
+    }
+    
+    void setEjectedUntil(long ejectedUntil) {
+        this.ejectedUntil = ejectedUntil;
+    }
+    
+    int getEjections() {
+        return ejections;
+    }
+    
+    void setEjections(int ejections) {
+        this.ejections = ejections;
+    }
+    
+    long getLastEjectedAt() {
+        return lastEjectedAt;
+    }
+    
+    void setLastEjectedAt(long lastEjectedAt) {
+        this.lastEjectedAt = lastEjectedAt;
+    }
+    
+    TargetStats stats(long now) {
+        return new TargetStats(url, healthy, isEjected(now), outstanding.get(), consecutiveFailures.get());
+    }
+}
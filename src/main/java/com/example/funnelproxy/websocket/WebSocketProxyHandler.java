@@ -1,88 +1,218 @@
 package com.example.funnelproxy.websocket;
 
+import com.example.funnelproxy.logging.AccessLog;
+import com.example.funnelproxy.metrics.MappingMeters;
+import com.example.funnelproxy.metrics.UpstreamError;
 import com.example.funnelproxy.model.ServiceMapping;
-import com.example.funnelproxy.repository.ServiceMappingRepo;
+import com.example.funnelproxy.routing.Route;
+import com.example.funnelproxy.routing.RouteRegistry;
+import com.example.funnelproxy.service.ProxyHeaders;
+import com.example.funnelproxy.service.ProxyService;
+import com.example.funnelproxy.upstream.CircuitBreaker;
+import com.example.funnelproxy.upstream.LoadBalancer;
+import com.example.funnelproxy.upstream.UpstreamTarget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.HandshakeInfo;
 import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
-import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
 import java.net.URI;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class WebSocketProxyHandler implements WebSocketHandler {
+    private static final Logger log = LoggerFactory.getLogger(WebSocketProxyHandler.class);
     
-    private final ServiceMappingRepo repo;
-    private final ReactorNettyWebSocketClient client;
+    private final RouteRegistry routes;
+    private final AccessLog accessLog;
     
-    public WebSocketProxyHandler(ServiceMappingRepo repo) {
-        this.repo = repo;
-        this.client = new ReactorNettyWebSocketClient();
+    public WebSocketProxyHandler(RouteRegistry routes, AccessLog accessLog) {
+        this.routes = routes;
+        this.accessLog = accessLog;
     }
     
     @Override
     public Mono<Void> handle(WebSocketSession session) {
         String path = session.getHandshakeInfo().getUri().getPath();
         
-        System.out.println("🔌 WebSocket connection attempt for path: " + path);
-        
         // Skip admin paths - these should not be WebSocket connections
-        if (path.startsWith("/admin") || path.equals("/health") || path.equals("/status") || path.equals("/")) {
-            System.out.println("❌ Rejecting WebSocket connection for admin path: " + path);
+        if (!ProxyService.isProxied(path)) {
             return session.close();
         }
         
-        return repo.findAll()
-                .doOnNext(service -> System.out.println("🔍 Checking WebSocket service: " + service.getPathPrefix()))
-                .filter(s -> {
-                    boolean matches = path.startsWith(s.getPathPrefix());
-                    System.out.println("🔍 WebSocket path " + path + " matches " + s.getPathPrefix() + " = " + matches);
-                    return matches;
-                })
-                .next()
-                .flatMap(mapping -> proxyWebSocket(session, mapping, path))
-                .switchIfEmpty(Mono.defer(() -> {
-                    System.out.println("❌ No WebSocket service found for path: " + path);
-                    return session.close();
-                }));
+        String host = session.getHandshakeInfo().getHeaders().getFirst(HttpHeaders.HOST);
+        Route route = routes.current().match(host, path);
+        if (route == null) {
+            return session.close();
+        }
+        
+        return proxyWebSocket(session, route, path);
+    }
+    
+    /**
+     * This handler for one handshake, accepting the subprotocols the client offered. The
+     * first of them is agreed with the client and then requested from the backend.
+     */
+    public WebSocketHandler offering(List<String> subProtocols) {
+        if (subProtocols.isEmpty()) {
+            return this;
+        }
+        return new WebSocketHandler() {
+            @Override
+            public List<String> getSubProtocols() {
+                return subProtocols;
+            }
+            
+            @Override
+            public Mono<Void> handle(WebSocketSession session) {
+                return WebSocketProxyHandler.this.handle(session);
+            }
+        };
     }
     
-    private Mono<Void> proxyWebSocket(WebSocketSession session, ServiceMapping mapping, String path) {
-        // Rewrite path for target service
-        String newPath = path.replaceFirst("^" + mapping.getPathPrefix(), "");
-        if (!newPath.startsWith("/")) {
-            newPath = "/" + newPath;
+    private Mono<Void> proxyWebSocket(WebSocketSession session, Route route, String path) {
+        ServiceMapping mapping = route.getMapping();
+        // Rewrite path for target service, keeping the query (socket.io sends ?EIO=4&transport=websocket)
+        HandshakeInfo handshake = session.getHandshakeInfo();
+        String newPath = ProxyService.backendPath(path, mapping.getPathPrefix());
+        if (handshake.getUri().getRawQuery() != null) {
+            newPath += "?" + handshake.getUri().getRawQuery();
         }
         
-        // Build WebSocket URL for target service
-        String targetWsUrl = mapping.getTargetUrl().replace("http://", "ws://").replace("https://", "wss://") + newPath;
+        // While the backend is failing, turn new sessions away instead of trying to connect
+        CircuitBreaker breaker = route.getUpstream().getBreaker();
+        if (!breaker.tryAcquire()) {
+            route.getMeters().upstreamError(UpstreamError.CIRCUIT_OPEN);
+            return session.close(CloseStatus.SERVICE_OVERLOAD);
+        }
+        
+        // Build WebSocket URL for the target picked for this session
+        LoadBalancer balancer = route.getBalancer();
+        UpstreamTarget target = balancer.select(handshake.getHeaders());
+        String targetWsUrl = target.getUrl().replace("http://", "ws://").replace("https://", "wss://") + newPath;
         
-        System.out.println("🔌 Proxying WebSocket " + path + " -> " + targetWsUrl);
+        boolean traced = accessLog.isTraced(mapping.getId());
+        if (traced) {
+            accessLog.trace("WebSocket {} -> {}", path, targetWsUrl);
+        }
+        long start = System.nanoTime();
+        AtomicLong framesIn = new AtomicLong();
+        AtomicLong framesOut = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicBoolean connected = new AtomicBoolean();
+        MappingMeters meters = route.getMeters();
         
         try {
             URI targetUri = URI.create(targetWsUrl);
+            HttpHeaders headers = ProxyHeaders.copyHandshake(handshake.getHeaders());
+            if (mapping.getHost() != null && !mapping.getHost().isEmpty()) {
+                headers.set(HttpHeaders.HOST, mapping.getHost());
+            }
+            // Ask the backend for the subprotocol already agreed with the client
+            List<String> subProtocols = handshake.getSubProtocol() != null ? List.of(handshake.getSubProtocol()) : List.of();
             
-            return client.execute(targetUri, targetSession -> {
-                System.out.println("✅ WebSocket connection established to " + targetWsUrl);
+            return route.getUpstream().getWebSocketClient().execute(targetUri, headers, new WebSocketHandler() {
+                @Override
+                public List<String> getSubProtocols() {
+                    return subProtocols;
+                }
                 
-                // Forward messages from client to target
-                Mono<Void> input = session.receive()
-                        .doOnNext(message -> System.out.println("📤 Forwarding message to target: " + message.getPayloadAsText()))
-                        .map(message -> targetSession.textMessage(message.getPayloadAsText()))
-                        .as(targetSession::send);
-                
-                // Forward messages from target to client
-                Mono<Void> output = targetSession.receive()
-                        .doOnNext(message -> System.out.println("📥 Forwarding message to client: " + message.getPayloadAsText()))
-                        .map(message -> session.textMessage(message.getPayloadAsText()))
-                        .as(session::send);
-                
-                return Mono.zip(input, output).then();
+                @Override
+                public Mono<Void> handle(WebSocketSession targetSession) {
+                    connected.set(true);
+                    balancer.succeeded(target);
+                    breaker.onSuccess();
+                    // Each direction ends when its source closes, or is cancelled when the side it
+                    // writes to has closed; the side that closed first passes its own status on
+                    AtomicBoolean closing = new AtomicBoolean();
+                    Mono<Void> input = targetSession.send(relay(session, framesIn, meters::frameIn)
+                            .doOnCancel(() -> passClose(targetSession, session, closing).subscribe()))
+                            .then(passClose(session, targetSession, closing));
+                    Mono<Void> output = session.send(relay(targetSession, framesOut, meters::frameOut)
+                            .doOnCancel(() -> passClose(session, targetSession, closing).subscribe()))
+                            .then(passClose(targetSession, session, closing));
+                    
+                    // An error in either direction cancels the other and closes both connections
+                    return Mono.when(input, output);
+                }
+            }).doOnSubscribe(subscription -> meters.webSocketOpened()).doOnError(error -> {
+                failed.set(true);
+                if (!connected.get()) {
+                    // The handshake with the target failed
+                    balancer.failed(target);
+                    breaker.onFailure();
+                }
+                if (traced) {
+                    accessLog.trace("WebSocket {} failed: {}", targetWsUrl, error.toString());
+                }
+            }).doFinally(signal -> {
+                // The session counts as outstanding on its target for as long as it is open
+                balancer.release(target);
+                if (signal == SignalType.CANCEL && !connected.get()) {
+                    breaker.onIgnored();
+                }
+                meters.webSocketClosed();
+                accessLog.logWebSocket(mapping.getName(), path, framesIn.get(), framesOut.get(), start, failed.get(), traced);
             });
         } catch (Exception e) {
-            System.err.println("❌ WebSocket proxy error: " + e.getMessage());
+            balancer.release(target);
+            breaker.onIgnored();
+            log.warn("WebSocket proxy error for {}: {}", targetWsUrl, e.getMessage());
             return session.close();
         }
     }
+    
+    /**
+     * Frames from {@code source}, passed on unchanged. Text, binary, ping and pong frames keep
+     * their type, and the payload buffer is retained rather than copied; the sending session
+     * releases it once written. Demand from the sending side is what pulls frames off the
+     * source connection, so a slow reader slows down the writer instead of buffering.
+     */
+    private static Flux<WebSocketMessage> relay(WebSocketSession source, AtomicLong frames, Runnable meter) {
+        return source.receive()
+                .map(message -> {
+                    frames.incrementAndGet();
+                    meter.run();
+                    return message.retain();
+                })
+                .doOnDiscard(WebSocketMessage.class, WebSocketMessage::release);
+    }
+    
+    /**
+     * Closes {@code other} with the status {@code closed} closed with, unless {@code other}
+     * closed first: then {@code closed} is only answering that close, and its status is not
+     * sent back. When {@code closed} goes away first, this has to start before the read from
+     * {@code other} is cancelled: Reactor Netty answers that cancel with a close frame of its
+     * own that carries no status.
+     */
+    private static Mono<Void> passClose(WebSocketSession closed, WebSocketSession other, AtomicBoolean closing) {
+        return closed.closeStatus()
+                .map(WebSocketProxyHandler::forwardable)
+                .defaultIfEmpty(CloseStatus.NORMAL)
+                .filter(status -> closing.compareAndSet(false, true))
+                .flatMap(other::close);
+    }
+    
+    /**
+     * 1005 and 1006 describe a missing or abnormal close and may not be sent in a close frame.
+     */
+    private static CloseStatus forwardable(CloseStatus status) {
+        if (status.getCode() == CloseStatus.NO_STATUS_CODE.getCode()) {
+            return CloseStatus.NORMAL;
+        }
+        if (status.getCode() == CloseStatus.NO_CLOSE_FRAME.getCode()) {
+            return CloseStatus.GOING_AWAY;
+        }
+        return status;
+    }
 }
\ No newline at end of file
@@ -1,7 +1,49 @@
 CREATE TABLE IF NOT EXISTS service_mapping (
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
     name VARCHAR(255) NOT NULL,
-    path_prefix VARCHAR(255) NOT NULL UNIQUE,
+    path_prefix VARCHAR(255) NOT NULL,
     target_url VARCHAR(500) NOT NULL,
-    host VARCHAR(255)
-);
\ No newline at end of file
+    host VARCHAR(255),
+    rewrite_rules VARCHAR(2000),
+    pool_max_connections INT,
+    pool_max_pending INT,
+    pool_max_idle_ms BIGINT,
+    pool_max_life_ms BIGINT,
+    pool_acquire_timeout_ms BIGINT,
+    upstream_protocol VARCHAR(16),
+    cache_enabled BOOLEAN,
+    extra_targets VARCHAR(2000),
+    balancer VARCHAR(32),
+    hash_key VARCHAR(255),
+    health_check_path VARCHAR(255),
+    health_check_interval_ms BIGINT,
+    connect_timeout_ms BIGINT,
+    response_timeout_ms BIGINT,
+    total_timeout_ms BIGINT,
+    max_retries INTEGER,
+    breaker_error_percent INTEGER,
+    compress_enabled BOOLEAN,
+    compress_types VARCHAR(500),
+    compress_min_bytes INTEGER,
+    rewrite_max_bytes INTEGER,
+    upload_max_bytes BIGINT,
+    upload_rate_bytes BIGINT,
+    route_host VARCHAR(255),
+    fallback_rules VARCHAR(2000),
+    UNIQUE NULLS NOT DISTINCT (route_host, path_prefix)
+);
+
+-- The version of the mappings above, exchanged between cluster nodes; a single row
+CREATE TABLE IF NOT EXISTS cluster_state (
+    id INT PRIMARY KEY,
+    counter BIGINT NOT NULL,
+    origin VARCHAR(255) NOT NULL
+);
+
+-- Tables are kept across restarts, so columns added from here on go below as
+-- ALTER TABLE service_mapping ADD COLUMN IF NOT EXISTS ..., for existing data files
+ALTER TABLE service_mapping ADD COLUMN IF NOT EXISTS rate_limit INT;
+ALTER TABLE service_mapping ADD COLUMN IF NOT EXISTS rate_limit_burst INT;
+ALTER TABLE service_mapping ADD COLUMN IF NOT EXISTS client_rate_limit INT;
+ALTER TABLE service_mapping ADD COLUMN IF NOT EXISTS client_rate_limit_burst INT;
+ALTER TABLE service_mapping ADD COLUMN IF NOT EXISTS route_rate_limits VARCHAR(2000);
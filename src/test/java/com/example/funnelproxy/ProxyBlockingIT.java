@@ -0,0 +1,388 @@
+package com.example.funnelproxy;
+
+import com.aayushatharva.brotli4j.decoder.Decoder;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.WebsocketServerSpec;
+import reactor.util.function.Tuple2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the proxy against stub backends with BlockHound installed: plain, compressed, rewritten,
+ * coalesced and WebSocket traffic. A blocking call on an event loop is recorded wherever it happens and
+ * fails the test that caused it, even when the request itself got through.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "management.server.port=0",
+        "spring.webflux.websocket.max-frame-payload-length=" + ProxyBlockingIT.MAX_MESSAGE})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ProxyBlockingIT {
+    // Whole messages are reassembled up to this size, so it has to cover the large binary message below
+    static final int MAX_MESSAGE = 256 * 1024;
+    
+    private static final Queue<BlockingOperationError> blockingCalls = new ConcurrentLinkedQueue<>();
+    private static final String TEXT = "Plain text from the backend, long enough to be worth compressing. ".repeat(200);
+    private static final String PAGE = "<html><head><script src=\"/app.js\"></script></head><body>"
+            + "<a href=\"/docs\">docs</a><img src='/logo.png'>" + "<p>filler</p>".repeat(200) + "</body></html>";
+    private static final byte[] PAGE_GZIP = gzip(PAGE);
+    private static final byte[] LARGE_BINARY = binary(100 * 1024);
+    private static final String STYLE = "body { background: url(/img/bg.png); } .logo { background: url('/img/logo.svg'); }";
+    private static final String SCRIPT = "import { start } from \"/modules/app.js\";\nfetch(\"/api/status\").then(start);";
+    
+    static {
+        // Installed before the context starts, so every Reactor and Netty thread is watched
+        BlockHound.builder()
+                .loadIntegrations()
+                .blockingMethodCallback(method -> {
+                    BlockingOperationError error = new BlockingOperationError(method);
+                    blockingCalls.add(error);
+                    throw error;
+                })
+                .install();
+    }
+    
+    @LocalServerPort
+    private int port;
+    
+    private WebTestClient client;
+    private WebClient concurrentClient;
+    private DisposableServer backend;
+    private final AtomicInteger unstorableCalls = new AtomicInteger();
+    private final Sinks.One<CloseStatus> backendClose = Sinks.one();
+    
+    @DynamicPropertySource
+    static void dataDir(DynamicPropertyRegistry registry) {
+        registry.add("funnel.data-dir", () -> "./target/it-data/" + UUID.randomUUID());
+    }
+    
+    @BeforeAll
+    void startBackend() {
+        // Spring's default connector asks for compression and decodes it, hiding what the proxy sent
+        client = WebTestClient.bindToServer(new ReactorClientHttpConnector(HttpClient.create()))
+                .baseUrl("http://localhost:" + port)
+                .build();
+        concurrentClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create()))
+                .baseUrl("http://localhost:" + port)
+                .build();
+        backend = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/text", (request, response) -> response
+                                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE)
+                                .sendString(Mono.just(TEXT)))
+                        .get("/page", (request, response) -> response
+                                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_HTML_VALUE)
+                                .sendString(Mono.just(PAGE)))
+                        .get("/page.gz", (request, response) -> response
+                                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_HTML_VALUE)
+                                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                                .sendByteArray(Mono.just(PAGE_GZIP)))
+                        .get("/style.css", (request, response) -> response
+                                .header(HttpHeaders.CONTENT_TYPE, "text/css; charset=utf-8")
+                                .sendString(Mono.just(STYLE)))
+                        .get("/app.js", (request, response) -> response
+                                .header(HttpHeaders.CONTENT_TYPE, "text/javascript")
+                                .sendString(Mono.just(SCRIPT)))
+                        // Slow enough for concurrent requests to overlap, so the coalescer sees them together
+                        .get("/me", (request, response) -> response
+                                .header(HttpHeaders.ETAG, "\"v1\"")
+                                .sendString(Mono.delay(Duration.ofMillis(500))
+                                        .thenReturn("user:" + request.requestHeaders().get(HttpHeaders.COOKIE))))
+                        .get("/unstorable", (request, response) -> response
+                                .sendString(Mono.delay(Duration.ofMillis(500))
+                                        .thenReturn("call:" + unstorableCalls.incrementAndGet())))
+                        .ws("/echo", (in, out) -> {
+                            in.receiveCloseStatus().subscribe(status -> backendClose.tryEmitValue(new CloseStatus(status.code(), status.reasonText())));
+                            return out.sendString(in.receive().asString().map(message -> "echo:" + message));
+                        })
+                        // Sends every data frame back as it arrived, keeping its type
+                        .ws("/frames", (in, out) -> out.sendObject(in.aggregateFrames(MAX_MESSAGE).receiveFrames()
+                                        .filter(frame -> frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame)
+                                        .map(WebSocketFrame::retain)),
+                                WebsocketServerSpec.builder().maxFramePayloadLength(MAX_MESSAGE).build())
+                        // Answers the first message and closes; reading on keeps the inbound open for the close handshake
+                        .ws("/bye", (in, out) -> in.receive().asString()
+                                .concatMap(message -> out.sendString(Mono.just("bye:" + message)).then()
+                                        .then(out.sendClose(4002, "backend-bye")))
+                                .then()))
+                .bindNow();
+        client.post().uri("/admin/api/services")
+                .bodyValue(Map.of("name", "stub", "pathPrefix", "/stub", "targetUrl", "http://localhost:" + backend.port()))
+                .exchange()
+                .expectStatus().is2xxSuccessful();
+        client.post().uri("/admin/api/services")
+                .bodyValue(Map.of("name", "cached", "pathPrefix", "/cached", "targetUrl", "http://localhost:" + backend.port(),
+                        "cacheEnabled", true))
+                .exchange()
+                .expectStatus().is2xxSuccessful();
+    }
+    
+    @AfterAll
+    void stopBackend() {
+        backend.disposeNow();
+    }
+    
+    @AfterEach
+    void noBlockingCalls() {
+        List<BlockingOperationError> calls = List.copyOf(blockingCalls);
+        blockingCalls.clear();
+        if (!calls.isEmpty()) {
+            AssertionError failure = new AssertionError("Blocking calls on non-blocking threads: " + calls);
+            calls.forEach(failure::addSuppressed);
+            throw failure;
+        }
+    }
+    
+    @Test
+    void plainResponsePassesThrough() {
+        byte[] body = client.get().uri("/stub/text")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING)
+                .expectBody(byte[].class).returnResult().getResponseBody();
+        assertThat(new String(body, StandardCharsets.UTF_8)).isEqualTo(TEXT);
+    }
+    
+    @Test
+    void gzipResponseDecodesToTheOriginal() throws IOException {
+        byte[] body = client.get().uri("/stub/text")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class).returnResult().getResponseBody();
+        assertThat(gunzip(body)).isEqualTo(TEXT);
+    }
+    
+    @Test
+    void brotliResponseDecodesToTheOriginal() throws IOException {
+        byte[] body = client.get().uri("/stub/text")
+                .header(HttpHeaders.ACCEPT_ENCODING, "br")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "br")
+                .expectBody(byte[].class).returnResult().getResponseBody();
+        assertThat(new String(Decoder.decompress(body).getDecompressedData(), StandardCharsets.UTF_8)).isEqualTo(TEXT);
+    }
+    
+    @Test
+    void pageLinksGetThePrefix() {
+        String body = client.get().uri("/stub/page")
+                .accept(MediaType.TEXT_HTML)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertThat(body).contains("src=\"/stub/app.js\"", "href=\"/stub/docs\"", "src='/stub/logo.png'");
+    }
+    
+    @Test
+    void gzipPageIsDecodedRewrittenAndCompressedAgain() throws IOException {
+        byte[] body = client.get().uri("/stub/page.gz")
+                .accept(MediaType.TEXT_HTML)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class).returnResult().getResponseBody();
+        assertThat(gunzip(body)).contains("src=\"/stub/app.js\"", "href=\"/stub/docs\"");
+    }
+    
+    @Test
+    void stylesheetAndScriptLinksGetThePrefix() {
+        String style = client.get().uri("/stub/style.css")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertThat(style).contains("url(/stub/img/bg.png)", "url('/stub/img/logo.svg')");
+        String script = client.get().uri("/stub/app.js")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).returnResult().getResponseBody();
+        assertThat(script).contains("from \"/stub/modules/app.js\"", "fetch(\"/stub/api/status\")");
+    }
+    
+    @Test
+    void concurrentRequestsWithDifferentCookiesGetTheirOwnResponse() {
+        Tuple2<String, String> bodies = Mono.zip(fetch("/cached/me", "session=alice"), fetch("/cached/me", "session=bob"))
+                .block(Duration.ofSeconds(10));
+        assertThat(bodies.getT1()).isEqualTo("user:session=alice");
+        assertThat(bodies.getT2()).isEqualTo("user:session=bob");
+    }
+    
+    @Test
+    void concurrentRequestsDoNotShareAResponseTheCacheWouldNotStore() {
+        Tuple2<String, String> bodies = Mono.zip(fetch("/cached/unstorable", null), fetch("/cached/unstorable", null))
+                .block(Duration.ofSeconds(10));
+        assertThat(unstorableCalls).hasValue(2);
+        assertThat(List.of(bodies.getT1(), bodies.getT2())).containsExactlyInAnyOrder("call:1", "call:2");
+    }
+    
+    @Test
+    void webSocketRelaysFramesAndTheClientsCloseStatus() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        new ReactorNettyWebSocketClient().execute(URI.create("ws://localhost:" + port + "/stub/echo"), session -> Mono.when(
+                        session.send(Mono.just(session.textMessage("hi"))),
+                        // Closing from inside the read keeps it running until the close handshake ends it
+                        session.receive()
+                                .map(WebSocketMessage::getPayloadAsText)
+                                .concatMap(message -> {
+                                    received.add(message);
+                                    return session.close(new CloseStatus(4001, "client-bye"));
+                                })))
+                .block(Duration.ofSeconds(5));
+        assertThat(received).containsExactly("echo:hi");
+        assertThat(backendClose.asMono().block(Duration.ofSeconds(5))).isEqualTo(new CloseStatus(4001, "client-bye"));
+    }
+    
+    @Test
+    void webSocketPassesTheBackendsCloseStatus() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        AtomicReference<CloseStatus> clientClose = new AtomicReference<>();
+        new ReactorNettyWebSocketClient().execute(URI.create("ws://localhost:" + port + "/stub/bye"), session -> Mono.when(
+                        session.send(Mono.just(session.textMessage("hi"))),
+                        session.receive()
+                                .map(WebSocketMessage::getPayloadAsText)
+                                .doOnNext(received::add)
+                                .then(session.closeStatus())
+                                .doOnNext(clientClose::set)))
+                .block(Duration.ofSeconds(5));
+        assertThat(received).containsExactly("bye:hi");
+        assertThat(clientClose.get()).isEqualTo(new CloseStatus(4002, "backend-bye"));
+    }
+    
+    @Test
+    void webSocketRelaysBinaryFramesByteForByte() {
+        byte[] everyByte = binary(256);
+        List<Frame> echoed = exchangeFrames(List.of(
+                new BinaryWebSocketFrame(Unpooled.wrappedBuffer(everyByte)),
+                new TextWebSocketFrame("between"),
+                new BinaryWebSocketFrame(Unpooled.wrappedBuffer(LARGE_BINARY))), 3);
+        assertThat(echoed).hasSize(3);
+        assertThat(echoed.get(0).type()).isEqualTo(BinaryWebSocketFrame.class);
+        assertThat(echoed.get(0).bytes()).isEqualTo(everyByte);
+        assertThat(echoed.get(1).type()).isEqualTo(TextWebSocketFrame.class);
+        assertThat(echoed.get(1).bytes()).isEqualTo("between".getBytes(StandardCharsets.UTF_8));
+        assertThat(echoed.get(2).type()).isEqualTo(BinaryWebSocketFrame.class);
+        assertThat(echoed.get(2).bytes()).isEqualTo(LARGE_BINARY);
+    }
+    
+    @Test
+    void webSocketReassemblesFragmentedBinaryMessages() {
+        int fragment = LARGE_BINARY.length / 4;
+        List<Frame> echoed = exchangeFrames(List.of(
+                new BinaryWebSocketFrame(false, 0, Unpooled.wrappedBuffer(LARGE_BINARY, 0, fragment)),
+                new ContinuationWebSocketFrame(false, 0, Unpooled.wrappedBuffer(LARGE_BINARY, fragment, fragment)),
+                new ContinuationWebSocketFrame(false, 0, Unpooled.wrappedBuffer(LARGE_BINARY, 2 * fragment, fragment)),
+                new ContinuationWebSocketFrame(true, 0,
+                        Unpooled.wrappedBuffer(LARGE_BINARY, 3 * fragment, LARGE_BINARY.length - 3 * fragment))), 1);
+        assertThat(echoed).hasSize(1);
+        assertThat(echoed.get(0).type()).isEqualTo(BinaryWebSocketFrame.class);
+        assertThat(echoed.get(0).bytes()).isEqualTo(LARGE_BINARY);
+    }
+    
+    /**
+     * Sends raw frames through the proxy to the echoing backend and collects the first {@code replies}
+     * messages that come back. Reading starts together with sending, so no reply arrives unheard.
+     */
+    private List<Frame> exchangeFrames(List<WebSocketFrame> frames, int replies) {
+        return HttpClient.create()
+                .websocket(WebsocketClientSpec.builder().maxFramePayloadLength(MAX_MESSAGE).build())
+                .uri("ws://localhost:" + port + "/stub/frames")
+                .handle((in, out) -> in.aggregateFrames(MAX_MESSAGE).receiveFrames()
+                        .take(replies)
+                        .map(frame -> new Frame(frame.getClass(), ByteBufUtil.getBytes(frame.content())))
+                        .mergeWith(out.sendObject(Flux.fromIterable(frames)).then().thenMany(Flux.empty())))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+    }
+    
+    private Mono<String> fetch(String uri, String cookie) {
+        return concurrentClient.get().uri(uri)
+                .headers(headers -> {
+                    if (cookie != null) {
+                        headers.set(HttpHeaders.COOKIE, cookie);
+                    }
+                })
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+    
+    /**
+     * Bytes cycling through every value, most of which are not valid UTF-8 on their own.
+     */
+    private static byte[] binary(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (255 - i % 256);
+        }
+        return bytes;
+    }
+    
+    private static byte[] gzip(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static String gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private record Frame(Class<?> type, byte[] bytes) {
+    }
+}